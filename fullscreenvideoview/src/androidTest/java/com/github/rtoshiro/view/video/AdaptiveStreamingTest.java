@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HlsPlaylist and AdaptiveStreamingEngine against playlists served from a loopback socket.
+ * The variants are "played" by a {@link SimulatedPlayerEngine}, so only the selection is real.
+ */
+public class AdaptiveStreamingTest extends InstrumentationTestCase {
+
+    protected static final String MASTER =
+            "#EXTM3U\n" +
+                    "#EXT-X-STREAM-INF:BANDWIDTH=2500000,RESOLUTION=1280x720,CODECS=\"avc1.4d401f,mp4a.40.2\"\n" +
+                    "hi/index.m3u8\n" +
+                    "#EXT-X-STREAM-INF:BANDWIDTH=400000,RESOLUTION=426x240\n" +
+                    "/low/index.m3u8\n" +
+                    "#EXT-X-STREAM-INF:BANDWIDTH=1000000,RESOLUTION=640x360\n" +
+                    "mid/index.m3u8\n";
+
+    protected static final String MEDIA =
+            "#EXTM3U\n" +
+                    "#EXT-X-TARGETDURATION:4\n" +
+                    "#EXTINF:4.0,\n" +
+                    "segment0.ts\n" +
+                    "#EXT-X-ENDLIST\n";
+
+    protected LoopbackServer server;
+    protected VirtualClock clock;
+    protected FixedEstimator estimator;
+    protected RecordingEngine player;
+    protected AdaptiveStreamingEngine engine;
+    protected volatile int prepareCount;
+    protected volatile int errorExtra;
+    protected final List<Integer> infos = new ArrayList<>();
+
+    /**
+     * Estimate set by the test. Playlist downloads are still counted
+     */
+    protected static class FixedEstimator extends BandwidthEstimator {
+        volatile long estimate;
+
+        FixedEstimator() {
+            super(0.3f, 10);
+        }
+
+        @Override
+        public long getEstimate() {
+            return estimate;
+        }
+    }
+
+    /**
+     * Remembers the variants it is given
+     */
+    protected static class RecordingEngine extends SimulatedPlayerEngine {
+        final List<Uri> sources = Collections.synchronizedList(new ArrayList<Uri>());
+
+        RecordingEngine(VirtualClock clock) {
+            super(clock, new Profile().setPrepareLatency(LatencyDistribution.fixed(100))
+                    .setSeekLatency(LatencyDistribution.fixed(10)), 1);
+        }
+
+        @Override
+        public void setDataSource(Context context, Uri uri) {
+            sources.add(uri);
+            super.setDataSource(context, uri);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new LoopbackServer();
+        server.put("/hls/master.m3u8", MASTER);
+        server.put("/hls/hi/index.m3u8", MEDIA);
+        server.put("/hls/mid/index.m3u8", MEDIA);
+        server.put("/low/index.m3u8", MEDIA);
+
+        clock = new VirtualClock();
+        estimator = new FixedEstimator();
+        player = new RecordingEngine(clock);
+        engine = new AdaptiveStreamingEngine(getInstrumentation().getTargetContext(), player);
+        engine.setBandwidthEstimator(estimator);
+        engine.setUpswitchDelay(0);
+        engine.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                prepareCount++;
+            }
+        });
+        engine.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+            @Override
+            public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                infos.add(what);
+                return true;
+            }
+        });
+        engine.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                errorExtra = extra;
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                engine.release();
+            }
+        });
+        server.close();
+        super.tearDown();
+    }
+
+    public void testParsesMasterPlaylist() throws IOException {
+        Uri uri = Uri.parse(server.getUrl("/hls/master.m3u8"));
+        List<Rendition> variants = HlsPlaylist.parseMaster(new ByteArrayInputStream(download(uri)), uri);
+
+        assertEquals(3, variants.size());
+        assertEquals(400000, variants.get(0).getBandwidth());
+        assertEquals(1000000, variants.get(1).getBandwidth());
+        assertEquals(2500000, variants.get(2).getBandwidth());
+        assertEquals(1280, variants.get(2).getWidth());
+        assertEquals(720, variants.get(2).getHeight());
+
+        // Relative and absolute-path references resolve to playlists the server has
+        for (Rendition variant : variants) {
+            byte[] media = download(variant.getUri());
+            assertTrue(HlsPlaylist.parseMaster(new ByteArrayInputStream(media), variant.getUri()).isEmpty());
+        }
+        assertEquals(server.getUrl("/low/index.m3u8"), variants.get(0).getUri().toString());
+        assertEquals(server.getUrl("/hls/mid/index.m3u8"), variants.get(1).getUri().toString());
+    }
+
+    public void testStartsWithTheLowestWithoutMeasure() throws Exception {
+        prepare("/hls/master.m3u8", 1920, 1080);
+
+        assertEquals(400000, engine.getCurrentRendition().getBandwidth());
+        assertEquals("Playlists are not throughput samples", 0, estimator.getTotalBytes());
+    }
+
+    public void testBufferingFeedsTheEstimator() throws Exception {
+        prepare("/hls/master.m3u8", 640, 360);
+        final long before = estimator.getTotalBytes();
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                engine.onBufferingUpdate(null, 10);
+                SystemClock.sleep(50);
+                engine.onBufferingUpdate(null, 20);
+            }
+        });
+
+        // 10% of 30 s at 400 kbps
+        assertEquals(400000 / 8 * 30 / 10, estimator.getTotalBytes() - before);
+    }
+
+    public void testViewportCapsTheRendition() throws Exception {
+        estimator.estimate = 10000000;
+        prepare("/hls/master.m3u8", 640, 360);
+
+        assertEquals(1000000, engine.getCurrentRendition().getBandwidth());
+        assertEquals(engine.getCurrentRendition().getUri(), player.sources.get(0));
+    }
+
+    public void testThroughputCapsTheRendition() throws Exception {
+        estimator.estimate = 1000000; // 750 kbps usable
+        prepare("/hls/master.m3u8", 1920, 1080);
+
+        assertEquals(400000, engine.getCurrentRendition().getBandwidth());
+    }
+
+    public void testSwitchesUpWhenTheViewportGrows() throws Exception {
+        estimator.estimate = 10000000;
+        prepare("/hls/master.m3u8", 640, 360);
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                engine.setViewportSize(1280, 720);
+                clock.advance(1000);
+            }
+        });
+
+        assertEquals(2500000, engine.getCurrentRendition().getBandwidth());
+        assertEquals(2, player.sources.size());
+        assertEquals(engine.getCurrentRendition().getUri(), player.sources.get(1));
+        assertEquals(2, player.getPrepareCount());
+        assertEquals(1, prepareCount); // A switch is not a new prepare for the view
+    }
+
+    public void testSwitchesDownOnStall() throws Exception {
+        estimator.estimate = 10000000;
+        prepare("/hls/master.m3u8", 640, 360);
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                engine.onInfo(null, MediaPlayer.MEDIA_INFO_BUFFERING_START, 0);
+                clock.advance(1000);
+            }
+        });
+
+        assertEquals(400000, engine.getCurrentRendition().getBandwidth());
+        assertEquals(server.getUrl("/low/index.m3u8"), player.sources.get(1).toString());
+
+        // The reset player never ends the stall: the engine does
+        assertEquals(2, infos.size());
+        assertEquals(MediaPlayer.MEDIA_INFO_BUFFERING_START, (int) infos.get(0));
+        assertEquals(MediaPlayer.MEDIA_INFO_BUFFERING_END, (int) infos.get(1));
+    }
+
+    public void testPlaysMediaPlaylistAsIs() throws Exception {
+        prepare("/hls/mid/index.m3u8", 640, 360);
+
+        assertEquals(1, engine.getRenditions().size());
+        assertEquals(server.getUrl("/hls/mid/index.m3u8"), engine.getCurrentRendition().getUri().toString());
+    }
+
+    public void testMissingPlaylistFails() throws Exception {
+        engine.setDataSource(getInstrumentation().getTargetContext(), Uri.parse(server.getUrl("/hls/missing.m3u8")));
+        engine.prepareAsync();
+
+        long deadline = SystemClock.elapsedRealtime() + 10000;
+        while (errorExtra == 0 && SystemClock.elapsedRealtime() < deadline)
+            SystemClock.sleep(20);
+        assertEquals(MediaPlayer.MEDIA_ERROR_IO, errorExtra);
+        assertNull(engine.getCurrentRendition());
+    }
+
+    /**
+     * Loads a playlist and runs the clock until the selected variant is prepared
+     */
+    protected void prepare(String path, final int viewportWidth, final int viewportHeight) throws Exception {
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                engine.setViewportSize(viewportWidth, viewportHeight);
+            }
+        });
+        engine.setDataSource(getInstrumentation().getTargetContext(), Uri.parse(server.getUrl(path)));
+        engine.prepareAsync();
+
+        // The playlist is downloaded on another thread, then selected on the main thread
+        long deadline = SystemClock.elapsedRealtime() + 10000;
+        while (player.sources.isEmpty() && SystemClock.elapsedRealtime() < deadline)
+            SystemClock.sleep(20);
+        assertFalse("Playlist not loaded", player.sources.isEmpty());
+
+        runOnMain(new Runnable() {
+            @Override
+            public void run() {
+                clock.advance(1000);
+            }
+        });
+        assertEquals(1, prepareCount);
+    }
+
+    protected void runOnMain(Runnable runnable) {
+        getInstrumentation().runOnMainSync(runnable);
+    }
+
+    protected static byte[] download(Uri uri) throws IOException {
+        InputStream in = new URL(uri.toString()).openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Minimal HTTP server on the loopback interface, serving fixtures from memory.
+ * Supports "Range: bytes=first-" requests and counts requests per path.
+ */
+public class LoopbackServer {
+
+    protected final ServerSocket serverSocket;
+    protected final Map<String, byte[]> files = new HashMap<String, byte[]>();
+    protected final Map<String, Integer> requests = new HashMap<String, Integer>();
+    protected volatile CountDownLatch gate; // Responses wait for it, if not null
+
+    public LoopbackServer() throws IOException {
+        serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }).start();
+                    } catch (IOException e) {
+                        // Closed
+                    }
+                }
+            }
+        }, "LoopbackServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public synchronized void put(String path, byte[] data) {
+        files.put(path, data);
+    }
+
+    public synchronized void put(String path, String text) {
+        put(path, text.getBytes());
+    }
+
+    public synchronized int getRequestCount(String path) {
+        Integer count = requests.get(path);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Holds every response until release() is called
+     */
+    public void hold() {
+        gate = new CountDownLatch(1);
+    }
+
+    public void release() {
+        CountDownLatch latch = gate;
+        gate = null;
+        if (latch != null)
+            latch.countDown();
+    }
+
+    public void close() throws IOException {
+        release();
+        serverSocket.close();
+    }
+
+    protected void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            String requestLine = reader.readLine();
+            if (requestLine == null)
+                return;
+
+            String path = requestLine.split(" ")[1];
+            long first = -1;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("range: bytes=")) {
+                    String range = line.substring("range: bytes=".length());
+                    first = Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+                }
+            }
+
+            byte[] data;
+            synchronized (this) {
+                requests.put(path, getRequestCount(path) + 1);
+                data = files.get(path);
+            }
+
+            CountDownLatch latch = gate;
+            if (latch != null)
+                latch.await();
+
+            OutputStream out = socket.getOutputStream();
+            if (data == null) {
+                out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes());
+            } else if (first >= data.length) {
+                out.write(("HTTP/1.1 416 Requested Range Not Satisfiable\r\nContent-Range: bytes */" + data.length +
+                        "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes());
+            } else if (first >= 0) {
+                out.write(("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes " + first + "-" + (data.length - 1) + "/" + data.length +
+                        "\r\nContent-Length: " + (data.length - first) + "\r\nConnection: close\r\n\r\n").getBytes());
+                out.write(data, (int) first, (int) (data.length - first));
+            } else {
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + data.length + "\r\nConnection: close\r\n\r\n").getBytes());
+                out.write(data);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Client went away
+        } catch (InterruptedException e) {
+            // Closing
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+}
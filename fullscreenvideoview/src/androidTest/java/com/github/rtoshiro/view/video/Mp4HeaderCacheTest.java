@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mp4HeaderCache against an MP4 served from a loopback socket
+ */
+public class Mp4HeaderCacheTest extends AndroidTestCase {
+
+    protected LoopbackServer server;
+    protected File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new LoopbackServer();
+        server.put("/video.mp4", createMp4(false));
+        server.put("/faststart.mp4", createMp4(true));
+        directory = new File(getContext().getCacheDir(), "Mp4HeaderCacheTest");
+        new Mp4HeaderCache(directory).clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        new Mp4HeaderCache(directory).clear();
+        super.tearDown();
+    }
+
+    public void testFetchesHeaderAtTheEnd() throws IOException {
+        Mp4HeaderCache cache = new Mp4HeaderCache(directory);
+        Uri uri = Uri.parse(server.getUrl("/video.mp4"));
+        Mp4Index index = cache.fetch(uri);
+
+        assertFalse(index.isFastStart());
+        assertEquals(createMp4(false).length, index.getFileSize());
+        assertEquals(4000, index.getDuration());
+        assertEquals(320, index.getWidth());
+        assertEquals(240, index.getHeight());
+        assertEquals(100, index.getSampleCount());
+        assertEquals(4, index.getKeyframeTimes().length);
+        assertEquals(2000, index.getKeyframeBefore(2500));
+        assertTrue(index.containsOffset(index.getHeaderOffset()));
+        assertSame(index, cache.getCached(uri));
+    }
+
+    public void testFetchesFastStartHeader() throws IOException {
+        Mp4HeaderCache cache = new Mp4HeaderCache(directory);
+        Mp4Index index = cache.fetch(Uri.parse(server.getUrl("/faststart.mp4")));
+
+        assertTrue(index.isFastStart());
+        assertEquals(4000, index.getDuration());
+    }
+
+    public void testDiskTierIsNotReadByGetCached() throws Exception {
+        Uri uri = Uri.parse(server.getUrl("/video.mp4"));
+        new Mp4HeaderCache(directory).fetch(uri);
+        int requests = server.getRequestCount("/video.mp4");
+
+        // A new instance only has the disk tier
+        Mp4HeaderCache cache = new Mp4HeaderCache(directory);
+        assertNull(cache.getCached(uri));
+
+        Result result = prefetch(cache, uri);
+        assertNotNull(result.index);
+        assertEquals(4000, result.index.getDuration());
+        assertSame(result.index, cache.getCached(uri));
+        assertEquals(requests, server.getRequestCount("/video.mp4"));
+    }
+
+    public void testPrefetchJoinsTheFetchInFlight() throws Exception {
+        Mp4HeaderCache reference = new Mp4HeaderCache(new File(directory, "reference"));
+        server.put("/reference.mp4", createMp4(false));
+        reference.fetch(Uri.parse(server.getUrl("/reference.mp4")));
+        reference.clear();
+
+        Mp4HeaderCache cache = new Mp4HeaderCache(directory);
+        Uri uri = Uri.parse(server.getUrl("/video.mp4"));
+        server.hold();
+        Result first = new Result();
+        Result second = new Result();
+        cache.prefetch(uri, first);
+        cache.prefetch(uri, second);
+        assertTrue(cache.isFetching(uri));
+        server.release();
+
+        first.await();
+        second.await();
+        assertNotNull(first.index);
+        assertSame(first.index, second.index);
+        assertFalse(cache.isFetching(uri));
+        assertEquals(server.getRequestCount("/reference.mp4"), server.getRequestCount("/video.mp4"));
+    }
+
+    public void testFailuresAreNotRetried() throws Exception {
+        Mp4HeaderCache cache = new Mp4HeaderCache(directory);
+        Uri uri = Uri.parse(server.getUrl("/missing.mp4"));
+
+        Result result = prefetch(cache, uri);
+        assertNull(result.index);
+        assertNotNull(result.error);
+        assertEquals(1, server.getRequestCount("/missing.mp4"));
+
+        result = prefetch(cache, uri);
+        assertNotNull(result.error);
+        assertEquals(1, server.getRequestCount("/missing.mp4"));
+
+        // Forgetting the URI forgets the failure too
+        server.put("/missing.mp4", createMp4(true));
+        cache.remove(uri);
+        result = prefetch(cache, uri);
+        assertNotNull(result.index);
+    }
+
+    protected static Result prefetch(Mp4HeaderCache cache, Uri uri) throws InterruptedException {
+        Result result = new Result();
+        cache.prefetch(uri, result);
+        result.await();
+        return result;
+    }
+
+    protected static class Result implements Mp4HeaderCache.OnFetchListener {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Mp4Index index;
+        IOException error;
+
+        @Override
+        public void onFetched(Uri uri, Mp4Index index, IOException error) {
+            this.index = index;
+            this.error = error;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("No callback", latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 4 s of 320x240 video: 100 samples of 40 ms, a keyframe every second
+     *
+     * @param fastStart true to put the moov box before the mdat box
+     */
+    protected static byte[] createMp4(boolean fastStart) {
+        byte[] ftyp = box("ftyp", ascii("isom"), int32(0x200), ascii("isomiso2mp41"));
+        byte[] mdat = box("mdat", new byte[2048]);
+
+        byte[] mvhd = box("mvhd", int32(0), int32(0), int32(0), int32(1000), int32(4000), new byte[80]);
+        byte[] tkhd = box("tkhd", int32(0), new byte[72], int32(320 << 16), int32(240 << 16));
+        byte[] mdhd = box("mdhd", int32(0), int32(0), int32(0), int32(1000), int32(4000), int32(0));
+        byte[] hdlr = box("hdlr", int32(0), int32(0), ascii("vide"), new byte[12], new byte[1]);
+        byte[] stts = box("stts", int32(0), int32(1), int32(100), int32(40));
+        byte[] stss = box("stss", int32(0), int32(4), int32(1), int32(26), int32(51), int32(76));
+        byte[] stsz = box("stsz", int32(0), int32(16), int32(100));
+        byte[] stbl = box("stbl", stts, stss, stsz);
+        byte[] trak = box("trak", tkhd, box("mdia", mdhd, hdlr, box("minf", stbl)));
+        byte[] moov = box("moov", mvhd, trak);
+
+        return fastStart ? concat(ftyp, moov, mdat) : concat(ftyp, mdat, moov);
+    }
+
+    protected static byte[] box(String type, byte[]... parts) {
+        byte[] body = concat(parts);
+        return concat(int32(8 + body.length), ascii(type), body);
+    }
+
+    protected static byte[] int32(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    protected static byte[] ascii(String value) {
+        return value.getBytes();
+    }
+
+    protected static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+}
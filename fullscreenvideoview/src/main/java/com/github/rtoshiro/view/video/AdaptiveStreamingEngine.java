@@ -0,0 +1,669 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.media.AudioManager;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * {@link PlayerEngine} for HLS master playlists.
+ * <p>
+ * It downloads the master playlist and plays the variant that fits both the throughput and the
+ * viewport (see {@link #setViewportSize(int, int)}) using a {@link MediaPlayerEngine}.
+ * Throughput comes from the shared {@link BandwidthEstimator}, fed with the buffering progress
+ * of the playing variant: its bandwidth tells how many bytes each percent took.
+ * When playback stalls it switches to a lower variant, and after a while without stalls
+ * it switches up again, keeping the current position.
+ * <p>
+ * Any other source (including HLS media playlists) is played as is.
+ * DASH is not supported because MediaPlayer can not play it.
+ */
+public class AdaptiveStreamingEngine implements PlayerEngine, OnPreparedListener, OnSeekCompleteListener, OnInfoListener, OnErrorListener, OnBufferingUpdateListener {
+
+    private final static String TAG = "AdaptiveStreamingEngine";
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PlayerEngine create(Context context) {
+            return new AdaptiveStreamingEngine(context);
+        }
+    };
+
+    protected static final int CONNECT_TIMEOUT = 10000;
+    protected static final int READ_TIMEOUT = 10000;
+
+    protected final Context context;
+    protected final PlayerEngine player;
+    protected final Handler handler = new Handler(Looper.getMainLooper());
+
+    protected Uri masterUri;
+    protected List<Rendition> renditions;
+    protected Rendition currentRendition;
+    protected int viewportWidth, viewportHeight;
+
+    /**
+     * Throughput estimate shared with every other view. After a stall it is capped
+     * by throughputCap until playback runs for upswitchDelay without stalling
+     */
+    protected BandwidthEstimator estimator = BandwidthEstimator.getDefault();
+    protected long throughputCap = Long.MAX_VALUE;
+    protected float safetyFactor = 0.75f;
+    protected long evaluationInterval = 5000;
+    protected long upswitchDelay = 10000;
+    protected long lastStallTime;
+
+    protected int generation;
+    protected boolean prepared;
+    protected boolean switching, switchResume, switchSeekPending;
+    protected boolean switchStalled; // The stall that caused the switch was reported: its end is due
+    protected int switchPosition;
+    protected int duration = -1;
+    protected int lastBufferedPercent = -1;
+    protected long lastBufferedTime;
+
+    // Configuration reapplied to the player after each switch
+    protected Surface surface;
+    protected SurfaceHolder surfaceHolder;
+    protected int streamType = AudioManager.STREAM_MUSIC;
+    protected boolean looping;
+    protected float leftVolume = 1.0f, rightVolume = 1.0f;
+
+    protected OnBufferingUpdateListener bufferingUpdateListener;
+    protected OnPreparedListener preparedListener;
+    protected OnSeekCompleteListener seekCompleteListener;
+    protected OnInfoListener infoListener;
+    protected OnErrorListener errorListener;
+
+    protected Runnable evaluateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+            handler.postDelayed(this, evaluationInterval);
+        }
+    };
+
+    public AdaptiveStreamingEngine(Context context) {
+        this(context, new MediaPlayerEngine());
+    }
+
+    public AdaptiveStreamingEngine(Context context, PlayerEngine player) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.player = player;
+        this.player.setOnPreparedListener(this);
+        this.player.setOnSeekCompleteListener(this);
+        this.player.setOnInfoListener(this);
+        this.player.setOnErrorListener(this);
+        this.player.setOnBufferingUpdateListener(this);
+    }
+
+    /**
+     * Size (in pixels) where the video is displayed.
+     * Renditions bigger than needed to cover it are not selected.
+     */
+    @Override
+    public void setViewportSize(int width, int height) {
+        if (this.viewportWidth == width && this.viewportHeight == height)
+            return;
+
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+        if (prepared)
+            evaluate();
+    }
+
+    /**
+     * Fraction of the measured throughput a rendition bandwidth may use. Default is 0.75f
+     */
+    public void setSafetyFactor(float safetyFactor) {
+        this.safetyFactor = safetyFactor;
+    }
+
+    /**
+     * Time without stalls before switching to a higher rendition. Default is 10000
+     */
+    public void setUpswitchDelay(long upswitchDelay) {
+        this.upswitchDelay = upswitchDelay;
+    }
+
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    public Rendition getCurrentRendition() {
+        return currentRendition;
+    }
+
+    /**
+     * Uses another estimator instead of {@link BandwidthEstimator#getDefault()}
+     */
+    public void setBandwidthEstimator(BandwidthEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * @return Throughput estimate in bits per second, or 0 if nothing was measured yet
+     */
+    public long getThroughput() {
+        return Math.min(estimator.getEstimate(), throughputCap);
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        if (HlsPlaylist.isHls(uri)) {
+            this.masterUri = uri;
+        } else {
+            this.masterUri = null;
+            player.setDataSource(context, uri);
+        }
+    }
+
+    @Override
+    public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        Uri uri = Uri.parse(path);
+        if (uri.getScheme() != null && HlsPlaylist.isHls(uri)) {
+            this.masterUri = uri;
+        } else {
+            this.masterUri = null;
+            player.setDataSource(path);
+        }
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException, IllegalArgumentException, IllegalStateException {
+        this.masterUri = null;
+        player.setDataSource(fd, offset, length);
+    }
+
+    @Override
+    public void setDataSource(MediaDataSource dataSource) throws IllegalArgumentException, IllegalStateException {
+        this.masterUri = null;
+        player.setDataSource(dataSource);
+    }
+
+    @Override
+    public void prepareAsync() throws IllegalStateException {
+        if (masterUri == null) {
+            player.prepareAsync();
+            return;
+        }
+
+        final int token = ++generation;
+        final Uri uri = masterUri;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<Rendition> variants = null;
+                try {
+                    variants = HlsPlaylist.parseMaster(new ByteArrayInputStream(download(uri)), uri);
+                } catch (IOException e) {
+                    Log.e(TAG, "prepareAsync - " + e.getMessage());
+                }
+
+                final List<Rendition> result = variants;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (token == generation)
+                            onPlaylistLoaded(result);
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+
+    protected void onPlaylistLoaded(List<Rendition> variants) {
+        if (variants == null) {
+            dispatchError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+            return;
+        }
+
+        // A media playlist has no variants: it is played as is
+        if (variants.isEmpty())
+            variants.add(new Rendition(masterUri, 0, 0, 0));
+
+        renditions = variants;
+        currentRendition = selectRendition();
+        Log.d(TAG, "onPlaylistLoaded - " + currentRendition);
+        try {
+            player.setDataSource(context, currentRendition.getUri());
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException | IllegalArgumentException | SecurityException e) {
+            Log.e(TAG, "onPlaylistLoaded - " + e.getMessage());
+            dispatchError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+        }
+    }
+
+    /**
+     * Picks the highest rendition that fits the throughput, but not bigger than
+     * the smallest one that covers the viewport
+     */
+    protected Rendition selectRendition() {
+        int cap = renditions.size() - 1;
+        if (viewportWidth > 0 && viewportHeight > 0) {
+            for (int i = 0; i < renditions.size(); i++) {
+                Rendition r = renditions.get(i);
+                if (r.getWidth() >= viewportWidth && r.getHeight() >= viewportHeight) {
+                    cap = i;
+                    break;
+                }
+            }
+        }
+
+        long throughput = getThroughput();
+        long budget = (long) (throughput * safetyFactor);
+        int selected = 0;
+        for (int i = 1; i <= cap; i++) {
+            // Without any measure, start from the lowest one
+            if (throughput <= 0 || renditions.get(i).getBandwidth() > budget)
+                break;
+            selected = i;
+        }
+        return renditions.get(selected);
+    }
+
+    /**
+     * Checks if another rendition should be playing
+     */
+    protected void evaluate() {
+        if (!prepared || switching || renditions == null || renditions.size() < 2)
+            return;
+
+        Rendition target = selectRendition();
+        int targetIndex = renditions.indexOf(target);
+        int currentIndex = renditions.indexOf(currentRendition);
+
+        // Going up only after some time without stalls
+        if (SystemClock.elapsedRealtime() - lastStallTime < upswitchDelay) {
+            if (targetIndex > currentIndex)
+                return;
+        } else
+            throughputCap = Long.MAX_VALUE;
+
+        if (targetIndex != currentIndex)
+            switchTo(target);
+    }
+
+    protected void switchTo(Rendition rendition) {
+        Log.d(TAG, "switchTo - " + rendition);
+
+        switchPosition = player.getCurrentPosition();
+        switchResume = player.isPlaying();
+        switching = true;
+        currentRendition = rendition;
+        lastBufferedPercent = -1;
+
+        player.reset();
+        if (surface != null)
+            player.setSurface(surface);
+        else if (surfaceHolder != null)
+            player.setDisplay(surfaceHolder);
+        player.setAudioStreamType(streamType);
+        player.setLooping(looping);
+        player.setVolume(leftVolume, rightVolume);
+
+        try {
+            player.setDataSource(context, rendition.getUri());
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException | IllegalArgumentException | SecurityException e) {
+            Log.e(TAG, "switchTo - " + e.getMessage());
+            switching = false;
+            endSwitchStall();
+            dispatchError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+        }
+    }
+
+    protected void finishSwitch() {
+        switching = false;
+        if (switchResume)
+            player.start();
+        endSwitchStall();
+
+        if (switchSeekPending) {
+            switchSeekPending = false;
+            if (seekCompleteListener != null)
+                seekCompleteListener.onSeekComplete(player.getMediaPlayer());
+        }
+    }
+
+    /**
+     * The player that stalled was reset, so its BUFFERING_END never comes: sends it for it
+     */
+    protected void endSwitchStall() {
+        if (!switchStalled)
+            return;
+
+        switchStalled = false;
+        if (infoListener != null)
+            infoListener.onInfo(player.getMediaPlayer(), MediaPlayer.MEDIA_INFO_BUFFERING_END, 0);
+    }
+
+    /**
+     * Downloads a playlist. Too small to measure throughput: latency would dominate
+     */
+    protected byte[] download(Uri uri) throws IOException {
+        InputStream in;
+        HttpURLConnection connection = null;
+        String scheme = uri.getScheme();
+        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+            connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            in = connection.getInputStream();
+        } else {
+            in = context.getContentResolver().openInputStream(uri);
+            if (in == null)
+                throw new IOException("Can not open " + uri);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+        } finally {
+            in.close();
+            if (connection != null)
+                connection.disconnect();
+        }
+        return out.toByteArray();
+    }
+
+    protected void dispatchError(int what, int extra) {
+        if (errorListener != null)
+            errorListener.onError(player.getMediaPlayer(), what, extra);
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        if (switching) {
+            if (switchPosition > 0)
+                player.seekTo(switchPosition);
+            else
+                finishSwitch();
+            return;
+        }
+
+        prepared = true;
+        duration = player.getDuration();
+        handler.removeCallbacks(evaluateRunnable);
+        if (renditions != null && renditions.size() > 1)
+            handler.postDelayed(evaluateRunnable, evaluationInterval);
+
+        if (preparedListener != null)
+            preparedListener.onPrepared(mp);
+    }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        if (switching) {
+            finishSwitch();
+            return;
+        }
+
+        if (seekCompleteListener != null)
+            seekCompleteListener.onSeekComplete(mp);
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START && prepared && !switching) {
+            lastStallTime = SystemClock.elapsedRealtime();
+
+            // Stalled: goes down one rendition
+            int index = renditions != null ? renditions.indexOf(currentRendition) : -1;
+            if (index > 0) {
+                // Keeps the estimate where the lower rendition still fits
+                throughputCap = (long) (renditions.get(index - 1).getBandwidth() / safetyFactor);
+                switchTo(renditions.get(index - 1));
+                if (!switching)
+                    return true; // Failed and reported: the stall does not matter anymore
+                switchStalled = true;
+            }
+        }
+
+        return infoListener != null && infoListener.onInfo(mp, what, extra);
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        switching = false;
+        endSwitchStall();
+        return errorListener != null && errorListener.onError(mp, what, extra);
+    }
+
+    @Override
+    public void onBufferingUpdate(MediaPlayer mp, int percent) {
+        sampleBuffering(percent);
+        if (bufferingUpdateListener != null)
+            bufferingUpdateListener.onBufferingUpdate(mp, percent);
+    }
+
+    /**
+     * Turns the buffering progress of the current variant into a throughput sample.
+     * Each percent is about duration * bandwidth / 100 bits
+     */
+    protected void sampleBuffering(int percent) {
+        long now = SystemClock.elapsedRealtime();
+        if (!switching && lastBufferedPercent >= 0 && percent > lastBufferedPercent &&
+                currentRendition != null && currentRendition.getBandwidth() > 0 && duration > 0) {
+            long bytes = (long) currentRendition.getBandwidth() / 8 * duration / 1000 * (percent - lastBufferedPercent) / 100;
+            estimator.addSample(bytes, now - lastBufferedTime);
+        }
+
+        if (lastBufferedPercent < 0 || percent != lastBufferedPercent) {
+            lastBufferedPercent = percent;
+            lastBufferedTime = now;
+        }
+    }
+
+    @Override
+    public void start() throws IllegalStateException {
+        if (switching)
+            switchResume = true;
+        else
+            player.start();
+    }
+
+    @Override
+    public void pause() throws IllegalStateException {
+        if (switching)
+            switchResume = false;
+        else
+            player.pause();
+    }
+
+    @Override
+    public void stop() throws IllegalStateException {
+        handler.removeCallbacks(evaluateRunnable);
+        switching = false;
+        prepared = false;
+        player.stop();
+    }
+
+    @Override
+    public void seekTo(int msec) throws IllegalStateException {
+        if (switching) {
+            switchPosition = msec;
+            switchSeekPending = true;
+        } else
+            player.seekTo(msec);
+    }
+
+    @Override
+    public void reset() {
+        clear();
+        player.reset();
+    }
+
+    @Override
+    public void release() {
+        clear();
+        player.release();
+    }
+
+    protected void clear() {
+        generation++;
+        handler.removeCallbacks(evaluateRunnable);
+        masterUri = null;
+        renditions = null;
+        currentRendition = null;
+        prepared = false;
+        switching = false;
+        switchSeekPending = false;
+        switchStalled = false;
+        duration = -1;
+        lastBufferedPercent = -1;
+    }
+
+    @Override
+    public void setSurface(Surface surface) {
+        this.surface = surface;
+        this.surfaceHolder = null;
+        player.setSurface(surface);
+    }
+
+    @Override
+    public void setDisplay(SurfaceHolder holder) {
+        this.surfaceHolder = holder;
+        this.surface = null;
+        player.setDisplay(holder);
+    }
+
+    @Override
+    public void setAudioStreamType(int streamType) {
+        this.streamType = streamType;
+        player.setAudioStreamType(streamType);
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+        player.setLooping(looping);
+    }
+
+    @Override
+    public boolean isLooping() {
+        return looping;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return switching ? switchResume : player.isPlaying();
+    }
+
+    @Override
+    public void setVolume(float leftVolume, float rightVolume) {
+        this.leftVolume = leftVolume;
+        this.rightVolume = rightVolume;
+        player.setVolume(leftVolume, rightVolume);
+    }
+
+    @Override
+    public boolean setPlaybackSpeed(float speed) {
+        return !switching && player.setPlaybackSpeed(speed);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return switching ? switchPosition : player.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return switching ? duration : player.getDuration();
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return player.getVideoWidth();
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return player.getVideoHeight();
+    }
+
+    @Override
+    public MediaPlayer getMediaPlayer() {
+        return player.getMediaPlayer();
+    }
+
+    @Override
+    public boolean requiresSurface() {
+        return player.requiresSurface();
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        this.bufferingUpdateListener = listener;
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        player.setOnCompletionListener(listener);
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        this.infoListener = listener;
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        this.preparedListener = listener;
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        this.seekCompleteListener = listener;
+    }
+
+    @Override
+    public void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener) {
+        player.setOnVideoSizeChangedListener(listener);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Audio focus of a {@link FullscreenVideoView}.
+ * <p>
+ * Focus is requested on start() and abandoned on pause(), stop() and completion.
+ * Transient losses pause the video and resume it when focus comes back;
+ * "can duck" losses lower the volume instead. A permanent loss pauses it.
+ *
+ * @see FullscreenVideoView#setAudioFocusEnabled(boolean)
+ */
+@TargetApi(Build.VERSION_CODES.FROYO)
+public class AudioFocusHandler implements AudioManager.OnAudioFocusChangeListener {
+
+    private final static String TAG = "AudioFocusHandler";
+
+    public static final float DEFAULT_DUCK_VOLUME = 0.2f;
+
+    protected final FullscreenVideoView videoView;
+    protected final AudioManager audioManager;
+    protected float duckVolume = DEFAULT_DUCK_VOLUME;
+    protected boolean hasFocus;
+    protected boolean resumeOnGain;
+    protected boolean pausing; // Pause issued by a focus loss
+
+    public AudioFocusHandler(FullscreenVideoView videoView) {
+        this.videoView = videoView;
+        this.audioManager = (AudioManager) videoView.getContext().getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    /**
+     * @param duckVolume Volume (0..1) relative to the view volume while another app ducks it
+     */
+    public void setDuckVolume(float duckVolume) {
+        this.duckVolume = duckVolume;
+    }
+
+    public float getDuckVolume() {
+        return duckVolume;
+    }
+
+    public boolean hasFocus() {
+        return hasFocus;
+    }
+
+    /**
+     * @return true if the video may play
+     */
+    public boolean request() {
+        if (hasFocus)
+            return true;
+
+        int result = audioManager.requestAudioFocus(this, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+        hasFocus = result == AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        Log.d(TAG, "request - granted: " + hasFocus);
+        return hasFocus;
+    }
+
+    /**
+     * Gives focus back, unless the video is being paused by a focus loss
+     */
+    public void abandon() {
+        if (pausing)
+            return;
+
+        resumeOnGain = false;
+        videoView.setVolumeScale(1.0f);
+        if (hasFocus) {
+            audioManager.abandonAudioFocus(this);
+            hasFocus = false;
+        }
+    }
+
+    @Override
+    public void onAudioFocusChange(int focusChange) {
+        Log.d(TAG, "onAudioFocusChange - " + focusChange);
+
+        switch (focusChange) {
+            case AudioManager.AUDIOFOCUS_GAIN: {
+                hasFocus = true;
+                videoView.setVolumeScale(1.0f);
+                if (resumeOnGain) {
+                    resumeOnGain = false;
+                    videoView.start();
+                }
+                break;
+            }
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT_CAN_DUCK: {
+                videoView.setVolumeScale(duckVolume);
+                break;
+            }
+            case AudioManager.AUDIOFOCUS_LOSS_TRANSIENT: {
+                if (videoView.isPlaying()) {
+                    resumeOnGain = true;
+                    pauseVideo();
+                }
+                break;
+            }
+            case AudioManager.AUDIOFOCUS_LOSS: {
+                resumeOnGain = false;
+                if (videoView.isPlaying())
+                    pauseVideo();
+                abandon();
+                break;
+            }
+        }
+    }
+
+    protected void pauseVideo() {
+        pausing = true;
+        try {
+            videoView.pause();
+        } finally {
+            pausing = false;
+        }
+    }
+}
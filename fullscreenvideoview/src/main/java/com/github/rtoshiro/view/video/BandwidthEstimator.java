@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.media.MediaPlayer;
+import android.os.SystemClock;
+
+/**
+ * Process wide throughput estimate, shared by every {@link FullscreenVideoView}.
+ * <p>
+ * Each view feeds a {@link Session} with its buffering percentage, buffering start/end
+ * events and content length. Every buffered byte delta becomes a throughput sample
+ * that updates both an exponentially weighted moving average and a sliding window
+ * of the last samples. {@link #getEstimate()} returns the lower of both,
+ * which reacts quickly to drops and slowly to recoveries.
+ * <p>
+ * Samples may come from any thread.
+ */
+public class BandwidthEstimator {
+
+    private static final BandwidthEstimator DEFAULT = new BandwidthEstimator(0.3f, 10);
+
+    protected final float alpha;
+    protected final long[] window;
+    protected int windowCount, windowIndex;
+    protected long ewma;
+    protected long totalBytes;
+    protected int stallCount;
+    protected long stallTime;
+
+    /**
+     * @param alpha      Weight of a new sample in the moving average (0..1)
+     * @param windowSize Number of samples in the sliding window
+     */
+    public BandwidthEstimator(float alpha, int windowSize) {
+        this.alpha = alpha;
+        this.window = new long[Math.max(1, windowSize)];
+    }
+
+    /**
+     * @return The estimator shared by all views
+     */
+    public static BandwidthEstimator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adds a measure
+     *
+     * @param bytes       Bytes transferred
+     * @param elapsedMs   Time it took
+     */
+    public synchronized void addSample(long bytes, long elapsedMs) {
+        if (bytes <= 0 || elapsedMs <= 0)
+            return;
+
+        long bitsPerSecond = bytes * 8L * 1000L / elapsedMs;
+        ewma = ewma <= 0 ? bitsPerSecond : (long) (ewma * (1.0f - alpha) + bitsPerSecond * alpha);
+
+        window[windowIndex] = bitsPerSecond;
+        windowIndex = (windowIndex + 1) % window.length;
+        windowCount = Math.min(windowCount + 1, window.length);
+        totalBytes += bytes;
+    }
+
+    /**
+     * @return Throughput estimate in bits per second, or 0 if nothing was measured yet
+     */
+    public synchronized long getEstimate() {
+        if (windowCount == 0)
+            return 0;
+
+        long sum = 0;
+        for (int i = 0; i < windowCount; i++)
+            sum += window[i];
+        return Math.min(ewma, sum / windowCount);
+    }
+
+    /**
+     * @return Exponentially weighted moving average in bits per second
+     */
+    public synchronized long getMovingAverage() {
+        return ewma;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return Number of buffering stalls reported by all sessions
+     */
+    public synchronized int getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * @return Time (msec) spent in buffering stalls by all sessions
+     */
+    public synchronized long getStallTime() {
+        return stallTime;
+    }
+
+    protected synchronized void onStall(long duration) {
+        stallCount++;
+        stallTime += duration;
+    }
+
+    public synchronized void clear() {
+        ewma = 0;
+        windowCount = 0;
+        windowIndex = 0;
+        totalBytes = 0;
+        stallCount = 0;
+        stallTime = 0;
+    }
+
+    /**
+     * Buffer health of one video, reported to the shared estimator
+     */
+    public static class Session {
+
+        protected final BandwidthEstimator estimator;
+        protected long contentLength = -1;
+        protected int lastPercent = -1;
+        protected long lastPercentTime;
+        protected long stallStart = -1;
+        protected int bufferedPercent;
+
+        public Session(BandwidthEstimator estimator) {
+            this.estimator = estimator;
+        }
+
+        public BandwidthEstimator getEstimator() {
+            return estimator;
+        }
+
+        /**
+         * Size of the video in bytes. Without it, buffering percentages can not be turned into throughput
+         *
+         * @param contentLength Size in bytes or -1 if unknown
+         */
+        public void setContentLength(long contentLength) {
+            this.contentLength = contentLength;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * Forget the current video
+         */
+        public void reset() {
+            lastPercent = -1;
+            bufferedPercent = 0;
+            stallStart = -1;
+        }
+
+        /**
+         * Feed it with MediaPlayer.OnBufferingUpdateListener values
+         */
+        public void onBufferingUpdate(int percent) {
+            long now = SystemClock.elapsedRealtime();
+            bufferedPercent = percent;
+
+            if (lastPercent >= 0 && percent > lastPercent && contentLength > 0)
+                estimator.addSample(contentLength * (percent - lastPercent) / 100, now - lastPercentTime);
+
+            if (lastPercent < 0 || percent != lastPercent) {
+                lastPercent = percent;
+                lastPercentTime = now;
+            }
+        }
+
+        /**
+         * Feed it with MediaPlayer.OnInfoListener values
+         */
+        public void onInfo(int what) {
+            if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+                stallStart = SystemClock.elapsedRealtime();
+            } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END && stallStart >= 0) {
+                estimator.onStall(SystemClock.elapsedRealtime() - stallStart);
+                stallStart = -1;
+            }
+        }
+
+        public boolean isStalled() {
+            return stallStart >= 0;
+        }
+
+        public int getBufferedPercent() {
+            return bufferedPercent;
+        }
+
+        /**
+         * Estimates how long playback can go on before the buffer runs out
+         *
+         * @param position Current position in msec
+         * @param duration Duration in msec
+         * @return Time in msec, 0 if it is already stalled or Long.MAX_VALUE if it is not going to stall
+         */
+        public long getTimeToStall(int position, int duration) {
+            if (isStalled())
+                return 0;
+            if (duration <= 0 || bufferedPercent >= 100)
+                return Long.MAX_VALUE;
+
+            long bufferedMs = (long) duration * bufferedPercent / 100 - position;
+            if (bufferedMs <= 0)
+                return 0;
+
+            long throughput = estimator.getEstimate();
+            if (contentLength <= 0 || throughput <= 0)
+                return bufferedMs;
+
+            // Average bitrate of the video. If it downloads faster than that, the buffer never drains
+            long bitrate = contentLength * 8L * 1000L / duration;
+            if (throughput >= bitrate)
+                return Long.MAX_VALUE;
+
+            // Buffer drains at (1 - throughput / bitrate) per msec of playback
+            return bufferedMs * bitrate / (bitrate - throughput);
+        }
+    }
+}
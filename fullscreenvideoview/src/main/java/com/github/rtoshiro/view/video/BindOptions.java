@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+/**
+ * How {@link FullscreenVideoView#bind(android.net.Uri, BindOptions)} handles a source.
+ * By default, binding the source already loaded keeps the player as it is.
+ */
+public class BindOptions {
+
+    protected int position = -1;
+    protected boolean autoStart;
+    protected boolean forceReload;
+    protected VideoMetadata metadata;
+
+    /**
+     * @param msec Position to go to, both when the source is loaded and when it is
+     *             already bound. -1 (default) keeps the current position of a bound source
+     */
+    public BindOptions setPosition(int msec) {
+        this.position = msec;
+        return this;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @param autoStart true to start playing once prepared (or right away if it already is)
+     */
+    public BindOptions setAutoStart(boolean autoStart) {
+        this.autoStart = autoStart;
+        return this;
+    }
+
+    public boolean isAutoStart() {
+        return autoStart;
+    }
+
+    /**
+     * @param forceReload true to reset and load the source even if it is already bound
+     */
+    public BindOptions setForceReload(boolean forceReload) {
+        this.forceReload = forceReload;
+        return this;
+    }
+
+    public boolean isForceReload() {
+        return forceReload;
+    }
+
+    /**
+     * @param metadata Size and duration known before preparing. May be null
+     * @see FullscreenVideoView#setVideoMetadata(VideoMetadata)
+     */
+    public BindOptions setMetadata(VideoMetadata metadata) {
+        this.metadata = metadata;
+        return this;
+    }
+
+    public VideoMetadata getMetadata() {
+        return metadata;
+    }
+}
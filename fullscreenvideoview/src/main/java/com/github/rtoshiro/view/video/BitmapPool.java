@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded pool of ARGB_8888 bitmaps, reused by size.
+ * <p>
+ * Frames captured over and over at the same size (thumbnails, moderation) come back
+ * to the pool instead of allocating a full bitmap every time. The pool keeps at most
+ * maxBytes; what does not fit is recycled.
+ *
+ * @see FullscreenVideoView#captureFrame(int, int, Bitmap.CompressFormat, int, FrameCapture.OnFrameCapturedListener)
+ */
+public class BitmapPool {
+
+    public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static BitmapPool instance;
+
+    protected final List<Bitmap> bitmaps = new ArrayList<>();
+    protected final long maxBytes;
+    protected long bytes;
+
+    protected int hits, misses;
+
+    /**
+     * @return The pool shared by every {@link FullscreenVideoView}
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (instance == null)
+            instance = new BitmapPool(DEFAULT_MAX_BYTES);
+        return instance;
+    }
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return A bitmap of that size, reused if possible. Its content is undefined
+     */
+    public Bitmap get(int width, int height) {
+        synchronized (this) {
+            for (int i = bitmaps.size() - 1; i >= 0; i--) {
+                Bitmap bitmap = bitmaps.get(i);
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    bitmaps.remove(i);
+                    bytes -= sizeOf(bitmap);
+                    hits++;
+                    return bitmap;
+                }
+            }
+            misses++;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Gives a bitmap back. It must not be used anymore
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled())
+            return;
+
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888 || sizeOf(bitmap) > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+
+        synchronized (this) {
+            if (bitmaps.contains(bitmap))
+                return;
+
+            // Drops the oldest ones to make room
+            while (bytes + sizeOf(bitmap) > maxBytes && !bitmaps.isEmpty()) {
+                Bitmap oldest = bitmaps.remove(0);
+                bytes -= sizeOf(oldest);
+                oldest.recycle();
+            }
+            bitmaps.add(bitmap);
+            bytes += sizeOf(bitmap);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : bitmaps)
+            bitmap.recycle();
+        bitmaps.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return Bytes held by the pool
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    /**
+     * @return get() calls served by a pooled bitmap
+     */
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    protected static long sizeOf(Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+/**
+ * {@link ChunkSource} backed by a byte array. Useful for content kept in memory and for tests.
+ */
+public class ByteArrayChunkSource implements ChunkSource {
+
+    protected final byte[] data;
+
+    public ByteArrayChunkSource(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public long getSize() {
+        return data.length;
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int size) {
+        if (position >= data.length)
+            return -1;
+
+        int length = (int) Math.min(size, data.length - position);
+        System.arraycopy(data, (int) position, buffer, offset, length);
+        return length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random access byte source read by {@link StreamingDataSource}.
+ * Implementations may block; they are only called from the fetch thread.
+ */
+public interface ChunkSource extends Closeable {
+
+    /**
+     * @return Size in bytes or -1 if unknown
+     */
+    long getSize() throws IOException;
+
+    /**
+     * Reads bytes starting at a position
+     *
+     * @return Number of bytes read or -1 at the end of the source
+     */
+    int read(long position, byte[] buffer, int offset, int size) throws IOException;
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+/**
+ * Hook applied to every chunk fetched by {@link StreamingDataSource} before it is buffered.
+ * <p>
+ * It works in place and must keep positions: byte n of the output is byte n of the video.
+ * That fits stream ciphers and counter modes (AES-CTR), where a chunk can be decrypted
+ * knowing only its position. Formats that change sizes (compression) should be
+ * decoded by the {@link ChunkSource} itself.
+ */
+public interface ChunkTransform {
+
+    /**
+     * @param position Position of buffer[offset] in the video
+     */
+    void transform(long position, byte[] buffer, int offset, int length);
+}
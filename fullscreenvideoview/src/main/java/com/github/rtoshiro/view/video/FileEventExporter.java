@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends recorded events to a local file, one comma separated line per event:
+ * time, source, type, arg1, arg2, value. Useful for tests and bug reports.
+ */
+public class FileEventExporter implements PlaybackEventRecorder.Exporter {
+
+    protected final File file;
+    protected Writer writer;
+
+    public FileEventExporter(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void export(PlaybackEventRecorder.Batch batch) throws IOException {
+        if (writer == null)
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+
+        for (int i = 0; i < batch.size; i++) {
+            writer.write(Long.toString(batch.times[i]));
+            writer.write(',');
+            writer.write(Integer.toHexString(batch.sources[i]));
+            writer.write(',');
+            writer.write(PlaybackEventRecorder.typeName(batch.types[i]));
+            writer.write(',');
+            writer.write(Integer.toString(batch.args1[i]));
+            writer.write(',');
+            writer.write(Integer.toString(batch.args2[i]));
+            writer.write(',');
+            writer.write(Long.toString(batch.values[i]));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.TextureView;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Frame grabs of a {@link FullscreenVideoView}: for sharing, thumbnails or moderation.
+ * <p>
+ * Frames are copied into bitmaps of a {@link BitmapPool}, so grabbing at the same size again
+ * does not allocate. Compression and frames decoded away from the current position run on a
+ * background thread; results are delivered on the main thread.
+ *
+ * @see FullscreenVideoView#captureFrame(int, int, Bitmap.CompressFormat, int, OnFrameCapturedListener)
+ */
+public class FrameCapture {
+
+    private final static String TAG = "FrameCapture";
+
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Called on the main thread
+     */
+    public interface OnFrameCapturedListener {
+        /**
+         * @param frame   The frame, from the pool: give it back with {@link FrameCapture#recycle(Bitmap)}
+         *                when done. null if it failed
+         * @param encoded Compressed frame, or null if no format was asked
+         */
+        void onFrameCaptured(Bitmap frame, byte[] encoded);
+    }
+
+    /**
+     * Sets the source of a retriever, on the background thread
+     */
+    public interface RetrieverSource {
+        void setDataSource(MediaMetadataRetriever retriever) throws Exception;
+    }
+
+    protected final BitmapPool pool;
+    protected final Handler handler = new Handler(Looper.getMainLooper());
+    protected final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public FrameCapture(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    public BitmapPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Gives a captured frame back to the pool
+     */
+    public void recycle(Bitmap frame) {
+        pool.put(frame);
+    }
+
+    /**
+     * Copies what the TextureView shows. Main thread only.
+     *
+     * @param width  Target width, or 0 to follow height (or the view, if both are 0)
+     * @param height Target height, or 0 to follow width
+     * @param format Compression, or null for the bitmap only
+     * @return false if there is nothing to capture
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    public boolean capture(TextureView view, int width, int height, Bitmap.CompressFormat format, int quality, OnFrameCapturedListener listener) {
+        if (view == null || !view.isAvailable() || view.getWidth() == 0 || view.getHeight() == 0)
+            return false;
+
+        int[] size = targetSize(view.getWidth(), view.getHeight(), width, height);
+        Bitmap frame = pool.get(size[0], size[1]);
+        view.getBitmap(frame);
+        deliver(frame, format, quality, listener);
+        return true;
+    }
+
+    /**
+     * Decodes the frame at a position with a separate retriever, so the player does not seek
+     * and nothing changes on screen.
+     *
+     * @param positionUs Position in microseconds
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public void captureAt(final RetrieverSource source, final long positionUs, final int width, final int height,
+                          final Bitmap.CompressFormat format, final int quality, final OnFrameCapturedListener listener) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap result = null;
+                MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+                try {
+                    source.setDataSource(retriever);
+                    Bitmap frame = retriever.getFrameAtTime(positionUs, MediaMetadataRetriever.OPTION_CLOSEST);
+                    if (frame != null) {
+                        int[] size = targetSize(frame.getWidth(), frame.getHeight(), width, height);
+                        result = pool.get(size[0], size[1]);
+                        new Canvas(result).drawBitmap(frame, null, new Rect(0, 0, size[0], size[1]), paint);
+                        frame.recycle();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "captureAt - " + e.getMessage());
+                } finally {
+                    retriever.release();
+                }
+
+                publish(result, result != null ? encode(result, format, quality) : null, listener);
+            }
+        });
+    }
+
+    protected void deliver(final Bitmap frame, final Bitmap.CompressFormat format, final int quality, final OnFrameCapturedListener listener) {
+        if (format == null) {
+            publish(frame, null, listener);
+            return;
+        }
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                publish(frame, encode(frame, format, quality), listener);
+            }
+        });
+    }
+
+    protected void publish(final Bitmap frame, final byte[] encoded, final OnFrameCapturedListener listener) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null)
+                    listener.onFrameCaptured(frame, encoded);
+                else
+                    recycle(frame);
+            }
+        });
+    }
+
+    protected static byte[] encode(Bitmap frame, Bitmap.CompressFormat format, int quality) {
+        if (format == null)
+            return null;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        frame.compress(format, quality, out);
+        return out.toByteArray();
+    }
+
+    protected static int[] targetSize(int sourceWidth, int sourceHeight, int width, int height) {
+        if (width <= 0 && height <= 0) {
+            width = sourceWidth;
+            height = sourceHeight;
+        } else if (width <= 0) {
+            width = (int) ((long) height * sourceWidth / sourceHeight);
+        } else if (height <= 0) {
+            height = (int) ((long) width * sourceHeight / sourceWidth);
+        }
+        return new int[]{Math.max(1, width), Math.max(1, height)};
+    }
+}
@@ -142,6 +142,11 @@ public class FullscreenVideoLayout extends FullscreenVideoView implements View.O
     protected void startCounter() {
         Log.d(TAG, "startCounter");
 
+        // Short loops restart every few seconds: the counter is not worth updating
+        if (isShortLoopMode())
+            return;
+
+        TIME_THREAD.removeCallbacks(updateTimeRunnable);
         TIME_THREAD.postDelayed(updateTimeRunnable, 200);
     }
 
@@ -155,9 +160,9 @@ public class FullscreenVideoLayout extends FullscreenVideoView implements View.O
         if (this.textElapsed == null)
             return;
 
-        int elapsed = getCurrentPosition();
-        // getCurrentPosition is a little bit buggy :(
-        if (elapsed > 0 && elapsed < getDuration()) {
+        // Extrapolated position: no call to the player on every tick
+        int elapsed = getPlaybackClock().getPosition();
+        if (elapsed > 0 && elapsed < getPlaybackClock().getDuration()) {
             seekBar.setProgress(elapsed);
 
             elapsed = Math.round(elapsed / 1000.f);
@@ -182,6 +187,11 @@ public class FullscreenVideoLayout extends FullscreenVideoView implements View.O
         Log.d(TAG, "onCompletion");
 
         super.onCompletion(mp);
+
+        // Looping or the next playlist item is already playing
+        if (currentState == State.STARTED)
+            return;
+
         stopCounter();
         updateControls();
         if (currentState != State.ERROR)
@@ -211,31 +221,42 @@ public class FullscreenVideoLayout extends FullscreenVideoView implements View.O
         super.tryToPrepare();
 
         if (getCurrentState() == State.PREPARED || getCurrentState() == State.STARTED) {
-            if (textElapsed != null && textTotal != null) {
-                int total = getDuration();
-                if (total > 0) {
-                    seekBar.setMax(total);
-                    seekBar.setProgress(0);
-
-                    total = total / 1000;
-                    long s = total % 60;
-                    long m = (total / 60) % 60;
-                    long h = (total / (60 * 60)) % 24;
-                    if (h > 0) {
-                        textElapsed.setText("00:00:00");
-                        textTotal.setText(String.format(Locale.US, "%d:%02d:%02d", h, m, s));
-                    } else {
-                        textElapsed.setText("00:00");
-                        textTotal.setText(String.format(Locale.US, "%02d:%02d", m, s));
-                    }
-                }
-            }
+            showTotal(getDuration());
 
             if (videoControlsView != null)
                 videoControlsView.setVisibility(View.VISIBLE);
         }
     }
 
+    @Override
+    protected void onVideoMetadataChanged() {
+        super.onVideoMetadataChanged();
+
+        // Known duration: controls are ready before prepare
+        if (getVideoMetadata().getDuration() > 0)
+            showTotal(getVideoMetadata().getDuration());
+    }
+
+    protected void showTotal(int total) {
+        if (textElapsed == null || textTotal == null || total <= 0)
+            return;
+
+        seekBar.setMax(total);
+        seekBar.setProgress(0);
+
+        total = total / 1000;
+        long s = total % 60;
+        long m = (total / 60) % 60;
+        long h = (total / (60 * 60)) % 24;
+        if (h > 0) {
+            textElapsed.setText("00:00:00");
+            textTotal.setText(String.format(Locale.US, "%d:%02d:%02d", h, m, s));
+        } else {
+            textElapsed.setText("00:00");
+            textTotal.setText(String.format(Locale.US, "%02d:%02d", m, s));
+        }
+    }
+
     @Override
     public void start() throws IllegalStateException {
         Log.d(TAG, "start");
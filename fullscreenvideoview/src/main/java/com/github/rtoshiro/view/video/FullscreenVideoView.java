@@ -20,9 +20,14 @@ import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.media.AudioManager;
+import android.media.MediaDataSource;
+import android.media.MediaMetadataRetriever;
 import android.media.MediaPlayer;
 import android.media.MediaPlayer.OnBufferingUpdateListener;
 import android.media.MediaPlayer.OnCompletionListener;
@@ -35,9 +40,13 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -45,10 +54,18 @@ import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Acts like a android.widget.VideoView with fullscreen functionality
@@ -68,7 +85,8 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     protected Context context;
     protected Activity activity; // Used when orientation changes is not static
 
-    protected MediaPlayer mediaPlayer;
+    protected PlayerEngine mediaPlayer;
+    protected PlayerEngine.Factory playerEngineFactory;
     protected SurfaceHolder surfaceHolder;
     protected SurfaceView surfaceView;
     protected boolean videoIsReady, surfaceIsReady;
@@ -82,11 +100,97 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     protected ViewGroup.LayoutParams currentLayoutParams;
 
     protected boolean fullscreen;
+    protected boolean miniPlayer;
+    protected MiniPlayerFrame miniPlayerFrame;
+    protected int miniPlayerWidth, miniPlayerHeight; // 0 = default size
+    protected boolean handingOffSurface; // Moving to another container: keeps the SurfaceTexture
+    protected SurfaceTexture retainedSurfaceTexture;
     protected boolean shouldAutoplay;
     protected int initialConfigOrientation;
     protected int initialMovieWidth, initialMovieHeight;
     protected String videoPath;
     protected Uri videoUri;
+    protected FileDescriptor videoFileDescriptor;
+    protected long videoOffset, videoLength;
+    protected AssetFileDescriptor videoAssetFileDescriptor; // Kept so it is not closed while playing
+    protected MediaDataSource videoDataSource;
+    protected float leftVolume, rightVolume;
+
+    /**
+     * Position (msec) to seek to and whether to start playing as soon as
+     * the video is prepared. Used to resume playback after a state restore
+     */
+    protected int pendingSeekPosition;
+    protected boolean pendingStart;
+
+    protected float playbackSpeed;
+
+    protected RenditionSelector renditionSelector; // Picks the video Uri by viewport size
+    protected Rendition currentRendition;
+    protected int viewportWidth, viewportHeight;
+    protected int windowedViewportWidth, windowedViewportHeight; // Viewport before going fullscreen
+
+    protected BandwidthEstimator.Session bandwidthSession; // Reports buffering to the shared estimator
+
+    protected List<Uri> playlist;
+    protected int playlistIndex;
+    protected PlayerEngine nextPlayer; // Prepares the next playlist item while the current one plays
+    protected boolean nextPlayerReady;
+
+    protected PlaybackClock playbackClock;
+    protected TimedTextView timedTextView;
+
+    protected boolean backgroundAudio;
+    protected boolean surfaceDetached; // Audio only: the video surface went away while backgroundAudio is on
+    protected AudioFocusHandler audioFocusHandler;
+    protected float volumeScale; // Ducking
+
+    protected boolean suspended; // MediaPlayer released, resumed on start(). Position is kept by playbackClock
+    protected boolean suspendedLooping;
+    protected ImageView posterView; // Last frame while suspended
+    protected Bitmap poster;
+
+    protected PlayerCallMonitor callMonitor; // Times engine calls when set
+
+    protected Mp4HeaderCache fastStartCache;
+
+    protected VideoMetadata videoMetadata; // Size and duration known before prepare
+    protected VideoMetadata suppliedMetadata; // From the app, for the next source
+    protected MediaDataSource fastStartDataSource; // Serving the current URI from fastStartCache
+
+    // Engines abandoned in the middle of a prepare are released here, off the main thread
+    private static final Executor ENGINE_RELEASE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    protected long prepareTimeout; // msec. 0 = no timeout
+    protected Handler prepareTimeoutHandler;
+    protected Runnable prepareTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isPrepareInFlight())
+                onPrepareTimeout();
+        }
+    };
+
+    protected PrepareScheduler prepareScheduler;
+    protected boolean deferredPrepare; // Source set, prepare postponed by prepareScheduler
+
+    protected long idleTimeout; // Suspends a player that is not playing after it. 0 = never
+    protected Handler idleHandler;
+    protected Runnable idleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "idle for " + idleTimeout + " ms");
+            suspend(true);
+        }
+    };
+
+    protected boolean shortLoopMode;
+    protected long loopFrameCacheBytes;
+    protected float loopFrameCacheScale;
+    protected LoopFrameView loopFrameView; // Replays the clip from memory
+    protected FrameCapture frameCapture;
+    protected PlaybackEventRecorder eventRecorder;
+    protected PlaybackGroup playbackGroup; // Holds start() until every member is prepared
 
     protected OnBufferingUpdateListener bufferingUpdateListener;
     protected OnCompletionListener completionListener;
@@ -97,6 +201,7 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     protected OnVideoSizeChangedListener videoSizeChangedListener;
 
     protected TextureView textureView;
+    protected Surface surface;
 
     /**
      * States of MediaPlayer
@@ -148,13 +253,96 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public Parcelable onSaveInstanceState() {
         Log.d(TAG, "onSaveInstanceState");
         Parcelable p = super.onSaveInstanceState();
-        return p;
+
+        SavedState ss = new SavedState(p);
+        ss.videoUri = this.videoUri != null ? this.videoUri.toString() : null;
+        ss.videoPath = this.videoPath;
+        ss.position = this.pendingSeekPosition;
+        ss.playing = this.currentState == State.STARTED || this.pendingStart;
+        ss.shouldAutoplay = this.shouldAutoplay;
+        ss.fullscreen = this.fullscreen;
+        ss.leftVolume = this.leftVolume;
+        ss.rightVolume = this.rightVolume;
+
+        if (this.mediaPlayer != null) {
+            // A suspended player was reset: the view keeps its looping and position
+            ss.looping = this.suspended ? this.suspendedLooping : this.mediaPlayer.isLooping();
+            if (this.currentState == State.PREPARED ||
+                    this.currentState == State.STARTED ||
+                    this.currentState == State.PAUSED ||
+                    this.currentState == State.PLAYBACKCOMPLETED)
+                ss.position = getCurrentPosition();
+        }
+        return ss;
     }
 
     @Override
     public void onRestoreInstanceState(Parcelable state) {
         Log.d(TAG, "onRestoreInstanceState");
-        super.onRestoreInstanceState(state);
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        this.shouldAutoplay = ss.shouldAutoplay;
+        if (this.mediaPlayer == null)
+            return;
+
+        setLooping(ss.looping);
+        setVolume(ss.leftVolume, ss.rightVolume);
+
+        // Starts preparing right away. tryToPrepare() seeks before the first frame
+        if (this.currentState == State.IDLE && (ss.videoPath != null || ss.videoUri != null)) {
+            this.pendingSeekPosition = ss.position;
+            this.pendingStart = ss.playing;
+            try {
+                if (ss.videoPath != null)
+                    setVideoPath(ss.videoPath);
+                else
+                    setVideoURI(Uri.parse(ss.videoUri));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else if (isSavedSource(ss)) {
+            // The app set the same source before the restore (usually in onCreate)
+            if (this.currentState == State.INITIALIZED || this.currentState == State.PREPARING) {
+                this.pendingSeekPosition = ss.position;
+                this.pendingStart = ss.playing;
+            } else if (this.currentState == State.PREPARED) {
+                // seekTo() sets lastState when it really seeks: onSeekComplete() starts then
+                this.lastState = null;
+                if (ss.position > 0)
+                    seekTo(ss.position);
+                if (ss.playing) {
+                    if (this.lastState != null)
+                        this.lastState = State.STARTED;
+                    else
+                        start();
+                }
+            }
+        }
+
+        if (ss.fullscreen && !this.fullscreen) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mediaPlayer != null && getParent() != null)
+                        setFullscreen(true);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the saved source is the current one
+     */
+    protected boolean isSavedSource(SavedState ss) {
+        if (ss.videoUri != null)
+            return this.videoUri != null && ss.videoUri.equals(this.videoUri.toString());
+        return ss.videoPath != null && ss.videoPath.equals(this.videoPath);
     }
 
     @Override
@@ -180,25 +368,42 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
                 this.currentState == State.END) {
             initObjects();
             try {
-                if (this.videoPath != null)
-                    setVideoPath(this.videoPath);
-                else if (this.videoUri != null)
-                    setVideoURI(this.videoUri);
+                reloadVideoSource();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    /**
+     * Sets the last data source again. File descriptors are reused, not reopened.
+     */
+    protected void reloadVideoSource() throws IOException {
+        if (this.videoPath != null)
+            setVideoPath(this.videoPath);
+        else if (this.videoUri != null)
+            setVideoURI(this.videoUri);
+        else if (this.videoAssetFileDescriptor != null)
+            setVideoAssetFileDescriptor(this.videoAssetFileDescriptor);
+        else if (this.videoFileDescriptor != null)
+            setVideoFileDescriptor(this.videoFileDescriptor, this.videoOffset, this.videoLength);
+        else if (this.videoDataSource != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            setVideoDataSource(this.videoDataSource);
+    }
+
     // TextureView
     @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
     @Override
     public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
         Log.d(TAG, "onSurfaceTextureAvailable - state: " + this.currentState);
 
-        Surface surface = new Surface(surfaceTexture);
+        if (this.surface != null)
+            this.surface.release();
+        this.surface = new Surface(surfaceTexture);
         if (this.mediaPlayer != null) {
-            this.mediaPlayer.setSurface(surface);
+            this.mediaPlayer.setSurface(this.surface);
+            if (this.surfaceDetached)
+                reattachVideo();
 
             // If is not prepared yet - tryToPrepare()
             if (!this.surfaceIsReady) {
@@ -218,8 +423,16 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
     @Override
     public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-        Log.d(TAG, "onSurfaceTextureDestroyed");
-        if (mediaPlayer != null && mediaPlayer.isPlaying())
+        Log.d(TAG, "onSurfaceTextureDestroyed - handingOffSurface: " + handingOffSurface);
+        if (handingOffSurface && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // The TextureView in the new container takes it: the player keeps drawing on it
+            retainedSurfaceTexture = surface;
+            return false;
+        }
+
+        if (backgroundAudio && mediaPlayer != null)
+            detachVideo();
+        else if (mediaPlayer != null && mediaPlayer.isPlaying())
             mediaPlayer.pause();
 
         surfaceIsReady = false;
@@ -229,7 +442,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
     @Override
     public void onSurfaceTextureUpdated(SurfaceTexture surface) {
-        Log.d(TAG, "onSurfaceTextureUpdated");
+        // First frame after resume
+        if (this.poster != null && this.currentState == State.STARTED)
+            hidePoster();
     }
 
     // SurfaceView methods
@@ -239,6 +454,8 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
         if (this.mediaPlayer != null) {
             this.mediaPlayer.setDisplay(surfaceHolder);
+            if (this.surfaceDetached)
+                reattachVideo();
 
             // If is not prepared yet - tryToPrepare()
             if (!this.surfaceIsReady) {
@@ -259,7 +476,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d(TAG, "surfaceDestroyed called");
-        if (mediaPlayer != null && mediaPlayer.isPlaying())
+        if (backgroundAudio && mediaPlayer != null)
+            detachVideo();
+        else if (mediaPlayer != null && mediaPlayer.isPlaying())
             mediaPlayer.pause();
 
         surfaceIsReady = false;
@@ -268,6 +487,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     @Override
     synchronized public void onPrepared(MediaPlayer mp) {
         Log.d(TAG, "onPrepared called");
+        if (isStaleCallback(mp))
+            return;
+
         videoIsReady = true;
         tryToPrepare();
     }
@@ -280,6 +502,7 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     @Override
     public void onSeekComplete(MediaPlayer mp) {
         Log.d(TAG, "onSeekComplete");
+        recordEvent(PlaybackEventRecorder.TYPE_SEEK_COMPLETE, 0, 0);
 
         stopLoading();
         if (lastState != null) {
@@ -299,30 +522,55 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
             }
         }
 
+        if (this.playbackGroup != null)
+            this.playbackGroup.onMemberSeekComplete(this);
+
+        updateIdleTimer();
+
         if (this.seekCompleteListener != null)
             this.seekCompleteListener.onSeekComplete(mp);
     }
 
     @Override
     public void onCompletion(MediaPlayer mp) {
+        boolean advance = false;
         if (this.mediaPlayer != null) {
             if (this.currentState != State.ERROR) {
                 Log.d(TAG, "onCompletion");
-                if (!this.mediaPlayer.isLooping())
+                if (!this.mediaPlayer.isLooping()) {
                     this.currentState = State.PLAYBACKCOMPLETED;
-                else
+                    this.playbackClock.onCompletion();
+                    recordEvent(PlaybackEventRecorder.TYPE_COMPLETION, 0, 0);
+                    recordState();
+                    if (this.audioFocusHandler != null && !hasNextPlaylistItem())
+                        this.audioFocusHandler.abandon();
+                    updateIdleTimer();
+                    advance = hasNextPlaylistItem();
+                } else
                     start();
             }
         }
 
         if (this.completionListener != null)
             this.completionListener.onCompletion(mp);
+
+        if (advance)
+            playNext();
     }
 
     @Override
     public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
         Log.d(TAG, "onInfo " + what);
 
+        if (this.bandwidthSession != null)
+            this.bandwidthSession.onInfo(what);
+        recordEvent(PlaybackEventRecorder.TYPE_INFO, what, extra);
+
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START)
+            this.playbackClock.onStall(true);
+        else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END)
+            this.playbackClock.onStall(false);
+
         if (this.infoListener != null)
             return this.infoListener.onInfo(mediaPlayer, what, extra);
 
@@ -335,6 +583,12 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
         stopLoading();
         this.currentState = State.ERROR;
+        recordEvent(PlaybackEventRecorder.TYPE_ERROR, what, extra);
+        recordState();
+
+        // The cached header may be stale (video changed on the server)
+        if (this.fastStartDataSource != null && this.fastStartCache != null && this.videoUri != null)
+            this.fastStartCache.remove(this.videoUri);
 
         if (this.errorListener != null)
             return this.errorListener.onError(mp, what, extra);
@@ -344,6 +598,8 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     @Override
     public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
         Log.d(TAG, "onVideoSizeChanged = " + width + " - " + height);
+        if (isStaleCallback(mp))
+            return;
 
         if (this.initialMovieWidth == -1 &&
                 this.initialMovieHeight == -1 &&
@@ -352,7 +608,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
             initialMovieWidth = width;
             initialMovieHeight = height;
             resize();
+            storeVideoMetadata();
         }
+        recordEvent(PlaybackEventRecorder.TYPE_VIDEO_SIZE, width, height);
 
         if (this.videoSizeChangedListener != null)
             this.videoSizeChangedListener.onVideoSizeChanged(mp, width, height);
@@ -362,6 +620,10 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public void onBufferingUpdate(MediaPlayer mp, int percent) {
 //        Log.d(TAG, "onBufferingUpdate = " + percent);
 
+        if (this.bandwidthSession != null)
+            this.bandwidthSession.onBufferingUpdate(percent);
+        recordEvent(PlaybackEventRecorder.TYPE_BUFFERING, percent, 0);
+
         if (this.bufferingUpdateListener != null)
             this.bufferingUpdateListener.onBufferingUpdate(mp, percent);
     }
@@ -376,6 +638,8 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
             return;
 
         this.mediaPlayer = null;
+        if (this.playerEngineFactory == null)
+            this.playerEngineFactory = MediaPlayerEngine.FACTORY;
         this.shouldAutoplay = false;
         this.fullscreen = false;
         this.initialConfigOrientation = -1;
@@ -383,6 +647,15 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
         this.surfaceIsReady = false;
         this.initialMovieHeight = -1;
         this.initialMovieWidth = -1;
+        this.leftVolume = 1.0f;
+        this.rightVolume = 1.0f;
+        this.pendingSeekPosition = 0;
+        this.pendingStart = false;
+        this.playbackSpeed = 1.0f;
+        this.playbackClock = new PlaybackClock();
+        this.volumeScale = 1.0f;
+        this.loopFrameCacheScale = 0.5f;
+        this.bandwidthSession = new BandwidthEstimator.Session(BandwidthEstimator.getDefault());
         this.setBackgroundColor(Color.BLACK);
 
         initObjects();
@@ -395,19 +668,43 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
         Log.d(TAG, "release");
         releaseObjects();
 
+        if (this.audioFocusHandler != null)
+            this.audioFocusHandler.abandon();
+
+        PlayerMemoryManager memoryManager = getMemoryManager();
+        if (memoryManager != null)
+            memoryManager.unregister(this);
+        if (this.playbackGroup != null)
+            this.playbackGroup.remove(this);
+
         if (this.mediaPlayer != null) {
-            this.mediaPlayer.setOnBufferingUpdateListener(null);
-            this.mediaPlayer.setOnPreparedListener(null);
-            this.mediaPlayer.setOnErrorListener(null);
-            this.mediaPlayer.setOnSeekCompleteListener(null);
-            this.mediaPlayer.setOnCompletionListener(null);
-            this.mediaPlayer.setOnInfoListener(null);
-            this.mediaPlayer.setOnVideoSizeChangedListener(null);
+            detachListeners(this.mediaPlayer);
             this.mediaPlayer.release();
             this.mediaPlayer = null;
         }
 
         this.currentState = State.END;
+        recordState();
+    }
+
+    protected void attachListeners(PlayerEngine player) {
+        player.setOnInfoListener(this);
+        player.setOnErrorListener(this);
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnSeekCompleteListener(this);
+        player.setOnBufferingUpdateListener(this);
+        player.setOnVideoSizeChangedListener(this);
+    }
+
+    protected void detachListeners(PlayerEngine player) {
+        player.setOnBufferingUpdateListener(null);
+        player.setOnPreparedListener(null);
+        player.setOnErrorListener(null);
+        player.setOnSeekCompleteListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnInfoListener(null);
+        player.setOnVideoSizeChangedListener(null);
     }
 
     /**
@@ -419,17 +716,12 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     protected void initObjects() {
         Log.d(TAG, "initObjects");
 
-        if (this.mediaPlayer == null) {
-            this.mediaPlayer = new MediaPlayer();
-            this.mediaPlayer.setOnInfoListener(this);
-            this.mediaPlayer.setOnErrorListener(this);
-            this.mediaPlayer.setOnPreparedListener(this);
-            this.mediaPlayer.setOnCompletionListener(this);
-            this.mediaPlayer.setOnSeekCompleteListener(this);
-            this.mediaPlayer.setOnBufferingUpdateListener(this);
-            this.mediaPlayer.setOnVideoSizeChangedListener(this);
-            this.mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-        }
+        if (this.mediaPlayer == null)
+            initPlayerEngine();
+
+        PlayerMemoryManager memoryManager = getMemoryManager();
+        if (memoryManager != null)
+            memoryManager.register(this);
 
         RelativeLayout.LayoutParams layoutParams;
         View view;
@@ -460,6 +752,12 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
         view.setLayoutParams(layoutParams);
         addView(view);
 
+        // Poster and captions stay over the new video surface
+        if (this.posterView != null)
+            bringChildToFront(this.posterView);
+        if (this.timedTextView != null)
+            bringChildToFront(this.timedTextView);
+
         // Try not reset onProgressView
         if (this.onProgressView == null)
             this.onProgressView = new ProgressBar(context);
@@ -481,15 +779,38 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
      */
     protected void releaseObjects() {
         Log.d(TAG, "releaseObjects");
-        if (this.mediaPlayer != null) {
+        cancelPrepareTimeout();
+        if (this.deferredPrepare && this.prepareScheduler != null)
+            this.prepareScheduler.cancel(this);
+        this.deferredPrepare = false;
+        if (this.mediaPlayer != null && isPrepareInFlight()) {
+            // Resetting would wait for the source: drops the engine instead
+            abandonPlayerEngine();
+        } else if (this.mediaPlayer != null) {
             this.mediaPlayer.setSurface(null);
             this.mediaPlayer.reset();
         }
+        releaseNextPlayer();
+        releaseFastStartDataSource();
+
+        if (this.surface != null) {
+            this.surface.release();
+            this.surface = null;
+        }
+        releaseLoopFrameView();
+        this.playbackClock.reset();
+
+        this.suspended = false;
+        hidePoster();
+        if (this.idleHandler != null)
+            this.idleHandler.removeCallbacks(this.idleRunnable);
 
         this.videoIsReady = false;
         this.surfaceIsReady = false;
+        this.surfaceDetached = false;
         this.initialMovieHeight = -1;
         this.initialMovieWidth = -1;
+        this.videoMetadata = null;
 
         if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
             if (this.textureView != null) {
@@ -519,10 +840,178 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
     protected void prepare() throws IllegalStateException {
         Log.d(TAG, "prepare");
+        applyShortLoopMode();
+
+        // Fast scroll: the source stays set, prepared once the list settles
+        if (this.prepareScheduler != null && this.prepareScheduler.defer(this)) {
+            Log.d(TAG, "prepare deferred");
+            this.deferredPrepare = true;
+            return;
+        }
+
+        prepareAsync();
+    }
+
+    protected void prepareAsync() {
+        this.deferredPrepare = false;
         startLoading();
 
         this.currentState = State.PREPARING;
+        recordState();
         this.mediaPlayer.prepareAsync();
+        schedulePrepareTimeout();
+    }
+
+    /**
+     * Lets a scheduler postpone prepares while a list scrolls fast.
+     * Usually one scheduler is shared by all views of a list.
+     *
+     * @param scheduler Scheduler fed with the list scroll, or null to always prepare right away
+     */
+    public void setPrepareScheduler(PrepareScheduler scheduler) {
+        if (this.prepareScheduler != null && this.prepareScheduler != scheduler)
+            this.prepareScheduler.cancel(this);
+        this.prepareScheduler = scheduler;
+        if (scheduler == null && this.deferredPrepare)
+            prepareDeferred();
+    }
+
+    public PrepareScheduler getPrepareScheduler() {
+        return prepareScheduler;
+    }
+
+    /**
+     * @return true if the source is set and waits for the scheduler to prepare it
+     */
+    public boolean isPrepareDeferred() {
+        return deferredPrepare;
+    }
+
+    /**
+     * Runs a prepare postponed by the scheduler
+     */
+    protected void prepareDeferred() {
+        if (!this.deferredPrepare)
+            return;
+
+        this.deferredPrepare = false;
+        if (this.prepareScheduler != null)
+            this.prepareScheduler.cancel(this);
+        if (this.mediaPlayer != null && this.currentState == State.INITIALIZED)
+            prepareAsync();
+    }
+
+    protected void initPlayerEngine() {
+        this.mediaPlayer = createPlayerEngine();
+        attachListeners(this.mediaPlayer);
+        this.mediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        this.playbackClock.setEngine(this.mediaPlayer);
+        applyShortLoopMode();
+    }
+
+    protected boolean isPrepareInFlight() {
+        return this.currentState == State.PREPARING && !this.videoIsReady;
+    }
+
+    /**
+     * Detaches the current engine, so none of its callbacks arrive anymore,
+     * and releases it in the background
+     */
+    protected void abandonPlayerEngine() {
+        Log.d(TAG, "abandonPlayerEngine");
+
+        PlayerEngine engine = this.mediaPlayer;
+        detachListeners(engine);
+        this.mediaPlayer = null;
+        this.playbackClock.setEngine(null);
+        releaseInBackground(engine);
+    }
+
+    /**
+     * Releases an engine that is no longer used. release() may wait for a prepare or
+     * for the decoders, so it does not run on the main thread
+     */
+    protected static void releaseInBackground(final PlayerEngine engine) {
+        ENGINE_RELEASE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                engine.release();
+            }
+        });
+    }
+
+    /**
+     * True for callbacks of a MediaPlayer that is not the current one (an abandoned prepare)
+     */
+    protected boolean isStaleCallback(MediaPlayer mp) {
+        if (mp == null || this.mediaPlayer == null)
+            return this.mediaPlayer == null;
+
+        MediaPlayer current = this.mediaPlayer.getMediaPlayer();
+        if (current != null && current != mp) {
+            Log.d(TAG, "stale callback ignored");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A prepare that takes longer than this fails with MEDIA_ERROR_TIMED_OUT
+     * (as extra of MEDIA_ERROR_UNKNOWN) and can be retried with {@link #retry()}.
+     *
+     * @param msec Timeout. 0 disables it (default)
+     */
+    public void setPrepareTimeout(long msec) {
+        this.prepareTimeout = msec;
+    }
+
+    public long getPrepareTimeout() {
+        return prepareTimeout;
+    }
+
+    protected void schedulePrepareTimeout() {
+        cancelPrepareTimeout();
+        if (this.prepareTimeout <= 0)
+            return;
+
+        if (this.prepareTimeoutHandler == null)
+            this.prepareTimeoutHandler = new Handler(Looper.getMainLooper());
+        this.prepareTimeoutHandler.postDelayed(this.prepareTimeoutRunnable, this.prepareTimeout);
+    }
+
+    protected void cancelPrepareTimeout() {
+        if (this.prepareTimeoutHandler != null)
+            this.prepareTimeoutHandler.removeCallbacks(this.prepareTimeoutRunnable);
+    }
+
+    protected void onPrepareTimeout() {
+        Log.d(TAG, "onPrepareTimeout - " + this.prepareTimeout + " ms");
+
+        abandonPlayerEngine();
+        initPlayerEngine();
+        if (this.surface != null)
+            this.mediaPlayer.setSurface(this.surface);
+        else if (this.surfaceHolder != null && this.surfaceIsReady)
+            this.mediaPlayer.setDisplay(this.surfaceHolder);
+
+        onError(null, MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_TIMED_OUT);
+    }
+
+    /**
+     * Loads the current source again, after an error such as a prepare timeout.
+     * It goes back to the last known position and starts if it was about to.
+     */
+    public void retry() throws IOException {
+        Log.d(TAG, "retry");
+
+        // A prepare that failed before seeking still has the position it was going to
+        int position = this.pendingSeekPosition > 0 ? this.pendingSeekPosition : this.playbackClock.getPosition();
+        boolean start = this.pendingStart;
+
+        reset();
+        this.pendingSeekPosition = position;
+        this.pendingStart = start;
+        reloadVideoSource();
     }
 
     /**
@@ -532,7 +1021,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
      */
     protected void tryToPrepare() {
         Log.d(TAG, "tryToPrepare");
-        if (this.surfaceIsReady && this.videoIsReady) {
+        if (this.videoIsReady)
+            cancelPrepareTimeout();
+        if (isSurfaceReady() && this.videoIsReady) {
             if (this.mediaPlayer != null &&
                     this.mediaPlayer.getVideoWidth() != 0 &&
                     this.mediaPlayer.getVideoHeight() != 0) {
@@ -541,17 +1032,48 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
             }
 
             resize();
+
+            this.playbackClock.onPrepared(this.mediaPlayer.getDuration());
+            storeVideoMetadata();
+
+            // Restored position must be applied before the first frame is shown
+            if (this.pendingSeekPosition > 0) {
+                this.lastState = null;
+                this.mediaPlayer.seekTo(this.pendingSeekPosition);
+                this.playbackClock.onSeek(this.pendingSeekPosition);
+                this.pendingSeekPosition = 0;
+            }
+
             stopLoading();
             currentState = State.PREPARED;
-
-            if (shouldAutoplay)
+            recordEvent(PlaybackEventRecorder.TYPE_PREPARED, 0, 0, this.playbackClock.getDuration());
+            recordState();
+
+            if (playbackGroup != null) {
+                // Group decides when to start, so all members start together
+                pendingStart = false;
+                playbackGroup.onMemberPrepared(this);
+            } else if (shouldAutoplay || pendingStart) {
+                pendingStart = false;
                 start();
+            }
+
+            prepareNextPlaylistItem();
+            loadLoopFrames();
+            updateIdleTimer();
 
             if (this.preparedListener != null)
-                this.preparedListener.onPrepared(mediaPlayer);
+                this.preparedListener.onPrepared(mediaPlayer.getMediaPlayer());
         }
     }
 
+    /**
+     * @return true if the surface is created, or the engine draws nothing and does not need one
+     */
+    protected boolean isSurfaceReady() {
+        return this.surfaceIsReady || (this.mediaPlayer != null && !this.mediaPlayer.requiresSurface());
+    }
+
     protected void startLoading() {
         if (this.onProgressView != null)
             this.onProgressView.setVisibility(View.VISIBLE);
@@ -595,6 +1117,8 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
         if (this.currentState != State.ERROR) {
             if (FullscreenVideoView.this.fullscreen == fullscreen) return;
+            if (fullscreen && this.miniPlayer)
+                setMiniPlayer(false);
             FullscreenVideoView.this.fullscreen = fullscreen;
 
             final boolean wasPlaying = mediaPlayer.isPlaying();
@@ -648,18 +1172,147 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
             }
 
             resize();
+            onFullscreenChanged();
 
             Handler handler = new Handler(Looper.getMainLooper());
             handler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (wasPlaying && mediaPlayer != null)
-                        start();
+                    if (wasPlaying && mediaPlayer != null) {
+                        // A rendition switch may be preparing the new source
+                        if (currentState == State.INITIALIZED || currentState == State.PREPARING)
+                            pendingStart = true;
+                        else
+                            start();
+                    }
                 }
             });
         }
     }
 
+    /**
+     * @return true if it is playing in the floating mini player
+     */
+    public boolean isMiniPlayer() {
+        return miniPlayer;
+    }
+
+    /**
+     * Moves the video to a small draggable overlay over the activity content, or back.
+     * <p>
+     * The same player keeps going: nothing is prepared or buffered again. On API 16+ the
+     * SurfaceTexture moves along with the view, so playback is not even paused.
+     * Like fullscreen, it goes back to the container it came from, if it still exists;
+     * otherwise leaving the mini player releases the video.
+     *
+     * @param miniPlayer true to float it, false to put it back
+     */
+    public void setMiniPlayer(boolean miniPlayer) throws RuntimeException {
+        if (mediaPlayer == null)
+            throw new RuntimeException("Media Player is not initialized");
+
+        if (this.miniPlayer == miniPlayer)
+            return;
+
+        if (miniPlayer) {
+            if (this.fullscreen)
+                setFullscreen(false);
+
+            View content = getRootView().findViewById(android.R.id.content);
+            if (!(content instanceof ViewGroup)) {
+                Log.e(TAG, "RootView is not a ViewGroup");
+                return;
+            }
+
+            // Saves the last container and LayoutParams to restore after
+            ViewParent viewParent = getParent();
+            if (viewParent instanceof ViewGroup) {
+                parentView = (ViewGroup) viewParent;
+                currentLayoutParams = getLayoutParams();
+            }
+
+            int margin = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 16, getResources().getDisplayMetrics());
+            FrameLayout.LayoutParams frameParams = new FrameLayout.LayoutParams(
+                    getMiniPlayerWidth(), getMiniPlayerHeight(), Gravity.BOTTOM | Gravity.RIGHT);
+            frameParams.setMargins(margin, margin, margin, margin);
+
+            this.miniPlayer = true;
+            this.miniPlayerFrame = new MiniPlayerFrame(context);
+            ((ViewGroup) content).addView(this.miniPlayerFrame, frameParams);
+            moveTo(this.miniPlayerFrame, new FrameLayout.LayoutParams(
+                    FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT));
+        } else {
+            this.miniPlayer = false;
+            MiniPlayerFrame frame = this.miniPlayerFrame;
+            this.miniPlayerFrame = null;
+
+            if (parentView != null && parentView.getParent() != null)
+                moveTo(parentView, currentLayoutParams);
+            else if (frame != null)
+                frame.removeView(this); // Nowhere to go back: released
+
+            if (frame != null && frame.getParent() instanceof ViewGroup)
+                ((ViewGroup) frame.getParent()).removeView(frame);
+        }
+
+        resize();
+    }
+
+    /**
+     * @param width  Mini player width in pixels. 0 for the default (half the smallest screen side)
+     * @param height Mini player height in pixels. 0 to follow the video proportion
+     */
+    public void setMiniPlayerSize(int width, int height) {
+        this.miniPlayerWidth = width;
+        this.miniPlayerHeight = height;
+    }
+
+    protected int getMiniPlayerWidth() {
+        if (this.miniPlayerWidth > 0)
+            return this.miniPlayerWidth;
+
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        return Math.min(metrics.widthPixels, metrics.heightPixels) / 2;
+    }
+
+    protected int getMiniPlayerHeight() {
+        if (this.miniPlayerHeight > 0)
+            return this.miniPlayerHeight;
+
+        int width = getMiniPlayerWidth();
+        if (this.initialMovieWidth > 0 && this.initialMovieHeight > 0)
+            return width * this.initialMovieHeight / this.initialMovieWidth;
+        return width * 9 / 16;
+    }
+
+    /**
+     * Moves this view to another container without releasing the player.
+     * On API 16+ its SurfaceTexture is handed to the TextureView in the new container,
+     * so the video keeps drawing with no new surface and no black frame.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    protected void moveTo(ViewGroup container, ViewGroup.LayoutParams params) {
+        ViewParent viewParent = getParent();
+
+        this.handingOffSurface = true;
+        try {
+            if (viewParent instanceof ViewGroup) {
+                // Prevents MediaPlayer to became invalidated and released
+                this.detachedByFullscreen = true;
+                ((ViewGroup) viewParent).removeView(this);
+                this.detachedByFullscreen = false;
+            }
+            container.addView(this, params);
+        } finally {
+            this.handingOffSurface = false;
+        }
+
+        SurfaceTexture texture = this.retainedSurfaceTexture;
+        this.retainedSurfaceTexture = null;
+        if (texture != null && this.textureView != null)
+            this.textureView.setSurfaceTexture(texture);
+    }
+
     /**
      * Binds an Activity to VideoView. This is necessary to keep tracking on orientation changes
      *
@@ -678,6 +1331,9 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
         handler.post(new Runnable() {
             @Override
             public void run() {
+                // It may have been reset after being posted
+                if (initialMovieHeight == -1 || initialMovieWidth == -1)
+                    return;
 
                 View currentParent = (View) getParent();
                 if (currentParent != null) {
@@ -715,65 +1371,1102 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
                     Log.d(TAG, "Resizing: initialMovieWidth: " + initialMovieWidth + " - initialMovieHeight: " + initialMovieHeight);
                     Log.d(TAG, "Resizing: screenWidth: " + screenWidth + " - screenHeight: " + screenHeight);
                     Log.d(TAG, "Resizing To: newWidth: " + newWidth + " - newHeight: " + newHeight);
+
+                    onViewportChanged(newWidth, newHeight, false);
                 }
             }
         });
     }
 
     /**
-     * Tells if application should autoplay videos as soon as it is prepared
-     *
-     * @return true if application are going to play videos as soon as it is prepared
+     * Measures with the known video size until the player reports it, so rows get their
+     * final size (and the video its aspect-fit size) on the first layout pass.
+     * A wrap_content height follows the video proportion.
      */
-    public boolean isShouldAutoplay() {
-        return shouldAutoplay;
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (this.initialMovieWidth == -1 && this.videoMetadata != null && this.videoMetadata.hasSize()) {
+            float videoProportion = (float) this.videoMetadata.getWidth() / (float) this.videoMetadata.getHeight();
+
+            int width = MeasureSpec.getSize(widthMeasureSpec);
+            int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+            if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY && heightMode != MeasureSpec.EXACTLY) {
+                int height = (int) ((float) width / videoProportion);
+                if (heightMode == MeasureSpec.AT_MOST)
+                    height = Math.min(height, MeasureSpec.getSize(heightMeasureSpec));
+                heightMeasureSpec = MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY);
+            }
+
+            fitVideoView(width, MeasureSpec.getSize(heightMeasureSpec), videoProportion);
+        }
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
 
     /**
-     * Tells application that it should begin playing as soon as buffering
-     * is ok
-     *
-     * @param shouldAutoplay If true, call start() method when getCurrentState() == PREPARED. Default is false.
+     * Sets the aspect-fit size of the video view inside width x height.
+     * Called while measuring, so it changes the layout params without requesting a layout.
      */
-    public void setShouldAutoplay(boolean shouldAutoplay) {
-        this.shouldAutoplay = shouldAutoplay;
+    protected void fitVideoView(int width, int height, float videoProportion) {
+        View currentView;
+        if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+            currentView = textureView;
+        else
+            currentView = surfaceView;
+        if (currentView == null || width <= 0 || height <= 0)
+            return;
+
+        int newWidth, newHeight;
+        if (videoProportion > (float) width / (float) height) {
+            newWidth = width;
+            newHeight = (int) ((float) width / videoProportion);
+        } else {
+            newWidth = (int) (videoProportion * (float) height);
+            newHeight = height;
+        }
+
+        RelativeLayout.LayoutParams lp = (RelativeLayout.LayoutParams) currentView.getLayoutParams();
+        lp.addRule(CENTER_IN_PARENT);
+        lp.width = newWidth;
+        lp.height = newHeight;
     }
 
     /**
-     * Toggles view to fullscreen mode
-     * It saves currentState and calls pause() method.
-     * When fullscreen is finished, it calls the saved currentState before pause()
-     * In practice, it only affects STARTED state.
-     * If currenteState was STARTED when fullscreen() is called, it calls start() method
-     * after fullscreen() has ended.
-     *
-     * @deprecated As of release 1.1.0, replaced by {@link #setFullscreen(boolean)}
+     * Size and duration of the video, when the app knows them before preparing
+     * (from an API response, for instance). Applies to the next source set, or to
+     * the current one if it is already set. The view is measured with them until
+     * the player reports the real ones, and they are kept in {@link VideoMetadataCache}.
      */
-    @Deprecated
-    public void fullscreen() throws IllegalStateException {
-        setFullscreen(!fullscreen);
+    public void setVideoMetadata(VideoMetadata metadata) {
+        if (this.currentState == State.IDLE) {
+            this.suppliedMetadata = metadata;
+            return;
+        }
+
+        this.videoMetadata = metadata;
+        VideoMetadataCache.getDefault().put(getVideoMetadataKey(), metadata);
+        requestLayout();
+        onVideoMetadataChanged();
     }
 
     /**
-     * MediaPlayer method (getCurrentPosition)
-     *
-     * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#getCurrentPosition%28%29">getCurrentPosition</a>
+     * @return Size and duration known before prepare, or null
      */
-    public int getCurrentPosition() {
-        if (mediaPlayer != null)
-            return mediaPlayer.getCurrentPosition();
-        else throw new RuntimeException("Media Player is not initialized");
+    public VideoMetadata getVideoMetadata() {
+        return videoMetadata;
     }
 
     /**
-     * MediaPlayer method (getDuration)
-     *
-     * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#getDuration%28%29">getDuration</a>
+     * Called when size and duration are known ahead of prepare
      */
-    public int getDuration() {
-        if (mediaPlayer != null)
-            return mediaPlayer.getDuration();
-        else throw new RuntimeException("Media Player is not initialized");
+    protected void onVideoMetadataChanged() {
+    }
+
+    /**
+     * Takes the metadata supplied by the app, or the one cached from an earlier play
+     */
+    protected void loadVideoMetadata(String key) {
+        VideoMetadata metadata = this.suppliedMetadata;
+        this.suppliedMetadata = null;
+        if (metadata != null)
+            VideoMetadataCache.getDefault().put(key, metadata);
+        else
+            metadata = VideoMetadataCache.getDefault().get(key);
+
+        this.videoMetadata = metadata;
+        if (metadata != null) {
+            Log.d(TAG, "loadVideoMetadata - " + metadata);
+            requestLayout();
+            onVideoMetadataChanged();
+        }
+    }
+
+    /**
+     * Remembers the real size and duration for the next time this source is set
+     */
+    protected void storeVideoMetadata() {
+        if (this.initialMovieWidth <= 0 || this.initialMovieHeight <= 0)
+            return;
+
+        int duration = this.playbackClock.getDuration();
+        if (duration <= 0 && this.videoMetadata != null)
+            duration = this.videoMetadata.getDuration();
+        VideoMetadataCache.getDefault().put(getVideoMetadataKey(),
+                new VideoMetadata(this.initialMovieWidth, this.initialMovieHeight, duration));
+    }
+
+    protected String getVideoMetadataKey() {
+        if (this.videoUri != null)
+            return this.videoUri.toString();
+        return this.videoPath;
+    }
+
+    /**
+     * Called when the area the video is displayed on changes.
+     * It tells the engine and switches to a bigger rendition if the current one
+     * does not cover the viewport anymore.
+     *
+     * @param width         Viewport width in pixels
+     * @param height        Viewport height in pixels
+     * @param allowDownswitch If it can switch to a smaller rendition
+     */
+    protected void onViewportChanged(int width, int height, boolean allowDownswitch) {
+        if (width <= 0 || height <= 0)
+            return;
+
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+        if (this.mediaPlayer != null)
+            this.mediaPlayer.setViewportSize(width, height);
+
+        // Only if the playing Uri still comes from the selector
+        if (this.renditionSelector == null || this.currentRendition == null ||
+                !this.currentRendition.getUri().equals(this.videoUri))
+            return;
+
+        Rendition rendition = this.renditionSelector.select(width, height);
+        if (rendition == null || rendition == this.currentRendition)
+            return;
+
+        long current = (long) this.currentRendition.getWidth() * this.currentRendition.getHeight();
+        long selected = (long) rendition.getWidth() * rendition.getHeight();
+        if (selected > current || allowDownswitch)
+            switchRendition(rendition);
+    }
+
+    /**
+     * Fullscreen changes the viewport before any layout pass.
+     * Uses the display size to switch up right away and the previous viewport to switch back down.
+     */
+    protected void onFullscreenChanged() {
+        if (this.renditionSelector == null)
+            return;
+
+        if (this.fullscreen) {
+            this.windowedViewportWidth = this.viewportWidth;
+            this.windowedViewportHeight = this.viewportHeight;
+
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            int max = Math.max(metrics.widthPixels, metrics.heightPixels);
+            int min = Math.min(metrics.widthPixels, metrics.heightPixels);
+            // Fullscreen is usually landscape
+            if (initialMovieWidth >= initialMovieHeight)
+                onViewportChanged(max, min, false);
+            else
+                onViewportChanged(min, max, false);
+        } else {
+            onViewportChanged(this.windowedViewportWidth, this.windowedViewportHeight, true);
+        }
+    }
+
+    /**
+     * Replaces the source by another rendition keeping position and play state
+     */
+    protected void switchRendition(Rendition rendition) {
+        Log.d(TAG, "switchRendition - " + rendition);
+
+        int position = this.pendingSeekPosition;
+        boolean playing = this.pendingStart;
+        if (this.currentState == State.PREPARED ||
+                this.currentState == State.STARTED ||
+                this.currentState == State.PAUSED ||
+                this.currentState == State.PLAYBACKCOMPLETED) {
+            position = getCurrentPosition();
+            playing = this.currentState == State.STARTED;
+        } else if (this.currentState != State.INITIALIZED &&
+                this.currentState != State.PREPARING)
+            return;
+
+        Rendition previous = this.currentRendition;
+        try {
+            loadRendition(rendition, position, playing);
+        } catch (IOException e) {
+            // Keeps playing the one that worked
+            Log.e(TAG, "switchRendition - " + e.getMessage());
+            try {
+                loadRendition(previous, position, playing);
+            } catch (IOException again) {
+                Log.e(TAG, "switchRendition - " + again.getMessage());
+                onError(this.mediaPlayer.getMediaPlayer(), MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+            }
+        }
+    }
+
+    protected void loadRendition(Rendition rendition, int position, boolean playing) throws IOException {
+        reset();
+        this.pendingSeekPosition = position;
+        this.pendingStart = playing;
+        this.currentRendition = rendition;
+        setVideoURI(rendition.getUri());
+    }
+
+    /**
+     * Plays the rendition that best fits the viewport, switching to a bigger one
+     * when it grows (for instance, when it goes fullscreen) without losing the position.
+     * Call {@link #reset()} before setting a new video, as in {@link #setVideoURI(Uri)}.
+     *
+     * @param selector Renditions of the video
+     */
+    public void setVideoRenditions(RenditionSelector selector) throws IOException, IllegalStateException, SecurityException, IllegalArgumentException, RuntimeException {
+        int width = this.viewportWidth > 0 ? this.viewportWidth : getWidth();
+        int height = this.viewportHeight > 0 ? this.viewportHeight : getHeight();
+        if (width <= 0 || height <= 0) {
+            DisplayMetrics metrics = getResources().getDisplayMetrics();
+            width = metrics.widthPixels;
+            height = metrics.heightPixels;
+        }
+
+        Rendition rendition = selector.select(width, height);
+        if (rendition == null)
+            throw new IllegalArgumentException("RenditionSelector is empty");
+
+        this.renditionSelector = selector;
+        this.currentRendition = rendition;
+        setVideoURI(rendition.getUri());
+    }
+
+    /**
+     * Returns the rendition that is playing
+     *
+     * @return The rendition or null if the video was not set by {@link #setVideoRenditions(RenditionSelector)}
+     */
+    public Rendition getCurrentRendition() {
+        if (this.currentRendition != null && this.currentRendition.getUri().equals(this.videoUri))
+            return this.currentRendition;
+        return null;
+    }
+
+    /**
+     * Size of the current video. It lets buffering updates be turned into throughput samples
+     * for the shared {@link BandwidthEstimator}. It is cleared by {@link #reset()}.
+     *
+     * @param contentLength Size in bytes or -1 if unknown
+     */
+    public void setContentLength(long contentLength) {
+        this.bandwidthSession.setContentLength(contentLength);
+    }
+
+    /**
+     * Returns the estimator this view reports to. Default is {@link BandwidthEstimator#getDefault()}
+     */
+    public BandwidthEstimator getBandwidthEstimator() {
+        return this.bandwidthSession.getEstimator();
+    }
+
+    /**
+     * Reports to another estimator
+     *
+     * @param estimator The estimator. Null restores the default one
+     */
+    public void setBandwidthEstimator(BandwidthEstimator estimator) {
+        BandwidthEstimator.Session session = new BandwidthEstimator.Session(estimator != null ? estimator : BandwidthEstimator.getDefault());
+        session.setContentLength(this.bandwidthSession.getContentLength());
+        this.bandwidthSession = session;
+    }
+
+    /**
+     * Estimates how long it can play before running out of buffer,
+     * based on the buffered percentage and the shared throughput estimate
+     *
+     * @return Time in msec, 0 if it is stalled or Long.MAX_VALUE if it is not expected to stall
+     */
+    public long getTimeToStall() {
+        if (this.mediaPlayer == null)
+            throw new RuntimeException("Media Player is not initialized");
+
+        if (this.currentState != State.STARTED && this.currentState != State.PAUSED)
+            return Long.MAX_VALUE;
+        return this.bandwidthSession.getTimeToStall(getCurrentPosition(), getDuration());
+    }
+
+    /**
+     * Plays a list of videos one after another.
+     * While an item plays, the next one is prepared on a second player, which takes
+     * over the surface as soon as the current one completes.
+     * Call {@link #reset()} before setting a new playlist, as in {@link #setVideoURI(Uri)}.
+     *
+     * @param items Videos to play
+     */
+    public void setPlaylist(List<Uri> items) throws IOException, IllegalStateException, SecurityException, IllegalArgumentException, RuntimeException {
+        if (items == null || items.isEmpty())
+            throw new IllegalArgumentException("Playlist is empty");
+
+        this.playlist = new ArrayList<>(items);
+        this.playlistIndex = 0;
+        setVideoURI(this.playlist.get(0));
+    }
+
+    /**
+     * Returns the playlist set by {@link #setPlaylist(List)}
+     *
+     * @return The playlist or null if the current video does not come from a playlist
+     */
+    public List<Uri> getPlaylist() {
+        return isPlaylistActive() ? playlist : null;
+    }
+
+    /**
+     * Returns the position of the current video in the playlist
+     *
+     * @return The index or -1 if the current video does not come from a playlist
+     */
+    public int getPlaylistIndex() {
+        return isPlaylistActive() ? playlistIndex : -1;
+    }
+
+    public boolean hasNextPlaylistItem() {
+        return isPlaylistActive() && playlistIndex + 1 < playlist.size();
+    }
+
+    /**
+     * Skips to the next playlist item and plays it
+     */
+    public void playNext() {
+        if (!hasNextPlaylistItem())
+            return;
+
+        if (this.nextPlayer != null && this.nextPlayerReady) {
+            swapToNextPlayer();
+            return;
+        }
+
+        // Next item is not ready: loads it the usual way
+        int index = this.playlistIndex + 1;
+        reset();
+        this.playlistIndex = index;
+        this.pendingStart = true;
+        try {
+            setVideoURI(this.playlist.get(index));
+        } catch (IOException e) {
+            Log.e(TAG, "playNext - " + e.getMessage());
+            onError(this.mediaPlayer.getMediaPlayer(), MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+        }
+    }
+
+    // Only if the playing Uri still comes from the playlist
+    protected boolean isPlaylistActive() {
+        return this.playlist != null &&
+                this.videoUri != null &&
+                this.playlistIndex < this.playlist.size() &&
+                this.videoUri.equals(this.playlist.get(this.playlistIndex));
+    }
+
+    protected void prepareNextPlaylistItem() {
+        if (!hasNextPlaylistItem() || this.nextPlayer != null)
+            return;
+
+        final PlayerEngine player = createPlayerEngine();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        player.setOnPreparedListener(new OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (nextPlayer == player)
+                    nextPlayerReady = true;
+            }
+        });
+        player.setOnErrorListener(new OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                Log.d(TAG, "next playlist item error - " + what + " - " + extra);
+                if (nextPlayer == player)
+                    releaseNextPlayer();
+                return true;
+            }
+        });
+
+        this.nextPlayer = player;
+        this.nextPlayerReady = false;
+        try {
+            player.setDataSource(this.context, this.playlist.get(this.playlistIndex + 1));
+            player.prepareAsync();
+        } catch (IOException | IllegalStateException | IllegalArgumentException | SecurityException e) {
+            Log.e(TAG, "prepareNextPlaylistItem - " + e.getMessage());
+            releaseNextPlayer();
+        }
+    }
+
+    protected void releaseNextPlayer() {
+        if (this.nextPlayer != null) {
+            this.nextPlayer.setOnPreparedListener(null);
+            this.nextPlayer.setOnErrorListener(null);
+            releaseInBackground(this.nextPlayer);
+            this.nextPlayer = null;
+        }
+        this.nextPlayerReady = false;
+    }
+
+    /**
+     * Hands the surface to the already prepared next player and starts it
+     */
+    protected void swapToNextPlayer() {
+        Log.d(TAG, "swapToNextPlayer");
+
+        PlayerEngine previous = this.mediaPlayer;
+        detachListeners(previous);
+        previous.setSurface(null);
+
+        this.mediaPlayer = this.nextPlayer;
+        this.nextPlayer = null;
+        this.nextPlayerReady = false;
+
+        attachListeners(this.mediaPlayer);
+        this.mediaPlayer.setVolume(this.leftVolume * this.volumeScale, this.rightVolume * this.volumeScale);
+        if (this.surface != null)
+            this.mediaPlayer.setSurface(this.surface);
+        else if (this.surfaceHolder != null)
+            this.mediaPlayer.setDisplay(this.surfaceHolder);
+
+        this.playbackClock.reset();
+        this.playbackClock.setEngine(this.mediaPlayer);
+        applyShortLoopMode();
+
+        this.playlistIndex++;
+        this.videoUri = this.playlist.get(this.playlistIndex);
+        this.initialMovieWidth = -1;
+        this.initialMovieHeight = -1;
+        loadVideoMetadata(this.videoUri.toString());
+        this.bandwidthSession.reset();
+        this.videoIsReady = true;
+        this.pendingStart = true;
+        this.currentState = State.PREPARING;
+        tryToPrepare();
+
+        releaseInBackground(previous);
+    }
+
+    /**
+     * Shows captions or timed annotations over the video, following {@link #getPlaybackClock()}.
+     * The track is kept across videos.
+     *
+     * @param track Track to show, or null to remove it
+     * @see TimedTextTrack#loadAsync(java.io.File, TimedTextTrack.OnLoadListener)
+     */
+    public void setTimedTextTrack(TimedTextTrack track) {
+        if (track == null) {
+            if (this.timedTextView != null) {
+                this.timedTextView.setTrack(null);
+                removeView(this.timedTextView);
+                this.timedTextView = null;
+            }
+            return;
+        }
+
+        if (this.timedTextView == null) {
+            this.timedTextView = new TimedTextView(this.context);
+            RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
+            layoutParams.addRule(ALIGN_PARENT_BOTTOM);
+            addView(this.timedTextView, layoutParams);
+            this.timedTextView.setPlaybackClock(this.playbackClock);
+        }
+        this.timedTextView.setTrack(track);
+    }
+
+    public TimedTextTrack getTimedTextTrack() {
+        return this.timedTextView != null ? this.timedTextView.getTrack() : null;
+    }
+
+    /**
+     * @return The view showing the timed text track, to style it. Null if there is no track
+     */
+    public TimedTextView getTimedTextView() {
+        return timedTextView;
+    }
+
+    /**
+     * Keeps playing audio when the video surface goes away (app in background, view detached).
+     * The player is detached from the surface, so no frame is rendered or composited,
+     * and video comes back at the current position when a new surface is available.
+     * When disabled (default), losing the surface pauses the video.
+     * Usually used with {@link #setAudioFocusEnabled(boolean)}.
+     */
+    public void setBackgroundAudioEnabled(boolean enabled) {
+        this.backgroundAudio = enabled;
+    }
+
+    public boolean isBackgroundAudioEnabled() {
+        return backgroundAudio;
+    }
+
+    /**
+     * @return true while only audio is playing, because the video surface went away
+     */
+    public boolean isAudioOnly() {
+        return surfaceDetached;
+    }
+
+    protected void detachVideo() {
+        Log.d(TAG, "detachVideo");
+
+        if (this.textureView != null)
+            this.mediaPlayer.setSurface(null);
+        else
+            this.mediaPlayer.setDisplay(null);
+
+        if (this.surface != null) {
+            this.surface.release();
+            this.surface = null;
+        }
+        this.surfaceDetached = true;
+    }
+
+    /**
+     * A surface is back after {@link #detachVideo()}
+     */
+    protected void reattachVideo() {
+        Log.d(TAG, "reattachVideo - state: " + this.currentState);
+
+        this.surfaceDetached = false;
+        // A paused player draws nothing on the new surface until it seeks
+        if (this.currentState == State.PAUSED ||
+                this.currentState == State.PREPARED ||
+                this.currentState == State.PLAYBACKCOMPLETED) {
+            this.lastState = null;
+            this.mediaPlayer.seekTo(this.mediaPlayer.getCurrentPosition());
+        }
+    }
+
+    /**
+     * Requests audio focus on start() and gives it back on pause(), stop() and completion.
+     * Other apps can then pause the video (calls, other players) or lower its volume
+     * (notifications). Disabled by default.
+     */
+    public void setAudioFocusEnabled(boolean enabled) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO)
+            return;
+
+        if (enabled && this.audioFocusHandler == null) {
+            this.audioFocusHandler = new AudioFocusHandler(this);
+            if (this.currentState == State.STARTED)
+                this.audioFocusHandler.request();
+        } else if (!enabled && this.audioFocusHandler != null) {
+            this.audioFocusHandler.abandon();
+            this.audioFocusHandler = null;
+        }
+    }
+
+    /**
+     * @return Audio focus handler, to set its duck volume. Null if audio focus is disabled
+     */
+    public AudioFocusHandler getAudioFocusHandler() {
+        return audioFocusHandler;
+    }
+
+    /**
+     * Scales the volume set by {@link #setVolume(float, float)}. Used for ducking
+     */
+    protected void setVolumeScale(float scale) {
+        this.volumeScale = scale;
+        if (this.mediaPlayer != null)
+            this.mediaPlayer.setVolume(this.leftVolume * scale, this.rightVolume * scale);
+    }
+
+    /**
+     * Releases the MediaPlayer of a prepared, paused or completed video, with its decoder
+     * and buffers, keeping what is needed to resume it: source, position, looping and,
+     * optionally, the last frame shown as a poster (TextureView only).
+     * The state does not change. The next start() prepares it again and seeks back.
+     * <p>
+     * A video still loading (INITIALIZED or PREPARING) drops its prepare and stays INITIALIZED,
+     * keeping its source and pending position. It loads again on start(), not on its own.
+     *
+     * @param keepPoster true to show the last frame while suspended
+     * @return true if it was suspended
+     */
+    public boolean suspend(boolean keepPoster) {
+        State state = this.currentState;
+        boolean loading = state == State.INITIALIZED || state == State.PREPARING;
+        if (this.suspended || this.mediaPlayer == null ||
+                (!loading && state != State.PREPARED && state != State.PAUSED && state != State.PLAYBACKCOMPLETED))
+            return false;
+
+        Log.d(TAG, "suspend - state: " + state);
+
+        if (loading) {
+            // Nothing to capture: the prepare starts over from the pending position
+            int position = this.pendingSeekPosition;
+            boolean looping = this.suspendedLooping;
+            reset();
+
+            this.suspended = true;
+            this.suspendedLooping = looping;
+            this.currentState = State.INITIALIZED;
+            this.playbackClock.onSeek(position);
+            return true;
+        }
+
+        // A completed video starts over
+        int position = state == State.PLAYBACKCOMPLETED ? 0 : this.mediaPlayer.getCurrentPosition();
+        int duration = this.mediaPlayer.getDuration();
+        boolean looping = this.mediaPlayer.isLooping();
+        Bitmap lastFrame = keepPoster ? captureLastFrame() : null;
+
+        reset();
+
+        this.suspended = true;
+        this.suspendedLooping = looping;
+        this.currentState = state;
+        this.playbackClock.onPrepared(duration);
+        this.playbackClock.onSeek(position);
+        if (lastFrame != null)
+            showPoster(lastFrame);
+        return true;
+    }
+
+    public boolean isSuspended() {
+        return suspended;
+    }
+
+    /**
+     * Suspends the video (keeping its last frame) after it stays prepared, paused or
+     * completed for some time without being started or seeked, so its decoder is freed
+     * for the videos being watched. See {@link #suspend(boolean)}.
+     *
+     * @param msec Idle time before suspending. 0 disables it (default)
+     */
+    public void setIdleTimeout(long msec) {
+        this.idleTimeout = msec;
+        updateIdleTimer();
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Restarts the idle countdown, or cancels it if the video is playing
+     */
+    protected void updateIdleTimer() {
+        if (this.idleHandler == null) {
+            if (this.idleTimeout <= 0)
+                return;
+            this.idleHandler = new Handler(Looper.getMainLooper());
+        }
+
+        this.idleHandler.removeCallbacks(this.idleRunnable);
+        if (this.idleTimeout > 0 && !this.suspended &&
+                (this.currentState == State.PREPARED ||
+                        this.currentState == State.PAUSED ||
+                        this.currentState == State.PLAYBACKCOMPLETED))
+            this.idleHandler.postDelayed(this.idleRunnable, this.idleTimeout);
+    }
+
+    /**
+     * Prepares a suspended video again. It starts once prepared
+     */
+    protected void resume() {
+        Log.d(TAG, "resume");
+
+        this.suspended = false;
+        this.pendingSeekPosition = this.playbackClock.getPosition();
+        this.pendingStart = true;
+        this.currentState = State.IDLE;
+        try {
+            reloadVideoSource();
+            setLooping(this.suspendedLooping);
+        } catch (IOException e) {
+            Log.e(TAG, "resume - " + e.getMessage());
+            hidePoster();
+            onError(this.mediaPlayer.getMediaPlayer(), MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    protected Bitmap captureLastFrame() {
+        if (this.textureView == null || this.textureView.getWidth() == 0 || this.textureView.getHeight() == 0)
+            return null;
+
+        // Half size is enough for a paused, off-screen poster
+        return this.textureView.getBitmap(Math.max(1, this.textureView.getWidth() / 2),
+                Math.max(1, this.textureView.getHeight() / 2));
+    }
+
+    /**
+     * Records the playback events of this view (state changes, buffering, info, errors,
+     * seeks, size changes) into a recorder that exports them off the main thread.
+     * Recording does not allocate, so it is cheap enough to leave on in production.
+     *
+     * @param recorder Recorder, usually shared by all views, or null to stop recording
+     */
+    public void setPlaybackEventRecorder(PlaybackEventRecorder recorder) {
+        this.eventRecorder = recorder;
+    }
+
+    public PlaybackEventRecorder getPlaybackEventRecorder() {
+        return eventRecorder;
+    }
+
+    protected void recordEvent(int type, int arg1, int arg2) {
+        if (this.eventRecorder != null)
+            recordEvent(type, arg1, arg2, this.playbackClock.getPosition());
+    }
+
+    protected void recordEvent(int type, int arg1, int arg2, long value) {
+        if (this.eventRecorder != null)
+            this.eventRecorder.record(PlaybackEventRecorder.sourceOf(this), type, arg1, arg2, value);
+    }
+
+    protected void recordState() {
+        recordEvent(PlaybackEventRecorder.TYPE_STATE, this.currentState.ordinal(), 0);
+    }
+
+    /**
+     * @see #captureFrame(int, int, Bitmap.CompressFormat, int, FrameCapture.OnFrameCapturedListener)
+     */
+    public boolean captureFrame(int width, int height, FrameCapture.OnFrameCapturedListener listener) {
+        return captureFrame(width, height, null, 0, listener);
+    }
+
+    /**
+     * Grabs the frame on screen into a pooled bitmap and compresses it in the background.
+     * Needs the TextureView (API 14+).
+     *
+     * @param width    Target width, or 0 to follow height (or the video view, if both are 0)
+     * @param height   Target height, or 0 to follow width
+     * @param format   Compression, or null for the bitmap only
+     * @param quality  Compression quality (0..100)
+     * @param listener Gets the frame on the main thread. Give it back with {@link FrameCapture#recycle(Bitmap)}
+     * @return false if no frame is shown
+     */
+    public boolean captureFrame(int width, int height, Bitmap.CompressFormat format, int quality, FrameCapture.OnFrameCapturedListener listener) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+            return false;
+        return getFrameCapture().capture(this.textureView, width, height, format, quality, listener);
+    }
+
+    /**
+     * Grabs the frame at a position, decoded in the background from the same source.
+     * The player does not seek, so nothing changes on screen. Not available for
+     * MediaDataSource sources, which the player reads.
+     *
+     * @param msec Position of the frame
+     * @return false if the source can not be opened twice
+     * @see #captureFrame(int, int, Bitmap.CompressFormat, int, FrameCapture.OnFrameCapturedListener)
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    public boolean captureFrameAt(int msec, int width, int height, Bitmap.CompressFormat format, int quality, FrameCapture.OnFrameCapturedListener listener) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+            return false;
+
+        FrameCapture.RetrieverSource source = createRetrieverSource();
+        if (source == null)
+            return false;
+
+        getFrameCapture().captureAt(source, msec * 1000L, width, height, format, quality, listener);
+        return true;
+    }
+
+    /**
+     * Opens the current source again, apart from the player
+     *
+     * @return null for MediaDataSource sources, which the player reads
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    protected FrameCapture.RetrieverSource createRetrieverSource() {
+        final Uri uri = this.videoUri;
+        final String path = this.videoPath;
+        final FileDescriptor fd = this.videoFileDescriptor;
+        final long offset = this.videoOffset;
+        final long length = this.videoLength;
+        if (uri == null && path == null && fd == null)
+            return null;
+
+        return new FrameCapture.RetrieverSource() {
+            @Override
+            public void setDataSource(MediaMetadataRetriever retriever) throws Exception {
+                String location = uri != null ? uri.toString() : path;
+                if (location != null && (location.startsWith("http://") || location.startsWith("https://")))
+                    retriever.setDataSource(location, new HashMap<String, String>());
+                else if (uri != null)
+                    retriever.setDataSource(context, uri);
+                else if (path != null)
+                    retriever.setDataSource(path);
+                else
+                    retriever.setDataSource(fd, offset, length);
+            }
+        };
+    }
+
+    /**
+     * @return Frame grabber of this view, using {@link BitmapPool#getDefault()} unless set
+     */
+    public FrameCapture getFrameCapture() {
+        if (this.frameCapture == null)
+            this.frameCapture = new FrameCapture(BitmapPool.getDefault());
+        return frameCapture;
+    }
+
+    public void setFrameCapture(FrameCapture frameCapture) {
+        this.frameCapture = frameCapture;
+    }
+
+    /**
+     * @return The TextureView showing the video (API 14+), or null
+     */
+    public TextureView getTextureView() {
+        return textureView;
+    }
+
+    protected void showPoster(Bitmap bitmap) {
+        if (this.posterView == null) {
+            this.posterView = new ImageView(this.context);
+            this.posterView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+            RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+            addView(this.posterView, layoutParams);
+            if (this.timedTextView != null)
+                bringChildToFront(this.timedTextView);
+        }
+        this.poster = bitmap;
+        this.posterView.setImageBitmap(bitmap);
+        this.posterView.setVisibility(View.VISIBLE);
+    }
+
+    protected void hidePoster() {
+        if (this.posterView != null) {
+            this.posterView.setImageBitmap(null);
+            this.posterView.setVisibility(View.GONE);
+        }
+        if (this.poster != null) {
+            this.poster.recycle();
+            this.poster = null;
+        }
+    }
+
+    /**
+     * @return true if some part of this view is visible on screen
+     */
+    public boolean isVisibleOnScreen() {
+        return isShown() && getWindowVisibility() == View.VISIBLE && getGlobalVisibleRect(new Rect());
+    }
+
+    /**
+     * @return The memory manager this view registers with, or null before API 14
+     */
+    protected PlayerMemoryManager getMemoryManager() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+            return null;
+        return PlayerMemoryManager.getInstance(this.context);
+    }
+
+    /**
+     * Loop mode for short clips (GIF-like). It relies on native looping and
+     * FullscreenVideoLayout stops updating its counter and controls on every iteration.
+     * See {@link #setLoopFrameCache(long, float)} to replay the clip from memory.
+     *
+     * @param shortLoopMode true to loop the clip
+     */
+    public void setShortLoopMode(boolean shortLoopMode) {
+        if (mediaPlayer == null)
+            throw new RuntimeException("Media Player is not initialized");
+
+        this.shortLoopMode = shortLoopMode;
+        this.mediaPlayer.setLooping(shortLoopMode);
+        this.playbackClock.setLooping(shortLoopMode);
+        if (shortLoopMode)
+            loadLoopFrames();
+        else
+            stopLoopFrames();
+    }
+
+    public boolean isShortLoopMode() {
+        return shortLoopMode;
+    }
+
+    /**
+     * Native looping is cleared by reset() and does not carry over to a new engine:
+     * sets it again whenever a source is set or an engine replaces the current one
+     */
+    protected void applyShortLoopMode() {
+        if (this.shortLoopMode && this.mediaPlayer != null) {
+            this.mediaPlayer.setLooping(true);
+            this.playbackClock.setLooping(true);
+        }
+    }
+
+    /**
+     * In short loop mode, decodes the clip once into memory, in the background, and then draws
+     * it from there with the player paused. The player is paused, so its audio stops:
+     * clips with an audio track are therefore never cached, and neither are clips whose frames
+     * do not fit in maxBytes. Those keep being decoded by the player.
+     * Only available with TextureView (API 14+) and sources that can be opened twice
+     * (not MediaDataSource).
+     *
+     * @param maxBytes Memory budget for all frames. 0 disables it (default)
+     * @param scale    Frame size relative to the video size (0..1)
+     */
+    public void setLoopFrameCache(long maxBytes, float scale) {
+        this.loopFrameCacheBytes = maxBytes;
+        this.loopFrameCacheScale = scale;
+        if (maxBytes > 0)
+            loadLoopFrames();
+        else
+            stopLoopFrames();
+    }
+
+    protected boolean isLoopFrameCacheActive() {
+        return this.shortLoopMode && this.loopFrameView != null &&
+                this.loopFrameView.isComplete() && this.loopFrameView.getVisibility() == View.VISIBLE;
+    }
+
+    /**
+     * Starts decoding the clip into memory, once it is prepared
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    protected void loadLoopFrames() {
+        if (!this.shortLoopMode || this.loopFrameCacheBytes <= 0 || this.loopFrameView != null ||
+                this.textureView == null || this.mediaPlayer == null)
+            return;
+
+        if (this.currentState != State.PREPARED &&
+                this.currentState != State.STARTED &&
+                this.currentState != State.PAUSED)
+            return;
+
+        FrameCapture.RetrieverSource source = createRetrieverSource();
+        if (source == null)
+            return;
+
+        this.loopFrameView = new LoopFrameView(this.context, this.loopFrameCacheBytes, this.loopFrameCacheScale, getFrameCapture().getPool());
+        this.loopFrameView.setVisibility(View.GONE);
+        RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+        addView(this.loopFrameView, indexOfChild(this.textureView) + 1, layoutParams);
+
+        this.loopFrameView.load(source, new LoopFrameView.OnLoadListener() {
+            @Override
+            public void onLoaded(LoopFrameView view, boolean complete) {
+                if (complete && view == loopFrameView)
+                    playLoopFrames();
+            }
+        });
+    }
+
+    /**
+     * Frames are decoded: the player hands over to them at its current position
+     */
+    protected void playLoopFrames() {
+        Log.d(TAG, "playLoopFrames - state: " + this.currentState);
+        if (this.mediaPlayer == null ||
+                (this.currentState != State.PREPARED &&
+                        this.currentState != State.STARTED &&
+                        this.currentState != State.PAUSED)) {
+            releaseLoopFrameView();
+            return;
+        }
+
+        this.loopFrameView.seekTo(this.mediaPlayer.getCurrentPosition());
+        this.loopFrameView.setVisibility(View.VISIBLE);
+        if (this.currentState == State.STARTED) {
+            this.mediaPlayer.pause();
+            this.loopFrameView.play();
+        }
+
+        // The paused player is not the time source anymore: the clock follows the frames
+        this.playbackClock.setEngine(null);
+        syncClockToLoopFrames();
+    }
+
+    /**
+     * Anchors the clock on the frame position, after the frames were started, paused or seeked
+     */
+    protected void syncClockToLoopFrames() {
+        this.playbackClock.onSeek(this.loopFrameView.getPosition());
+        if (this.loopFrameView.isPlaying())
+            this.playbackClock.onStart();
+    }
+
+    /**
+     * Drops the frames, and gives playback back to the player
+     */
+    protected void stopLoopFrames() {
+        boolean active = isLoopFrameCacheActive() && this.mediaPlayer != null;
+        boolean resume = active && this.currentState == State.STARTED;
+        releaseLoopFrameView();
+        if (!active)
+            return;
+
+        // The clock follows the player again, from where it was paused
+        this.playbackClock.onSeek(this.mediaPlayer.getCurrentPosition());
+        if (resume) {
+            this.mediaPlayer.start();
+            this.playbackClock.onStart();
+        }
+    }
+
+    protected void releaseLoopFrameView() {
+        if (this.loopFrameView != null) {
+            this.loopFrameView.clear();
+            removeView(this.loopFrameView);
+            this.loopFrameView = null;
+            if (this.mediaPlayer != null)
+                this.playbackClock.setEngine(this.mediaPlayer);
+        }
+    }
+
+    /**
+     * Tells if application should autoplay videos as soon as it is prepared
+     *
+     * @return true if application are going to play videos as soon as it is prepared
+     */
+    public boolean isShouldAutoplay() {
+        return shouldAutoplay;
+    }
+
+    /**
+     * Tells application that it should begin playing as soon as buffering
+     * is ok
+     *
+     * @param shouldAutoplay If true, call start() method when getCurrentState() == PREPARED. Default is false.
+     */
+    public void setShouldAutoplay(boolean shouldAutoplay) {
+        this.shouldAutoplay = shouldAutoplay;
+    }
+
+    /**
+     * Toggles view to fullscreen mode
+     * It saves currentState and calls pause() method.
+     * When fullscreen is finished, it calls the saved currentState before pause()
+     * In practice, it only affects STARTED state.
+     * If currenteState was STARTED when fullscreen() is called, it calls start() method
+     * after fullscreen() has ended.
+     *
+     * @deprecated As of release 1.1.0, replaced by {@link #setFullscreen(boolean)}
+     */
+    @Deprecated
+    public void fullscreen() throws IllegalStateException {
+        setFullscreen(!fullscreen);
+    }
+
+    /**
+     * MediaPlayer method (getCurrentPosition)
+     *
+     * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#getCurrentPosition%28%29">getCurrentPosition</a>
+     */
+    public int getCurrentPosition() {
+        if (suspended)
+            return playbackClock.getPosition();
+        if (isLoopFrameCacheActive())
+            return loopFrameView.getPosition();
+        if (mediaPlayer != null)
+            return mediaPlayer.getCurrentPosition();
+        else throw new RuntimeException("Media Player is not initialized");
+    }
+
+    /**
+     * MediaPlayer method (getDuration)
+     *
+     * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#getDuration%28%29">getDuration</a>
+     */
+    public int getDuration() {
+        // Does not change after prepare
+        int duration = playbackClock.getDuration();
+        if (duration > 0)
+            return duration;
+
+        // Not prepared yet
+        if (!videoIsReady && videoMetadata != null && videoMetadata.getDuration() > 0)
+            return videoMetadata.getDuration();
+
+        if (mediaPlayer != null)
+            return mediaPlayer.getDuration();
+        else throw new RuntimeException("Media Player is not initialized");
     }
 
     /**
@@ -816,6 +2509,10 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
      * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#isPlaying%28%29">isPlaying</a>
      */
     public boolean isPlaying() throws IllegalStateException {
+        if (suspended)
+            return false;
+        if (isLoopFrameCacheActive())
+            return loopFrameView.isPlaying();
         if (mediaPlayer != null)
             return mediaPlayer.isPlaying();
         else throw new RuntimeException("Media Player is not initialized");
@@ -828,9 +2525,22 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
      */
     public void pause() throws IllegalStateException {
         Log.d(TAG, "pause");
-        if (mediaPlayer != null) {
+        if (suspended)
+            return;
+
+        if (isLoopFrameCacheActive()) {
             currentState = State.PAUSED;
+            loopFrameView.pause();
+            syncClockToLoopFrames();
+            recordState();
+        } else if (mediaPlayer != null) {
+            currentState = State.PAUSED;
+            playbackClock.onPause();
             mediaPlayer.pause();
+            if (audioFocusHandler != null)
+                audioFocusHandler.abandon();
+            updateIdleTimer();
+            recordState();
         } else throw new RuntimeException("Media Player is not initialized");
     }
 
@@ -841,6 +2551,13 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public void reset() {
         Log.d(TAG, "reset");
 
+        this.pendingSeekPosition = 0;
+        this.pendingStart = false;
+        if (this.bandwidthSession != null) {
+            this.bandwidthSession.reset();
+            this.bandwidthSession.setContentLength(-1);
+        }
+
         releaseObjects();
         initObjects();
     }
@@ -853,10 +2570,36 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public void start() throws IllegalStateException {
         Log.d(TAG, "start");
 
-        if (mediaPlayer != null) {
+        if (suspended) {
+            resume();
+        } else if (deferredPrepare) {
+            // Played before the list settled: prepares now
+            pendingStart = true;
+            prepareDeferred();
+        } else if (isLoopFrameCacheActive()) {
+            currentState = State.STARTED;
+            loopFrameView.play();
+            syncClockToLoopFrames();
+            recordState();
+        } else if (mediaPlayer != null) {
+            if (audioFocusHandler != null && !audioFocusHandler.request()) {
+                Log.d(TAG, "start - audio focus denied");
+                return;
+            }
+
             currentState = State.STARTED;
             mediaPlayer.setOnCompletionListener(this);
             mediaPlayer.start();
+
+            PlayerMemoryManager memoryManager = getMemoryManager();
+            if (memoryManager != null)
+                memoryManager.onPlayerStarted(this);
+            updateIdleTimer();
+
+            if (this.playbackSpeed != 1.0f)
+                applyPlaybackSpeed();
+            playbackClock.onStart();
+            recordState();
         } else throw new RuntimeException("Media Player is not initialized");
     }
 
@@ -868,9 +2611,19 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public void stop() throws IllegalStateException {
         Log.d(TAG, "stop");
 
-        if (mediaPlayer != null) {
+        if (suspended) {
+            // Already released: keeps the player idle
+            suspended = false;
+            hidePoster();
             currentState = State.STOPPED;
+        } else if (mediaPlayer != null) {
+            releaseLoopFrameView();
+            currentState = State.STOPPED;
+            playbackClock.onPause();
             mediaPlayer.stop();
+            if (audioFocusHandler != null)
+                audioFocusHandler.abandon();
+            recordState();
         } else throw new RuntimeException("Media Player is not initialized");
     }
 
@@ -885,12 +2638,25 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     public void seekTo(int msec) throws IllegalStateException {
         Log.d(TAG, "seekTo = " + msec);
 
+        if (suspended) {
+            playbackClock.onSeek(msec);
+            return;
+        }
+
+        if (isLoopFrameCacheActive()) {
+            loopFrameView.seekTo(msec);
+            syncClockToLoopFrames();
+            return;
+        }
+
         if (mediaPlayer != null) {
             // No live streaming
             if (mediaPlayer.getDuration() > -1 && msec <= mediaPlayer.getDuration()) {
                 lastState = currentState;
                 pause();
+                recordEvent(PlaybackEventRecorder.TYPE_SEEK, 0, 0, msec);
                 mediaPlayer.seekTo(msec);
+                playbackClock.onSeek(msec);
 
                 startLoading();
             }
@@ -941,15 +2707,251 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
     }
 
     public void setLooping(boolean looping) {
-        if (mediaPlayer != null)
+        if (mediaPlayer != null) {
             mediaPlayer.setLooping(looping);
-        else throw new RuntimeException("Media Player is not initialized");
+            playbackClock.setLooping(looping);
+            suspendedLooping = looping;
+        } else throw new RuntimeException("Media Player is not initialized");
     }
 
     public void setVolume(float leftVolume, float rightVolume) {
-        if (mediaPlayer != null)
-            mediaPlayer.setVolume(leftVolume, rightVolume);
-        else throw new RuntimeException("Media Player is not initialized");
+        if (mediaPlayer != null) {
+            this.leftVolume = leftVolume;
+            this.rightVolume = rightVolume;
+            mediaPlayer.setVolume(leftVolume * volumeScale, rightVolume * volumeScale);
+        } else throw new RuntimeException("Media Player is not initialized");
+    }
+
+    /**
+     * Sets the {@link PlayerEngine} used to play videos. Default is {@link MediaPlayerEngine#FACTORY}.
+     * If the current engine has no data source yet, it is replaced right away.
+     * Otherwise the new engine is used after the next release.
+     *
+     * @param factory Creates the engine. Null restores the default one
+     */
+    public void setPlayerEngineFactory(PlayerEngine.Factory factory) {
+        this.playerEngineFactory = factory != null ? factory : MediaPlayerEngine.FACTORY;
+
+        if (this.mediaPlayer != null && this.currentState == State.IDLE) {
+            release();
+            initObjects();
+        }
+    }
+
+    /**
+     * Returns the {@link PlayerEngine} that is playing videos
+     *
+     * @return The current engine or null if it was released
+     */
+    public PlayerEngine getPlayerEngine() {
+        return mediaPlayer;
+    }
+
+    protected PlayerEngine createPlayerEngine() {
+        PlayerEngine engine = this.playerEngineFactory.create(this.context);
+        if (this.callMonitor != null)
+            engine = new MonitoredPlayerEngine(engine, this.callMonitor);
+        return engine;
+    }
+
+    /**
+     * Keeps the header of progressive MP4s played by setVideoURI() (HTTP/HTTPS, API 23+).
+     * The first play of a video fetches it in the background; later prepares get the
+     * header and file size from the cache instead of extra range requests.
+     *
+     * @param cache Cache to use, usually shared by all views, or null to not use one
+     */
+    public void setFastStartCache(Mp4HeaderCache cache) {
+        this.fastStartCache = cache;
+    }
+
+    public Mp4HeaderCache getFastStartCache() {
+        return fastStartCache;
+    }
+
+    /**
+     * Sets a data source serving the cached header of uri, if there is one
+     *
+     * @return false if the player should read uri itself
+     */
+    protected boolean setFastStartDataSource(Uri uri) throws IOException {
+        if (this.fastStartCache == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return false;
+
+        String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme))
+            return false;
+
+        // Memory only: the disk and the network are left to prefetch()
+        Mp4Index index = this.fastStartCache.getCached(uri);
+        if (index == null) {
+            // Ready for the next time
+            this.fastStartCache.prefetch(uri, null);
+            return false;
+        }
+
+        if (this.videoMetadata == null) {
+            this.suppliedMetadata = new VideoMetadata(index.getWidth(), index.getHeight(), (int) index.getDuration());
+            loadVideoMetadata(uri.toString());
+        }
+
+        Log.d(TAG, "setFastStartDataSource - cached header for " + uri);
+        StreamingDataSource dataSource = this.fastStartCache.createDataSource(uri);
+        this.fastStartDataSource = dataSource;
+        this.mediaPlayer.setDataSource(dataSource);
+        return true;
+    }
+
+    protected void releaseFastStartDataSource() {
+        if (this.fastStartDataSource != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                ((StreamingDataSource) this.fastStartDataSource).release();
+            } catch (IOException e) {
+                Log.e(TAG, "releaseFastStartDataSource - " + e.getMessage());
+            }
+        }
+        this.fastStartDataSource = null;
+    }
+
+    /**
+     * Times every call this view makes to its player engine and flags slow ones made on the
+     * main thread. The same monitor can be shared by many views. Applies to the current engine
+     * right away.
+     *
+     * @param monitor Monitor to record calls in, or null to stop monitoring
+     */
+    public void setPlayerCallMonitor(PlayerCallMonitor monitor) {
+        this.callMonitor = monitor;
+
+        if (this.mediaPlayer instanceof MonitoredPlayerEngine)
+            this.mediaPlayer = ((MonitoredPlayerEngine) this.mediaPlayer).getEngine();
+        if (this.mediaPlayer != null && monitor != null)
+            this.mediaPlayer = new MonitoredPlayerEngine(this.mediaPlayer, monitor);
+        this.playbackClock.setEngine(this.mediaPlayer);
+    }
+
+    public PlayerCallMonitor getPlayerCallMonitor() {
+        return callMonitor;
+    }
+
+    /**
+     * Changes the playback rate. Only available on engines that support it (API 23+ for MediaPlayer).
+     * The speed is applied right away if it is playing, otherwise on the next start().
+     *
+     * @param speed Playback rate. 1.0f is the normal speed
+     * @return false if the device does not support changing speed
+     */
+    public boolean setPlaybackSpeed(float speed) {
+        if (mediaPlayer == null)
+            throw new RuntimeException("Media Player is not initialized");
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return false;
+
+        if (this.playbackSpeed == speed)
+            return true;
+
+        this.playbackSpeed = speed;
+        // Setting a speed on a paused MediaPlayer starts it, so wait for start()
+        if (currentState == State.STARTED)
+            applyPlaybackSpeed();
+        return true;
+    }
+
+    public float getPlaybackSpeed() {
+        return playbackSpeed;
+    }
+
+    protected void applyPlaybackSpeed() {
+        if (mediaPlayer.setPlaybackSpeed(this.playbackSpeed))
+            playbackClock.setRate(this.playbackSpeed);
+        else
+            Log.d(TAG, "applyPlaybackSpeed - not supported by " + mediaPlayer.getClass().getSimpleName());
+    }
+
+    /**
+     * Position clock that does not call the player on every read.
+     * Use it to follow playback at frame rate (overlays, subtitles, analytics).
+     *
+     * @return The clock of this view. It is kept across videos
+     */
+    public PlaybackClock getPlaybackClock() {
+        return playbackClock;
+    }
+
+    /**
+     * Returns the {@link PlaybackGroup} this view belongs to
+     *
+     * @return The group or null if it is not synchronized with other views
+     */
+    public PlaybackGroup getPlaybackGroup() {
+        return playbackGroup;
+    }
+
+    /**
+     * Loads a video unless it is already the current one, so adapters can call it on every
+     * onBindViewHolder() without throwing away a prepared player.
+     *
+     * @see #bind(Uri, BindOptions)
+     */
+    public boolean bind(Uri uri) throws IOException, IllegalStateException, SecurityException, IllegalArgumentException, RuntimeException {
+        return bind(uri, new BindOptions());
+    }
+
+    /**
+     * Loads a video unless it is already the current one.
+     * Only when the source changes (or options ask for it) the player is reset.
+     *
+     * @return true if the source was loaded, false if the bound one was kept
+     */
+    public boolean bind(Uri uri, BindOptions options) throws IOException, IllegalStateException, SecurityException, IllegalArgumentException, RuntimeException {
+        Log.d(TAG, "bind - " + uri);
+
+        int position = options.getPosition();
+        if (!options.isForceReload() && isBoundTo(uri)) {
+            // Prepares in flight or deferred, and detached views, pick these up when they are ready.
+            // An INITIALIZED player can not seek yet. Suspended ones seek and start on their own
+            boolean pending = !this.suspended && (this.mediaPlayer == null || isPrepareInFlight() ||
+                    this.deferredPrepare || this.currentState == State.INITIALIZED);
+            if (position >= 0) {
+                if (pending)
+                    this.pendingSeekPosition = position;
+                else if (position != getCurrentPosition())
+                    seekTo(position);
+            }
+            if (options.isAutoStart()) {
+                if (pending)
+                    this.pendingStart = true;
+                else if (!isPlaying())
+                    start();
+            }
+            return false;
+        }
+
+        reset();
+        this.pendingSeekPosition = Math.max(0, position);
+        this.pendingStart = options.isAutoStart();
+        if (options.getMetadata() != null)
+            setVideoMetadata(options.getMetadata());
+        setVideoURI(uri);
+        return true;
+    }
+
+    /**
+     * @return true if uri is the loaded source, and the player was not stopped or failed
+     */
+    public boolean isBoundTo(Uri uri) {
+        if (uri == null)
+            return false;
+
+        if (this.currentState == State.IDLE ||
+                this.currentState == State.ERROR ||
+                this.currentState == State.STOPPED)
+            return false;
+
+        if (this.videoUri != null)
+            return this.videoUri.equals(uri);
+        return this.videoPath != null && this.videoPath.equals(uri.toString());
     }
 
     /**
@@ -963,6 +2965,10 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
             this.videoPath = path;
             this.videoUri = null;
+            this.videoFileDescriptor = null;
+            this.videoAssetFileDescriptor = null;
+            this.videoDataSource = null;
+            loadVideoMetadata(path);
             this.mediaPlayer.setDataSource(path);
 
             this.currentState = State.INITIALIZED;
@@ -981,7 +2987,94 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
 
             this.videoUri = uri;
             this.videoPath = null;
-            this.mediaPlayer.setDataSource(context, uri);
+            this.videoFileDescriptor = null;
+            this.videoAssetFileDescriptor = null;
+            this.videoDataSource = null;
+            loadVideoMetadata(uri.toString());
+            if (!setFastStartDataSource(uri))
+                this.mediaPlayer.setDataSource(context, uri);
+
+            this.currentState = State.INITIALIZED;
+            prepare();
+        } else throw new RuntimeException("Media Player is not initialized");
+    }
+
+    /**
+     * MediaPlayer method (setDataSource(FileDescriptor, long, long))
+     * Plays a range of an already opened file. The descriptor is not closed and
+     * is reused when the view is attached to a window again, so keep it open.
+     *
+     * @param fd     An opened file descriptor
+     * @param offset Offset of the video inside the file
+     * @param length Length of the video in bytes
+     */
+    public void setVideoFileDescriptor(FileDescriptor fd, long offset, long length) throws IOException, IllegalStateException, IllegalArgumentException, RuntimeException {
+        Log.d(TAG, "setVideoFileDescriptor");
+        if (mediaPlayer != null) {
+            if (currentState != State.IDLE)
+                throw new IllegalStateException("FullscreenVideoView Invalid State: " + currentState);
+
+            this.videoFileDescriptor = fd;
+            this.videoOffset = offset;
+            this.videoLength = length;
+            this.videoAssetFileDescriptor = null;
+            this.videoDataSource = null;
+            this.videoUri = null;
+            this.videoPath = null;
+            // No cache key: only metadata supplied by the app applies
+            loadVideoMetadata(getVideoMetadataKey());
+            this.mediaPlayer.setDataSource(fd, offset, length);
+
+            this.currentState = State.INITIALIZED;
+            prepare();
+        } else throw new RuntimeException("Media Player is not initialized");
+    }
+
+    /**
+     * Plays an asset or raw resource (it must be stored uncompressed)
+     *
+     * @param afd Descriptor from AssetManager.openFd() or Resources.openRawResourceFd(). Keep it open while playing
+     */
+    public void setVideoAssetFileDescriptor(AssetFileDescriptor afd) throws IOException, IllegalStateException, IllegalArgumentException, RuntimeException {
+        setVideoFileDescriptor(afd.getFileDescriptor(), afd.getStartOffset(), afd.getLength());
+        this.videoAssetFileDescriptor = afd;
+    }
+
+    /**
+     * Plays a clip from a {@link PackFile}, sharing its file descriptor
+     *
+     * @param pack An opened pack. Keep it open while playing
+     * @param name Name of the clip in the pack index
+     */
+    public void setVideoPackEntry(PackFile pack, String name) throws IOException, IllegalStateException, IllegalArgumentException, RuntimeException {
+        PackFile.Entry entry = pack.getEntry(name);
+        if (entry == null)
+            throw new IllegalArgumentException("Entry not found in pack: " + name);
+
+        setVideoFileDescriptor(pack.getFileDescriptor(), pack.getBaseOffset() + entry.getOffset(), entry.getLength());
+    }
+
+    /**
+     * MediaPlayer method (setDataSource(MediaDataSource)). Available on API 23+.
+     * Use a {@link StreamingDataSource} to read ahead from your own storage,
+     * decrypting on the fly, without writing temporary files.
+     *
+     * @param dataSource The source. It is reused when the view is attached to a window again
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public void setVideoDataSource(MediaDataSource dataSource) throws IllegalStateException, IllegalArgumentException, RuntimeException {
+        Log.d(TAG, "setVideoDataSource");
+        if (mediaPlayer != null) {
+            if (currentState != State.IDLE)
+                throw new IllegalStateException("FullscreenVideoView Invalid State: " + currentState);
+
+            this.videoDataSource = dataSource;
+            this.videoFileDescriptor = null;
+            this.videoAssetFileDescriptor = null;
+            this.videoUri = null;
+            this.videoPath = null;
+            loadVideoMetadata(getVideoMetadataKey());
+            this.mediaPlayer.setDataSource(dataSource);
 
             this.currentState = State.INITIALIZED;
             prepare();
@@ -1011,4 +3104,61 @@ public class FullscreenVideoView extends RelativeLayout implements SurfaceHolder
                 this.onProgressView.setVisibility(progressViewVisibility);
         }
     }
+
+    /**
+     * Playback state kept across configuration changes and process death.
+     * It only stores what is needed to reload the source and resume from the same position.
+     */
+    static class SavedState extends BaseSavedState {
+        String videoUri;
+        String videoPath;
+        int position;
+        boolean playing;
+        boolean shouldAutoplay;
+        boolean looping;
+        boolean fullscreen;
+        float leftVolume;
+        float rightVolume;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            this.videoUri = in.readString();
+            this.videoPath = in.readString();
+            this.position = in.readInt();
+            this.playing = in.readInt() != 0;
+            this.shouldAutoplay = in.readInt() != 0;
+            this.looping = in.readInt() != 0;
+            this.fullscreen = in.readInt() != 0;
+            this.leftVolume = in.readFloat();
+            this.rightVolume = in.readFloat();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeString(this.videoUri);
+            out.writeString(this.videoPath);
+            out.writeInt(this.position);
+            out.writeInt(this.playing ? 1 : 0);
+            out.writeInt(this.shouldAutoplay ? 1 : 0);
+            out.writeInt(this.looping ? 1 : 0);
+            out.writeInt(this.fullscreen ? 1 : 0);
+            out.writeFloat(this.leftVolume);
+            out.writeFloat(this.rightVolume);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.io.IOException;
+
+/**
+ * {@link ChunkSource} that serves the MP4 header from an {@link Mp4Index}
+ * and everything else from another source. The file size is known up front too,
+ * so preparing does not wait for the header round trips.
+ */
+public class HeaderCachedChunkSource implements ChunkSource {
+
+    protected final ChunkSource source;
+    protected final Mp4Index index;
+
+    public HeaderCachedChunkSource(ChunkSource source, Mp4Index index) {
+        this.source = source;
+        this.index = index;
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return index.getFileSize() >= 0 ? index.getFileSize() : source.getSize();
+    }
+
+    @Override
+    public int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (!index.containsOffset(position))
+            return source.read(position, buffer, offset, size);
+
+        int start = (int) (position - index.getHeaderOffset());
+        int length = Math.min(size, index.getHeaderLength() - start);
+        System.arraycopy(index.getHeader(), start, buffer, offset, length);
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
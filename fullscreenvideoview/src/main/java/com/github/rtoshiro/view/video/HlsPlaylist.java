@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Minimal HLS master playlist parser.
+ * It only reads the variant streams (#EXT-X-STREAM-INF), which is what is needed to pick a rendition.
+ */
+public class HlsPlaylist {
+
+    private static final String TAG_STREAM_INF = "#EXT-X-STREAM-INF:";
+
+    private HlsPlaylist() {
+    }
+
+    /**
+     * Tells if the Uri looks like an HLS playlist
+     */
+    public static boolean isHls(Uri uri) {
+        String path = uri != null ? uri.getPath() : null;
+        return path != null && path.toLowerCase().endsWith(".m3u8");
+    }
+
+    /**
+     * Reads the variants of a master playlist, sorted by bandwidth (lowest first)
+     *
+     * @param in      Playlist content. It is not closed
+     * @param baseUri Uri of the playlist, used to resolve relative variant Uris
+     * @return The variants or an empty list if it is a media playlist
+     */
+    public static List<Rendition> parseMaster(InputStream in, Uri baseUri) throws IOException {
+        List<Rendition> variants = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+        String line;
+        String streamInf = null;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0)
+                continue;
+
+            if (line.startsWith(TAG_STREAM_INF)) {
+                streamInf = line.substring(TAG_STREAM_INF.length());
+            } else if (!line.startsWith("#") && streamInf != null) {
+                int bandwidth = parseInt(attribute(streamInf, "BANDWIDTH"));
+                int width = 0, height = 0;
+                String resolution = attribute(streamInf, "RESOLUTION");
+                if (resolution != null) {
+                    int x = resolution.indexOf('x');
+                    if (x > 0) {
+                        width = parseInt(resolution.substring(0, x));
+                        height = parseInt(resolution.substring(x + 1));
+                    }
+                }
+                variants.add(new Rendition(resolve(baseUri, line), width, height, bandwidth));
+                streamInf = null;
+            }
+        }
+
+        Collections.sort(variants, new Comparator<Rendition>() {
+            @Override
+            public int compare(Rendition lhs, Rendition rhs) {
+                return lhs.getBandwidth() < rhs.getBandwidth() ? -1 : (lhs.getBandwidth() == rhs.getBandwidth() ? 0 : 1);
+            }
+        });
+        return variants;
+    }
+
+    /**
+     * Reads an attribute from an attribute list (NAME=VALUE,NAME="VALUE",...)
+     */
+    protected static String attribute(String attributes, String name) {
+        int i = 0;
+        int length = attributes.length();
+        while (i < length) {
+            int eq = attributes.indexOf('=', i);
+            if (eq < 0)
+                return null;
+
+            String key = attributes.substring(i, eq).trim();
+            int end;
+            String value;
+            if (eq + 1 < length && attributes.charAt(eq + 1) == '"') {
+                int close = attributes.indexOf('"', eq + 2);
+                if (close < 0)
+                    close = length;
+                value = attributes.substring(eq + 2, close);
+                end = attributes.indexOf(',', close);
+            } else {
+                end = attributes.indexOf(',', eq);
+                value = attributes.substring(eq + 1, end < 0 ? length : end).trim();
+            }
+
+            if (key.equals(name))
+                return value;
+
+            if (end < 0)
+                return null;
+            i = end + 1;
+        }
+        return null;
+    }
+
+    protected static Uri resolve(Uri baseUri, String reference) {
+        Uri uri = Uri.parse(reference);
+        if (uri.isAbsolute() || baseUri == null)
+            return uri;
+
+        if (reference.startsWith("/"))
+            return Uri.parse(baseUri.getScheme() + "://" + baseUri.getEncodedAuthority() + reference);
+
+        String base = baseUri.toString();
+        int query = base.indexOf('?');
+        if (query >= 0)
+            base = base.substring(0, query);
+        return Uri.parse(base.substring(0, base.lastIndexOf('/') + 1) + reference);
+    }
+
+    private static int parseInt(String value) {
+        if (value == null)
+            return 0;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * {@link ChunkSource} that reads an HTTP(S) resource with range requests.
+ * <p>
+ * Sequential reads share one connection; a read anywhere else opens a new one
+ * starting at that position. The server must support byte ranges.
+ */
+public class HttpChunkSource implements ChunkSource {
+
+    protected static final int CONNECT_TIMEOUT = 10000;
+    protected static final int READ_TIMEOUT = 15000;
+
+    protected final URL url;
+    protected long size = -1;
+    protected boolean sizeKnown;
+
+    protected HttpURLConnection connection;
+    protected InputStream in;
+    protected long streamPosition = -1;
+
+    public HttpChunkSource(Uri uri) throws IOException {
+        this.url = new URL(uri.toString());
+    }
+
+    @Override
+    public synchronized long getSize() throws IOException {
+        if (!sizeKnown)
+            open(0);
+        return size;
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (sizeKnown && this.size >= 0 && position >= this.size)
+            return -1;
+
+        if (in == null || position != streamPosition)
+            open(position);
+
+        int read = in.read(buffer, offset, size);
+        if (read > 0)
+            streamPosition += read;
+        return read;
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    protected void open(long position) throws IOException {
+        disconnect();
+
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Range", "bytes=" + position + "-");
+
+        int code = connection.getResponseCode();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            // Content-Range: bytes first-last/total
+            String range = connection.getHeaderField("Content-Range");
+            int slash = range != null ? range.lastIndexOf('/') : -1;
+            if (slash >= 0 && !range.endsWith("*"))
+                size = Long.parseLong(range.substring(slash + 1).trim());
+        } else if (code == HttpURLConnection.HTTP_OK && position == 0) {
+            size = connection.getContentLength();
+        } else if (code == 416) {
+            // Requested Range Not Satisfiable: past the end
+            size = Math.min(sizeKnown ? size : Long.MAX_VALUE, position);
+        } else {
+            disconnect();
+            throw new IOException("HTTP " + code + " reading " + url + " at " + position);
+        }
+        sizeKnown = true;
+
+        if (code == 416) {
+            disconnect();
+            in = EMPTY;
+        } else {
+            in = connection.getInputStream();
+        }
+        streamPosition = position;
+    }
+
+    protected void disconnect() {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+            in = null;
+        }
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+    }
+
+    private static final InputStream EMPTY = new InputStream() {
+        @Override
+        public int read() {
+            return -1;
+        }
+    };
+}
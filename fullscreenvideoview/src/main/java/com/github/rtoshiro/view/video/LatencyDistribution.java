@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.util.Random;
+
+/**
+ * Latency (msec) of a simulated operation. Sampled from the engine's seeded Random,
+ * so runs are reproducible.
+ *
+ * @see SimulatedPlayerEngine
+ */
+public abstract class LatencyDistribution {
+
+    /**
+     * @return A latency in msec, never negative
+     */
+    public abstract long sample(Random random);
+
+    public static LatencyDistribution fixed(final long msec) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return msec;
+            }
+        };
+    }
+
+    public static LatencyDistribution uniform(final long min, final long max) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return min + (long) (random.nextDouble() * (max - min));
+            }
+        };
+    }
+
+    public static LatencyDistribution normal(final double mean, final double stddev) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return Math.max(0, Math.round(mean + random.nextGaussian() * stddev));
+            }
+        };
+    }
+
+    /**
+     * Long tailed, like network round trips
+     *
+     * @param median Median latency
+     * @param sigma  Spread of the underlying normal. 0.5 gives a p99 about 3x the median
+     */
+    public static LatencyDistribution logNormal(final double median, final double sigma) {
+        return new LatencyDistribution() {
+            @Override
+            public long sample(Random random) {
+                return Math.round(median * Math.exp(random.nextGaussian() * sigma));
+            }
+        };
+    }
+}
@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Decoded frames of a short looping clip, and the view that plays them.
+ * <p>
+ * {@link #load(FrameCapture.RetrieverSource, OnLoadListener)} decodes the clip once, on a
+ * background thread, into bitmaps taken from a {@link BitmapPool}. Further iterations are
+ * drawn from memory without any decoder work. Nothing is decoded when the frames do not fit
+ * in the byte budget, or when the clip has an audio track: the player is paused while frames
+ * replay, so its sound would stop.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class LoopFrameView extends View {
+
+    private final static String TAG = "LoopFrameView";
+
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    protected static final long FRAME_INTERVAL = 16;
+    protected static final int DECODE_INTERVAL = 40; // 25 frames per second
+
+    /**
+     * Called on the main thread, unless the frames were cleared meanwhile
+     */
+    public interface OnLoadListener {
+        /**
+         * @param complete false if the clip is not cached (budget, audio track or decoding error)
+         */
+        void onLoaded(LoopFrameView view, boolean complete);
+    }
+
+    /**
+     * Frames decoded in the background, handed to the main thread at once
+     */
+    protected static class Frames {
+        final Bitmap[] bitmaps;
+        final long[] timestamps;
+        int count;
+        int duration;
+        long bytes;
+        boolean overflow;
+
+        Frames(int capacity) {
+            this.bitmaps = new Bitmap[capacity];
+            this.timestamps = new long[capacity];
+        }
+    }
+
+    protected final long maxBytes;
+    protected final float scale;
+    protected final BitmapPool pool;
+    protected Bitmap[] frames = new Bitmap[0];
+    protected long[] timestamps = new long[0];
+    protected int frameCount;
+    protected long bytes;
+    protected int duration;
+    protected boolean loading, complete, overflow, failed;
+    protected volatile int generation; // Increased by clear(): a load in progress is dropped
+
+    protected boolean playing;
+    protected long loopStart; // uptime when position 0 was shown
+    protected int pausedPosition;
+    protected int currentFrame = -1;
+
+    protected final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    protected final Rect destination = new Rect();
+
+    protected Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!playing)
+                return;
+
+            showFrame(getPosition());
+            postDelayed(this, FRAME_INTERVAL);
+        }
+    };
+
+    /**
+     * @param maxBytes Memory budget for all frames
+     * @param scale    Frame size relative to the video size (0..1)
+     * @param pool     Frames are taken from it and given back by {@link #clear()}
+     */
+    public LoopFrameView(Context context, long maxBytes, float scale, BitmapPool pool) {
+        super(context);
+        this.maxBytes = maxBytes;
+        this.scale = scale;
+        this.pool = pool;
+    }
+
+    /**
+     * Decodes the whole clip in the background. Main thread only.
+     *
+     * @param source   Opens the clip; it is read apart from the player
+     * @param listener Told when the frames are ready or the clip is not cached
+     */
+    public void load(final FrameCapture.RetrieverSource source, final OnLoadListener listener) {
+        if (loading || complete || failed)
+            return;
+
+        loading = true;
+        final int token = generation;
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Frames result = decode(source, token);
+                MAIN_HANDLER.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDecoded(result, token, listener);
+                    }
+                });
+            }
+        });
+    }
+
+    protected void onDecoded(Frames result, int token, OnLoadListener listener) {
+        if (token != generation) {
+            recycle(result);
+            return;
+        }
+
+        loading = false;
+        if (result != null && result.count > 0 && !result.overflow) {
+            frames = result.bitmaps;
+            timestamps = result.timestamps;
+            frameCount = result.count;
+            bytes = result.bytes;
+            duration = result.duration;
+            complete = true;
+            Log.d(TAG, "load complete - frames: " + frameCount + " - bytes: " + bytes);
+        } else {
+            overflow = result != null && result.overflow;
+            failed = true;
+            recycle(result);
+        }
+
+        if (listener != null)
+            listener.onLoaded(this, complete);
+    }
+
+    /**
+     * Background thread
+     *
+     * @return The frames, or null if the clip is not cached
+     */
+    protected Frames decode(FrameCapture.RetrieverSource source, int token) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        Frames result = null;
+        try {
+            source.setDataSource(retriever);
+
+            if ("yes".equals(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_AUDIO))) {
+                Log.d(TAG, "decode - clip has audio, not cached");
+                return null;
+            }
+
+            int clipDuration = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            int videoWidth = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int videoHeight = parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            if (clipDuration <= 0 || videoWidth <= 0 || videoHeight <= 0)
+                return null;
+
+            int width = Math.max(1, (int) (videoWidth * scale));
+            int height = Math.max(1, (int) (videoHeight * scale));
+            int count = (clipDuration + DECODE_INTERVAL - 1) / DECODE_INTERVAL;
+            long frameBytes = (long) width * height * 4;
+            result = new Frames(count);
+            result.duration = clipDuration;
+            if (frameBytes * count > maxBytes) {
+                Log.d(TAG, "decode - clip does not fit in " + maxBytes + " bytes");
+                result.overflow = true;
+                return result;
+            }
+
+            Canvas canvas = new Canvas();
+            Paint filter = new Paint(Paint.FILTER_BITMAP_FLAG);
+            Rect target = new Rect(0, 0, width, height);
+            for (int i = 0; i < count && token == generation; i++) {
+                long position = (long) i * DECODE_INTERVAL;
+                Bitmap decoded = retriever.getFrameAtTime(position * 1000L, MediaMetadataRetriever.OPTION_CLOSEST);
+                if (decoded == null)
+                    continue;
+
+                Bitmap frame = pool.get(width, height);
+                canvas.setBitmap(frame);
+                canvas.drawBitmap(decoded, null, target, filter);
+                decoded.recycle();
+
+                result.bitmaps[result.count] = frame;
+                result.timestamps[result.count] = position;
+                result.count++;
+                result.bytes += frameBytes;
+            }
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "decode - " + e.getMessage());
+            recycle(result);
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return true if the frames did not fit in the budget
+     */
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    /**
+     * @return true if the clip is not cached, whatever the reason
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public void play() {
+        if (!complete || playing)
+            return;
+
+        playing = true;
+        loopStart = SystemClock.uptimeMillis() - pausedPosition;
+        removeCallbacks(frameRunnable);
+        post(frameRunnable);
+    }
+
+    public void pause() {
+        if (!playing)
+            return;
+
+        pausedPosition = getPosition();
+        playing = false;
+        removeCallbacks(frameRunnable);
+    }
+
+    public void seekTo(int msec) {
+        pausedPosition = duration > 0 ? msec % duration : 0;
+        loopStart = SystemClock.uptimeMillis() - pausedPosition;
+        showFrame(pausedPosition);
+    }
+
+    /**
+     * @return Position in msec inside the loop
+     */
+    public int getPosition() {
+        if (!playing || duration <= 0)
+            return pausedPosition;
+        return (int) ((SystemClock.uptimeMillis() - loopStart) % duration);
+    }
+
+    /**
+     * Gives all frames back to the pool, and drops a load in progress
+     */
+    public void clear() {
+        generation++;
+        pause();
+        for (int i = 0; i < frameCount; i++)
+            pool.put(frames[i]);
+        frames = new Bitmap[0];
+        timestamps = new long[0];
+        frameCount = 0;
+        bytes = 0;
+        currentFrame = -1;
+        loading = complete = overflow = failed = false;
+        pausedPosition = 0;
+        invalidate();
+    }
+
+    protected void recycle(Frames result) {
+        if (result == null)
+            return;
+
+        for (int i = 0; i < result.count; i++)
+            pool.put(result.bitmaps[i]);
+        result.count = 0;
+    }
+
+    protected void showFrame(int position) {
+        // Last frame whose timestamp is not after position
+        int low = 0, high = frameCount - 1, index = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (timestamps[middle] <= position) {
+                index = middle;
+                low = middle + 1;
+            } else
+                high = middle - 1;
+        }
+
+        if (index != currentFrame) {
+            currentFrame = index;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        pause();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (currentFrame < 0 || currentFrame >= frameCount)
+            return;
+
+        Bitmap frame = frames[currentFrame];
+        // Aspect fit, centered
+        float ratio = Math.min((float) getWidth() / frame.getWidth(), (float) getHeight() / frame.getHeight());
+        int width = (int) (frame.getWidth() * ratio);
+        int height = (int) (frame.getHeight() * ratio);
+        int left = (getWidth() - width) / 2;
+        int top = (getHeight() - height) / 2;
+        destination.set(left, top, left + width, top + height);
+        canvas.drawBitmap(frame, null, destination, paint);
+    }
+
+    protected static int parseInt(String value) {
+        if (value == null)
+            return 0;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,1343 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link PlayerEngine} that decodes with {@link MediaExtractor} and asynchronous {@link MediaCodec}
+ * straight onto the view surface, with audio written to an {@link AudioTrack}.
+ * <p>
+ * Compared to MediaPlayer:
+ * <ul>
+ * <li>setDataSource() only stores the source. Extractors are opened on the decoding thread</li>
+ * <li>The first frame is rendered as soon as it is decoded, before audio is ready,
+ * and onPrepared() follows it right away</li>
+ * <li>The cached duration required before the first frame, and after a stall,
+ * is configurable ({@link #setMinBuffer(long)})</li>
+ * </ul>
+ * It reports the same callbacks as MediaPlayer (with a null MediaPlayer), including
+ * MEDIA_INFO_VIDEO_RENDERING_START and MEDIA_INFO_BUFFERING_START/END.
+ * Video is timed against the audio clock when there is audio, the system clock otherwise.
+ * Late frames are dropped. Available on API 21+.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MediaCodecEngine implements PlayerEngine {
+
+    private final static String TAG = "MediaCodecEngine";
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PlayerEngine create(Context context) {
+            return new MediaCodecEngine(context);
+        }
+    };
+
+    public static final long DEFAULT_MIN_BUFFER = 500;
+
+    protected static final long LATE_THRESHOLD_US = 40000; // Later frames are dropped
+    protected static final long EARLY_WINDOW_US = 20000; // Frames are handed to the surface this early
+    protected static final long BUFFER_CHECK_INTERVAL = 100;
+    protected static final long BUFFERING_UPDATE_INTERVAL = 1000;
+    protected static final long AUDIO_RETRY_INTERVAL = 10;
+
+    protected final Context context;
+    protected final Handler mainHandler = new Handler(Looper.getMainLooper());
+    protected final HandlerThread videoThread;
+    protected final HandlerThread audioThread;
+    protected final Handler videoHandler;
+    protected final Handler audioHandler;
+
+    // Source. Set on the caller thread, read on the video thread
+    protected volatile Uri uri;
+    protected volatile String path;
+    protected volatile FileDescriptor fileDescriptor;
+    protected volatile long fileOffset, fileLength;
+    protected volatile Object dataSource; // MediaDataSource
+
+    // Playback state. Set on the caller thread
+    protected volatile int generation; // Increased by reset(): drops stale work
+    protected volatile boolean prepared;
+    protected volatile boolean playing;
+    protected volatile boolean completed;
+    protected volatile boolean looping;
+    protected volatile boolean buffering;
+    protected volatile Surface surface;
+    protected volatile long durationUs = -1;
+    protected volatile int videoWidth, videoHeight;
+    protected volatile long minBufferUs = DEFAULT_MIN_BUFFER * 1000L;
+    protected volatile int audioStreamType = AudioManager.STREAM_MUSIC;
+    protected volatile float leftVolume = 1.0f, rightVolume = 1.0f;
+
+    // Clock. Guarded by clockLock
+    protected final Object clockLock = new Object();
+    protected long anchorPositionUs;
+    protected long anchorTimeNs;
+    protected boolean clockRunning;
+    protected float rate = 1.0f;
+    protected final AudioTimestamp audioTimestamp = new AudioTimestamp();
+
+    // Video. Video thread only
+    protected MediaExtractor videoExtractor;
+    protected MediaFormat videoFormat;
+    protected MediaCodec videoCodec;
+    protected boolean videoInputDone, videoOutputDone;
+    protected boolean firstFrameRendered;
+    protected boolean preparePosted;
+    protected boolean notifySeek; // onSeekComplete() after the first frame
+    protected long videoSeekTargetUs = -1;
+    protected long lastBufferingUpdate;
+    protected int[] frameIndexes = new int[32];
+    protected long[] framePts = new long[32];
+    protected int frameHead, frameCount;
+    protected int droppedFrames;
+
+    // Audio. Audio thread only, except audioTrack and audioBasePtsUs read by the clock
+    protected MediaExtractor audioExtractor;
+    protected MediaCodec audioCodec;
+    protected volatile AudioTrack audioTrack;
+    protected volatile long audioBasePtsUs = -1; // Pts of the first sample written since the last flush
+    protected int sampleRate;
+    protected int channelCount;
+    protected boolean audioInputDone;
+    protected volatile boolean audioOutputDone;
+    protected long audioSeekTargetUs = -1;
+    protected int[] audioIndexes = new int[16];
+    protected ByteBuffer[] audioBuffers = new ByteBuffer[16];
+    protected long[] audioPts = new long[16];
+    protected int audioHead, audioCount;
+
+    protected OnBufferingUpdateListener bufferingUpdateListener;
+    protected OnCompletionListener completionListener;
+    protected OnErrorListener errorListener;
+    protected OnInfoListener infoListener;
+    protected OnPreparedListener preparedListener;
+    protected OnSeekCompleteListener seekCompleteListener;
+    protected OnVideoSizeChangedListener videoSizeChangedListener;
+
+    protected Runnable drainFramesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drainFrames();
+        }
+    };
+
+    protected Runnable writeAudioRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writeAudio();
+        }
+    };
+
+    protected Runnable checkBufferRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkBuffer();
+        }
+    };
+
+    public MediaCodecEngine(Context context) {
+        this.context = context.getApplicationContext();
+
+        this.videoThread = new HandlerThread(TAG + "-video");
+        this.videoThread.start();
+        this.videoHandler = new Handler(this.videoThread.getLooper());
+
+        this.audioThread = new HandlerThread(TAG + "-audio");
+        this.audioThread.start();
+        this.audioHandler = new Handler(this.audioThread.getLooper());
+    }
+
+    /**
+     * Cached duration required before the first frame and after a stall. Only applies
+     * to network sources, whose cached duration is known.
+     *
+     * @param msec Minimum buffer in msec
+     */
+    public void setMinBuffer(long msec) {
+        this.minBufferUs = msec * 1000L;
+    }
+
+    public long getMinBuffer() {
+        return minBufferUs / 1000L;
+    }
+
+    /**
+     * @return Video frames dropped for being late since the last prepare
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        clearSource();
+        this.uri = uri;
+    }
+
+    @Override
+    public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        clearSource();
+        this.path = path;
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException, IllegalArgumentException, IllegalStateException {
+        clearSource();
+        this.fileDescriptor = fd;
+        this.fileOffset = offset;
+        this.fileLength = length;
+    }
+
+    @Override
+    public void setDataSource(MediaDataSource dataSource) throws IllegalArgumentException, IllegalStateException {
+        clearSource();
+        this.dataSource = dataSource;
+    }
+
+    protected void clearSource() {
+        this.uri = null;
+        this.path = null;
+        this.fileDescriptor = null;
+        this.dataSource = null;
+    }
+
+    @Override
+    public void prepareAsync() throws IllegalStateException {
+        final int token = this.generation;
+        videoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (token == generation)
+                    prepareVideoThread(token);
+            }
+        });
+    }
+
+    @Override
+    public void start() throws IllegalStateException {
+        if (!prepared)
+            throw new IllegalStateException("start() called before prepared");
+        if (playing)
+            return;
+
+        // Like MediaPlayer, a completed video starts over
+        if (completed) {
+            completed = false;
+            seekInternal(0, false);
+        }
+
+        playing = true;
+        if (!buffering)
+            startClock();
+
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (audioTrack != null && playing) {
+                    audioTrack.play();
+                    writeAudio();
+                }
+            }
+        });
+        videoHandler.post(drainFramesRunnable);
+    }
+
+    @Override
+    public void pause() throws IllegalStateException {
+        if (!playing)
+            return;
+
+        playing = false;
+        stopClock();
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (audioTrack != null && !playing)
+                    audioTrack.pause();
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws IllegalStateException {
+        pause();
+        prepared = false;
+    }
+
+    @Override
+    public void seekTo(int msec) throws IllegalStateException {
+        if (!prepared)
+            throw new IllegalStateException("seekTo() called before prepared");
+
+        completed = false;
+        seekInternal(msec * 1000L, true);
+    }
+
+    /**
+     * Moves both tracks to positionUs. Frames before it are decoded but not shown
+     */
+    protected void seekInternal(final long positionUs, final boolean notify) {
+        synchronized (clockLock) {
+            anchorPositionUs = positionUs;
+            anchorTimeNs = System.nanoTime();
+        }
+
+        final int token = this.generation;
+        videoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation)
+                    return;
+
+                videoHandler.removeCallbacks(drainFramesRunnable);
+                frameCount = 0;
+                videoSeekTargetUs = positionUs;
+                firstFrameRendered = false;
+                notifySeek = notify;
+                videoInputDone = false;
+                videoOutputDone = videoCodec == null;
+
+                if (videoExtractor != null)
+                    videoExtractor.seekTo(positionUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                if (videoCodec != null) {
+                    try {
+                        videoCodec.flush();
+                        videoCodec.start(); // Asynchronous codecs need it after flush()
+                    } catch (IllegalStateException e) {
+                        postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+                    }
+                } else if (notify) {
+                    // No video: the seek is done once audio moved
+                    audioHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            postSeekComplete(token);
+                        }
+                    });
+                }
+            }
+        });
+
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation || audioCodec == null)
+                    return;
+
+                audioHandler.removeCallbacks(writeAudioRunnable);
+                if (audioTrack != null) {
+                    audioTrack.pause();
+                    audioTrack.flush();
+                }
+                audioBasePtsUs = -1;
+                audioCount = 0;
+                audioSeekTargetUs = positionUs;
+                audioInputDone = false;
+                audioOutputDone = false;
+
+                audioExtractor.seekTo(positionUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                try {
+                    audioCodec.flush();
+                    audioCodec.start();
+                } catch (IllegalStateException e) {
+                    postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+                }
+                if (playing && audioTrack != null)
+                    audioTrack.play();
+            }
+        });
+    }
+
+    @Override
+    public void reset() {
+        generation++;
+        prepared = false;
+        playing = false;
+        completed = false;
+        buffering = false;
+        durationUs = -1;
+        videoWidth = 0;
+        videoHeight = 0;
+        synchronized (clockLock) {
+            clockRunning = false;
+            anchorPositionUs = 0;
+            rate = 1.0f;
+        }
+
+        videoHandler.removeCallbacksAndMessages(null);
+        audioHandler.removeCallbacksAndMessages(null);
+        videoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseVideoSource();
+            }
+        });
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseAudio();
+            }
+        });
+    }
+
+    @Override
+    public void release() {
+        reset();
+        videoThread.quitSafely();
+        audioThread.quitSafely();
+    }
+
+    @Override
+    public void setSurface(final Surface surface) {
+        this.surface = surface;
+
+        final int token = this.generation;
+        videoHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation || videoFormat == null)
+                    return;
+
+                if (surface == null) {
+                    // Audio only until a surface comes back
+                    releaseVideo();
+                } else if (videoCodec != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    videoCodec.setOutputSurface(surface);
+                } else {
+                    releaseVideo();
+                    startVideo(token, getPositionUs());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setDisplay(SurfaceHolder holder) {
+        setSurface(holder != null ? holder.getSurface() : null);
+    }
+
+    @Override
+    public void setAudioStreamType(int streamType) {
+        this.audioStreamType = streamType;
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    @Override
+    public boolean isLooping() {
+        return looping;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public void setVolume(final float leftVolume, final float rightVolume) {
+        this.leftVolume = leftVolume;
+        this.rightVolume = rightVolume;
+        AudioTrack track = this.audioTrack;
+        if (track != null)
+            applyVolume(track);
+    }
+
+    /**
+     * Only supported without audio: the AudioTrack is written at its native rate
+     */
+    @Override
+    public boolean setPlaybackSpeed(float speed) {
+        if (audioCodec != null || speed <= 0)
+            return false;
+
+        synchronized (clockLock) {
+            anchorPositionUs = getPositionUs();
+            anchorTimeNs = System.nanoTime();
+            rate = speed;
+        }
+        return true;
+    }
+
+    @Override
+    public void setViewportSize(int width, int height) {
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        if (completed && durationUs > 0)
+            return (int) (durationUs / 1000);
+
+        long position = getPositionUs();
+        if (durationUs > 0 && position > durationUs)
+            position = durationUs;
+        return (int) (Math.max(0, position) / 1000);
+    }
+
+    @Override
+    public int getDuration() {
+        return durationUs > 0 ? (int) (durationUs / 1000) : -1;
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return videoWidth;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return videoHeight;
+    }
+
+    @Override
+    public MediaPlayer getMediaPlayer() {
+        return null;
+    }
+
+    @Override
+    public boolean requiresSurface() {
+        return true;
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        this.bufferingUpdateListener = listener;
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        this.completionListener = listener;
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        this.infoListener = listener;
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        this.preparedListener = listener;
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        this.seekCompleteListener = listener;
+    }
+
+    @Override
+    public void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener) {
+        this.videoSizeChangedListener = listener;
+    }
+
+    // Clock
+
+    protected void startClock() {
+        synchronized (clockLock) {
+            if (clockRunning)
+                return;
+            anchorTimeNs = System.nanoTime();
+            clockRunning = true;
+        }
+    }
+
+    protected void stopClock() {
+        synchronized (clockLock) {
+            if (!clockRunning)
+                return;
+            anchorPositionUs = getPositionUs();
+            anchorTimeNs = System.nanoTime();
+            clockRunning = false;
+        }
+    }
+
+    protected boolean isClockRunning() {
+        synchronized (clockLock) {
+            return clockRunning;
+        }
+    }
+
+    /**
+     * @return Media position in microseconds: audio clock when audio is playing, system clock otherwise
+     */
+    protected long getPositionUs() {
+        synchronized (clockLock) {
+            if (!clockRunning)
+                return anchorPositionUs;
+
+            AudioTrack track = this.audioTrack;
+            long base = this.audioBasePtsUs;
+            // Only timestamps taken since the clock (re)started are meaningful
+            if (track != null && base >= 0 && sampleRate > 0 &&
+                    track.getTimestamp(audioTimestamp) && audioTimestamp.nanoTime >= anchorTimeNs)
+                return base + audioTimestamp.framePosition * 1000000L / sampleRate +
+                        (System.nanoTime() - audioTimestamp.nanoTime) / 1000L;
+
+            return anchorPositionUs + (long) ((System.nanoTime() - anchorTimeNs) / 1000L * rate);
+        }
+    }
+
+    // Video thread
+
+    protected MediaExtractor createExtractor() throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        if (uri != null)
+            extractor.setDataSource(context, uri, null);
+        else if (path != null)
+            extractor.setDataSource(path);
+        else if (fileDescriptor != null)
+            extractor.setDataSource(fileDescriptor, fileOffset, fileLength);
+        else if (dataSource != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            setExtractorDataSource(extractor);
+        else
+            throw new IOException("No data source");
+        return extractor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    protected void setExtractorDataSource(MediaExtractor extractor) throws IOException {
+        extractor.setDataSource((MediaDataSource) dataSource);
+    }
+
+    /**
+     * @return Index of the first track whose mime type starts with prefix, or -1
+     */
+    protected static int selectTrack(MediaExtractor extractor, String prefix) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(prefix))
+                return i;
+        }
+        return -1;
+    }
+
+    protected void prepareVideoThread(final int token) {
+        Log.d(TAG, "prepare");
+        // Preparing again after stop() starts from fresh extractors and codecs
+        releaseVideoSource();
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseAudio();
+            }
+        });
+        droppedFrames = 0;
+        preparePosted = false;
+
+        final MediaFormat audioFormat;
+        try {
+            videoExtractor = createExtractor();
+            int videoTrack = selectTrack(videoExtractor, "video/");
+            if (videoTrack >= 0) {
+                videoExtractor.selectTrack(videoTrack);
+                videoFormat = videoExtractor.getTrackFormat(videoTrack);
+            } else {
+                videoExtractor.release();
+                videoExtractor = null;
+            }
+
+            // Audio is read by its own extractor, on the audio thread
+            MediaExtractor extractor = createExtractor();
+            int audioTrackIndex = selectTrack(extractor, "audio/");
+            if (audioTrackIndex >= 0) {
+                extractor.selectTrack(audioTrackIndex);
+                audioFormat = extractor.getTrackFormat(audioTrackIndex);
+                audioOutputDone = false;
+                final MediaExtractor selected = extractor;
+                audioHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (token == generation)
+                            startAudio(selected, audioFormat);
+                        else
+                            selected.release();
+                    }
+                });
+            } else {
+                audioFormat = null;
+                extractor.release();
+                audioOutputDone = true;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "prepare - " + e.getMessage());
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_IO);
+            return;
+        }
+
+        if (videoFormat == null && audioFormat == null) {
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+            return;
+        }
+
+        long duration = -1;
+        if (videoFormat != null && videoFormat.containsKey(MediaFormat.KEY_DURATION))
+            duration = videoFormat.getLong(MediaFormat.KEY_DURATION);
+        if (audioFormat != null && audioFormat.containsKey(MediaFormat.KEY_DURATION))
+            duration = Math.max(duration, audioFormat.getLong(MediaFormat.KEY_DURATION));
+        durationUs = duration;
+
+        if (videoFormat != null) {
+            videoWidth = videoFormat.getInteger(MediaFormat.KEY_WIDTH);
+            videoHeight = videoFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            final int width = videoWidth, height = videoHeight;
+            postToMain(token, new Runnable() {
+                @Override
+                public void run() {
+                    if (videoSizeChangedListener != null)
+                        videoSizeChangedListener.onVideoSizeChanged(null, width, height);
+                }
+            });
+        }
+
+        waitForBuffer(token, new Runnable() {
+            @Override
+            public void run() {
+                if (videoFormat != null && surface != null) {
+                    // Prepared once the first frame is on screen
+                    startVideo(token, 0);
+                } else {
+                    // Decoding starts when a surface is set
+                    videoOutputDone = true;
+                    preparePosted = true;
+                    postPrepared(token);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs then when the minimum buffer is cached (or the source is not a network one)
+     */
+    protected void waitForBuffer(final int token, final Runnable then) {
+        if (token != generation)
+            return;
+
+        MediaExtractor extractor = videoExtractor;
+        if (extractor == null || extractor.getCachedDuration() < 0 ||
+                extractor.getCachedDuration() >= minBufferUs || extractor.hasCacheReachedEndOfStream()) {
+            then.run();
+            return;
+        }
+
+        videoHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                waitForBuffer(token, then);
+            }
+        }, BUFFER_CHECK_INTERVAL);
+    }
+
+    /**
+     * Creates the video decoder on the current surface and decodes from positionUs
+     */
+    protected void startVideo(final int token, long positionUs) {
+        releaseVideo();
+        Surface target = this.surface;
+        if (videoFormat == null || target == null || !target.isValid())
+            return;
+
+        try {
+            videoCodec = MediaCodec.createDecoderByType(videoFormat.getString(MediaFormat.KEY_MIME));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "startVideo - " + e.getMessage());
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+            return;
+        }
+
+        frameCount = 0;
+        videoInputDone = false;
+        videoOutputDone = false;
+        firstFrameRendered = false;
+        notifySeek = false;
+        videoSeekTargetUs = positionUs > 0 ? positionUs : -1;
+        videoExtractor.seekTo(positionUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        final MediaCodec codec = videoCodec;
+        // Created on the video thread: callbacks come on its looper
+        codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec mc, int index) {
+                if (mc == videoCodec && token == generation)
+                    queueVideoInput(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+                if (mc == videoCodec && token == generation)
+                    onVideoOutput(index, info);
+            }
+
+            @Override
+            public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+                Log.e(TAG, "video codec - " + e.getMessage());
+                if (mc == videoCodec)
+                    postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec mc, MediaFormat format) {
+            }
+        });
+        try {
+            codec.configure(videoFormat, target, null, 0);
+            codec.start();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "startVideo - " + e.getMessage());
+            releaseVideo();
+            // The main thread released the surface in the meantime: audio only until a new one is set
+            if (target == this.surface && target.isValid())
+                postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+        }
+    }
+
+    protected void releaseVideoSource() {
+        releaseVideo();
+        if (videoExtractor != null) {
+            videoExtractor.release();
+            videoExtractor = null;
+        }
+        videoFormat = null;
+    }
+
+    protected void releaseVideo() {
+        videoHandler.removeCallbacks(drainFramesRunnable);
+        frameCount = 0;
+        // Without a decoder, completion only waits for audio
+        videoOutputDone = true;
+        if (videoCodec != null) {
+            try {
+                videoCodec.stop();
+            } catch (IllegalStateException e) {
+                // Already in error
+            }
+            videoCodec.release();
+            videoCodec = null;
+        }
+    }
+
+    protected void queueVideoInput(int index) {
+        if (videoInputDone)
+            return;
+
+        checkBuffer();
+        ByteBuffer buffer = videoCodec.getInputBuffer(index);
+        int size = videoExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            videoCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            videoInputDone = true;
+        } else {
+            videoCodec.queueInputBuffer(index, 0, size, videoExtractor.getSampleTime(), 0);
+            videoExtractor.advance();
+        }
+    }
+
+    protected void onVideoOutput(int index, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            videoCodec.releaseOutputBuffer(index, false);
+            videoOutputDone = true;
+            checkCompletion();
+            return;
+        }
+
+        if (videoSeekTargetUs >= 0 && info.presentationTimeUs < videoSeekTargetUs) {
+            videoCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+
+        if (!firstFrameRendered) {
+            // Shown right away, whatever the clock and audio say
+            videoCodec.releaseOutputBuffer(index, true);
+            firstFrameRendered = true;
+            videoSeekTargetUs = -1;
+            onFirstFrame(info.presentationTimeUs);
+            return;
+        }
+
+        if (frameCount == frameIndexes.length) {
+            int[] indexes = new int[frameIndexes.length * 2];
+            long[] pts = new long[framePts.length * 2];
+            for (int i = 0; i < frameCount; i++) {
+                indexes[i] = frameIndexes[(frameHead + i) % frameIndexes.length];
+                pts[i] = framePts[(frameHead + i) % framePts.length];
+            }
+            frameIndexes = indexes;
+            framePts = pts;
+            frameHead = 0;
+        }
+        int tail = (frameHead + frameCount) % frameIndexes.length;
+        frameIndexes[tail] = index;
+        framePts[tail] = info.presentationTimeUs;
+        frameCount++;
+        drainFrames();
+    }
+
+    protected void onFirstFrame(long ptsUs) {
+        final int token = this.generation;
+        synchronized (clockLock) {
+            anchorPositionUs = ptsUs;
+            anchorTimeNs = System.nanoTime();
+        }
+
+        postToMain(token, new Runnable() {
+            @Override
+            public void run() {
+                if (infoListener != null)
+                    infoListener.onInfo(null, MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START, 0);
+            }
+        });
+
+        if (!preparePosted) {
+            preparePosted = true;
+            postPrepared(token);
+        } else if (notifySeek) {
+            notifySeek = false;
+            postSeekComplete(token);
+        }
+    }
+
+    /**
+     * Hands decoded frames to the surface when they are due
+     */
+    protected void drainFrames() {
+        videoHandler.removeCallbacks(drainFramesRunnable);
+
+        while (frameCount > 0 && videoCodec != null) {
+            if (!isClockRunning())
+                return;
+
+            long early = framePts[frameHead] - getPositionUs();
+            if (early > EARLY_WINDOW_US) {
+                videoHandler.postDelayed(drainFramesRunnable, (early - EARLY_WINDOW_US) / 1000L + 1);
+                return;
+            }
+
+            int index = frameIndexes[frameHead];
+            frameHead = (frameHead + 1) % frameIndexes.length;
+            frameCount--;
+
+            if (early < -LATE_THRESHOLD_US) {
+                videoCodec.releaseOutputBuffer(index, false);
+                droppedFrames++;
+            } else {
+                videoCodec.releaseOutputBuffer(index, System.nanoTime() + Math.max(0, early) * 1000L);
+            }
+        }
+    }
+
+    /**
+     * Reports buffering start/end and percentage, from the video extractor cache
+     */
+    protected void checkBuffer() {
+        videoHandler.removeCallbacks(checkBufferRunnable);
+        MediaExtractor extractor = videoExtractor;
+        if (extractor == null)
+            return;
+
+        long cached = extractor.getCachedDuration();
+        if (cached < 0)
+            return;
+
+        final int token = this.generation;
+        boolean endOfStream = extractor.hasCacheReachedEndOfStream();
+        if (!buffering && playing && cached == 0 && !endOfStream) {
+            buffering = true;
+            stopClock();
+            postInfo(token, MediaPlayer.MEDIA_INFO_BUFFERING_START);
+        } else if (buffering && (cached >= minBufferUs || endOfStream)) {
+            buffering = false;
+            if (playing)
+                startClock();
+            postInfo(token, MediaPlayer.MEDIA_INFO_BUFFERING_END);
+            drainFrames();
+            audioHandler.post(writeAudioRunnable);
+        }
+
+        long now = System.currentTimeMillis();
+        if (durationUs > 0 && now - lastBufferingUpdate >= BUFFERING_UPDATE_INTERVAL) {
+            lastBufferingUpdate = now;
+            final int percent = endOfStream ? 100 : (int) Math.min(100, (getPositionUs() + cached) * 100 / durationUs);
+            postToMain(token, new Runnable() {
+                @Override
+                public void run() {
+                    if (bufferingUpdateListener != null)
+                        bufferingUpdateListener.onBufferingUpdate(null, percent);
+                }
+            });
+        }
+
+        // Decoder input may be full while stalled: keeps checking
+        if (buffering)
+            videoHandler.postDelayed(checkBufferRunnable, BUFFER_CHECK_INTERVAL);
+    }
+
+    /**
+     * Both tracks reached their end
+     */
+    protected void checkCompletion() {
+        if (!videoOutputDone || !audioOutputDone || completed)
+            return;
+
+        if (looping) {
+            seekInternal(0, false);
+            return;
+        }
+
+        final int token = this.generation;
+        playing = false;
+        stopClock();
+        completed = true;
+        postToMain(token, new Runnable() {
+            @Override
+            public void run() {
+                if (completionListener != null)
+                    completionListener.onCompletion(null);
+            }
+        });
+    }
+
+    // Audio thread
+
+    protected void startAudio(MediaExtractor extractor, MediaFormat format) {
+        final int token = this.generation;
+        audioExtractor = extractor;
+        audioInputDone = false;
+        audioOutputDone = false;
+        audioSeekTargetUs = -1;
+        audioCount = 0;
+
+        try {
+            audioCodec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "startAudio - " + e.getMessage());
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+            return;
+        }
+
+        if (!createAudioTrack(format)) {
+            releaseAudio();
+            return;
+        }
+        final MediaCodec codec = audioCodec;
+        codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec mc, int index) {
+                if (mc == audioCodec && token == generation)
+                    queueAudioInput(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+                if (mc == audioCodec && token == generation)
+                    onAudioOutput(index, info);
+            }
+
+            @Override
+            public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+                Log.e(TAG, "audio codec - " + e.getMessage());
+                if (mc == audioCodec)
+                    postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec mc, MediaFormat outputFormat) {
+                // HE-AAC (v2) reports its real rate and channels only here
+                if (mc == audioCodec &&
+                        (outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) != sampleRate ||
+                                outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT) != channelCount))
+                    createAudioTrack(outputFormat);
+            }
+        });
+        try {
+            codec.configure(format, null, null, 0);
+            codec.start();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "startAudio - " + e.getMessage());
+            releaseAudio();
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+        }
+    }
+
+    /**
+     * (Re)creates the track for a PCM format
+     *
+     * @return false if the format can not be played. The error is reported
+     */
+    protected boolean createAudioTrack(MediaFormat format) {
+        if (audioTrack != null) {
+            audioTrack.release();
+            audioTrack = null;
+        }
+
+        sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int channelMask = channelMask(channelCount);
+        int bufferSize = AudioTrack.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+
+        AudioTrack track = null;
+        if (channelMask != AudioFormat.CHANNEL_INVALID && bufferSize > 0) {
+            try {
+                //noinspection deprecation
+                track = new AudioTrack(audioStreamType, sampleRate, channelMask,
+                        AudioFormat.ENCODING_PCM_16BIT, bufferSize * 2, AudioTrack.MODE_STREAM);
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "createAudioTrack - " + e.getMessage());
+            }
+        }
+        if (track == null || track.getState() != AudioTrack.STATE_INITIALIZED) {
+            Log.e(TAG, "createAudioTrack - unsupported: " + sampleRate + " Hz, " + channelCount + " channels");
+            if (track != null)
+                track.release();
+            postError(MediaPlayer.MEDIA_ERROR_UNKNOWN, MediaPlayer.MEDIA_ERROR_UNSUPPORTED);
+            return false;
+        }
+
+        applyVolume(track);
+        audioBasePtsUs = -1;
+        audioTrack = track;
+        if (playing)
+            track.play();
+        return true;
+    }
+
+    /**
+     * Decoders output interleaved PCM in the standard channel order, which these masks follow
+     */
+    protected static int channelMask(int channelCount) {
+        switch (channelCount) {
+            case 1:
+                return AudioFormat.CHANNEL_OUT_MONO;
+            case 2:
+                return AudioFormat.CHANNEL_OUT_STEREO;
+            case 3:
+                return AudioFormat.CHANNEL_OUT_STEREO | AudioFormat.CHANNEL_OUT_FRONT_CENTER;
+            case 4:
+                return AudioFormat.CHANNEL_OUT_QUAD;
+            case 5:
+                return AudioFormat.CHANNEL_OUT_QUAD | AudioFormat.CHANNEL_OUT_FRONT_CENTER;
+            case 6:
+                return AudioFormat.CHANNEL_OUT_5POINT1;
+            case 7:
+                return AudioFormat.CHANNEL_OUT_5POINT1 | AudioFormat.CHANNEL_OUT_BACK_CENTER;
+            case 8:
+                return AudioFormat.CHANNEL_OUT_5POINT1 | AudioFormat.CHANNEL_OUT_SIDE_LEFT | AudioFormat.CHANNEL_OUT_SIDE_RIGHT;
+            default:
+                return AudioFormat.CHANNEL_INVALID;
+        }
+    }
+
+    protected void applyVolume(AudioTrack track) {
+        //noinspection deprecation
+        track.setStereoVolume(leftVolume, rightVolume);
+    }
+
+    protected void releaseAudio() {
+        audioHandler.removeCallbacks(writeAudioRunnable);
+        audioCount = 0;
+        if (audioCodec != null) {
+            try {
+                audioCodec.stop();
+            } catch (IllegalStateException e) {
+                // Already in error
+            }
+            audioCodec.release();
+            audioCodec = null;
+        }
+        if (audioExtractor != null) {
+            audioExtractor.release();
+            audioExtractor = null;
+        }
+        if (audioTrack != null) {
+            audioTrack.release();
+            audioTrack = null;
+        }
+        audioBasePtsUs = -1;
+    }
+
+    protected void queueAudioInput(int index) {
+        if (audioInputDone)
+            return;
+
+        ByteBuffer buffer = audioCodec.getInputBuffer(index);
+        int size = audioExtractor.readSampleData(buffer, 0);
+        if (size < 0) {
+            audioCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            audioInputDone = true;
+        } else {
+            audioCodec.queueInputBuffer(index, 0, size, audioExtractor.getSampleTime(), 0);
+            audioExtractor.advance();
+        }
+    }
+
+    protected void onAudioOutput(int index, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            audioCodec.releaseOutputBuffer(index, false);
+            audioOutputDone = true;
+            videoHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    checkCompletion();
+                }
+            });
+            return;
+        }
+
+        if (info.size == 0 || (audioSeekTargetUs >= 0 && info.presentationTimeUs < audioSeekTargetUs)) {
+            audioCodec.releaseOutputBuffer(index, false);
+            return;
+        }
+        audioSeekTargetUs = -1;
+
+        if (audioCount == audioIndexes.length) {
+            int[] indexes = new int[audioIndexes.length * 2];
+            ByteBuffer[] buffers = new ByteBuffer[audioBuffers.length * 2];
+            long[] pts = new long[audioPts.length * 2];
+            for (int i = 0; i < audioCount; i++) {
+                int from = (audioHead + i) % audioIndexes.length;
+                indexes[i] = audioIndexes[from];
+                buffers[i] = audioBuffers[from];
+                pts[i] = audioPts[from];
+            }
+            audioIndexes = indexes;
+            audioBuffers = buffers;
+            audioPts = pts;
+            audioHead = 0;
+        }
+        int tail = (audioHead + audioCount) % audioIndexes.length;
+        audioIndexes[tail] = index;
+        audioBuffers[tail] = audioCodec.getOutputBuffer(index);
+        audioPts[tail] = info.presentationTimeUs;
+        audioCount++;
+        writeAudio();
+    }
+
+    /**
+     * Writes decoded audio without blocking, retrying shortly when the track is full
+     */
+    protected void writeAudio() {
+        audioHandler.removeCallbacks(writeAudioRunnable);
+
+        while (audioCount > 0 && audioCodec != null && audioTrack != null) {
+            if (!playing || buffering)
+                return;
+
+            ByteBuffer buffer = audioBuffers[audioHead];
+            if (audioBasePtsUs < 0)
+                audioBasePtsUs = audioPts[audioHead];
+
+            audioTrack.write(buffer, buffer.remaining(), AudioTrack.WRITE_NON_BLOCKING);
+            if (buffer.hasRemaining()) {
+                audioHandler.postDelayed(writeAudioRunnable, AUDIO_RETRY_INTERVAL);
+                return;
+            }
+
+            audioCodec.releaseOutputBuffer(audioIndexes[audioHead], false);
+            audioBuffers[audioHead] = null;
+            audioHead = (audioHead + 1) % audioIndexes.length;
+            audioCount--;
+        }
+    }
+
+    // Callbacks, on the main thread
+
+    protected void postToMain(final int token, final Runnable runnable) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (token == generation)
+                    runnable.run();
+            }
+        });
+    }
+
+    protected void postPrepared(int token) {
+        postToMain(token, new Runnable() {
+            @Override
+            public void run() {
+                prepared = true;
+                if (preparedListener != null)
+                    preparedListener.onPrepared(null);
+            }
+        });
+    }
+
+    protected void postSeekComplete(int token) {
+        postToMain(token, new Runnable() {
+            @Override
+            public void run() {
+                if (seekCompleteListener != null)
+                    seekCompleteListener.onSeekComplete(null);
+            }
+        });
+    }
+
+    protected void postInfo(int token, final int what) {
+        postToMain(token, new Runnable() {
+            @Override
+            public void run() {
+                if (infoListener != null)
+                    infoListener.onInfo(null, what, 0);
+            }
+        });
+    }
+
+    protected void postError(final int what, final int extra) {
+        postToMain(this.generation, new Runnable() {
+            @Override
+            public void run() {
+                playing = false;
+                stopClock();
+                if (errorListener != null)
+                    errorListener.onError(null, what, extra);
+            }
+        });
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.media.PlaybackParams;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Default {@link PlayerEngine}. Delegates everything to {@link MediaPlayer}.
+ */
+public class MediaPlayerEngine implements PlayerEngine {
+
+    private final static String TAG = "MediaPlayerEngine";
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PlayerEngine create(Context context) {
+            return new MediaPlayerEngine();
+        }
+    };
+
+    protected final MediaPlayer mediaPlayer;
+
+    public MediaPlayerEngine() {
+        this.mediaPlayer = new MediaPlayer();
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        mediaPlayer.setDataSource(context, uri);
+    }
+
+    @Override
+    public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        mediaPlayer.setDataSource(path);
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException, IllegalArgumentException, IllegalStateException {
+        mediaPlayer.setDataSource(fd, offset, length);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public void setDataSource(MediaDataSource dataSource) throws IllegalArgumentException, IllegalStateException {
+        mediaPlayer.setDataSource(dataSource);
+    }
+
+    @Override
+    public void prepareAsync() throws IllegalStateException {
+        mediaPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() throws IllegalStateException {
+        mediaPlayer.start();
+    }
+
+    @Override
+    public void pause() throws IllegalStateException {
+        mediaPlayer.pause();
+    }
+
+    @Override
+    public void stop() throws IllegalStateException {
+        mediaPlayer.stop();
+    }
+
+    @Override
+    public void seekTo(int msec) throws IllegalStateException {
+        mediaPlayer.seekTo(msec);
+    }
+
+    @Override
+    public void reset() {
+        mediaPlayer.reset();
+    }
+
+    @Override
+    public void release() {
+        mediaPlayer.release();
+    }
+
+    @Override
+    public void setSurface(Surface surface) {
+        mediaPlayer.setSurface(surface);
+    }
+
+    @Override
+    public void setDisplay(SurfaceHolder holder) {
+        mediaPlayer.setDisplay(holder);
+    }
+
+    @Override
+    public void setAudioStreamType(int streamType) {
+        mediaPlayer.setAudioStreamType(streamType);
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        mediaPlayer.setLooping(looping);
+    }
+
+    @Override
+    public boolean isLooping() {
+        return mediaPlayer.isLooping();
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mediaPlayer.isPlaying();
+    }
+
+    @Override
+    public void setVolume(float leftVolume, float rightVolume) {
+        mediaPlayer.setVolume(leftVolume, rightVolume);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public boolean setPlaybackSpeed(float speed) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return false;
+
+        try {
+            PlaybackParams params = mediaPlayer.getPlaybackParams();
+            mediaPlayer.setPlaybackParams(params.setSpeed(speed));
+            return true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "setPlaybackSpeed - " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void setViewportSize(int width, int height) {
+        // MediaPlayer plays a single rendition
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return mediaPlayer.getCurrentPosition();
+    }
+
+    @Override
+    public int getDuration() {
+        return mediaPlayer.getDuration();
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return mediaPlayer.getVideoWidth();
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return mediaPlayer.getVideoHeight();
+    }
+
+    @Override
+    public MediaPlayer getMediaPlayer() {
+        return mediaPlayer;
+    }
+
+    @Override
+    public boolean requiresSurface() {
+        return true;
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        mediaPlayer.setOnBufferingUpdateListener(listener);
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        mediaPlayer.setOnCompletionListener(listener);
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        mediaPlayer.setOnErrorListener(listener);
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        mediaPlayer.setOnInfoListener(listener);
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        mediaPlayer.setOnPreparedListener(listener);
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        mediaPlayer.setOnSeekCompleteListener(listener);
+    }
+
+    @Override
+    public void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener) {
+        mediaPlayer.setOnVideoSizeChangedListener(listener);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.FrameLayout;
+
+/**
+ * Floating container of a {@link FullscreenVideoView} in mini player mode.
+ * <p>
+ * Drags move it with translations, so they cost no layout pass. It stays inside its parent.
+ * Taps go through to the video (and its controls). Dragging needs API 11+.
+ *
+ * @see FullscreenVideoView#setMiniPlayer(boolean)
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class MiniPlayerFrame extends FrameLayout {
+
+    protected final int touchSlop;
+    protected float downX, downY;
+    protected float startTranslationX, startTranslationY;
+    protected boolean dragging;
+
+    public MiniPlayerFrame(Context context) {
+        super(context);
+        this.touchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent event) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+            return false;
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                downX = event.getRawX();
+                downY = event.getRawY();
+                startTranslationX = getTranslationX();
+                startTranslationY = getTranslationY();
+                dragging = false;
+                break;
+            case MotionEvent.ACTION_MOVE:
+                if (Math.abs(event.getRawX() - downX) > touchSlop || Math.abs(event.getRawY() - downY) > touchSlop)
+                    dragging = true;
+                break;
+        }
+        return dragging;
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB)
+            return false;
+
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                setTranslationX(startTranslationX + event.getRawX() - downX);
+                setTranslationY(startTranslationY + event.getRawY() - downY);
+                return true;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                dragging = false;
+                keepInsideParent();
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves it back inside its parent, if a drag left it partly outside
+     */
+    protected void keepInsideParent() {
+        View parent = (View) getParent();
+        if (parent == null)
+            return;
+
+        float left = getLeft() + getTranslationX();
+        float top = getTop() + getTranslationY();
+        float dx = 0, dy = 0;
+        if (left < 0)
+            dx = -left;
+        else if (left + getWidth() > parent.getWidth())
+            dx = parent.getWidth() - getWidth() - left;
+        if (top < 0)
+            dy = -top;
+        else if (top + getHeight() > parent.getHeight())
+            dy = parent.getHeight() - getHeight() - top;
+
+        setTranslationX(getTranslationX() + dx);
+        setTranslationY(getTranslationY() + dy);
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.os.Build;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.github.rtoshiro.view.video.PlayerCallMonitor.Call;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * {@link PlayerEngine} that times every call to another engine with a {@link PlayerCallMonitor}.
+ * Listener setters are passed through untimed.
+ */
+public class MonitoredPlayerEngine implements PlayerEngine {
+
+    protected final PlayerEngine engine;
+    protected final PlayerCallMonitor monitor;
+
+    public MonitoredPlayerEngine(PlayerEngine engine, PlayerCallMonitor monitor) {
+        this.engine = engine;
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return The monitored engine
+     */
+    public PlayerEngine getEngine() {
+        return engine;
+    }
+
+    public PlayerCallMonitor getMonitor() {
+        return monitor;
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.setDataSource(context, uri);
+        } finally {
+            monitor.end(Call.SET_DATA_SOURCE, begin);
+        }
+    }
+
+    @Override
+    public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.setDataSource(path);
+        } finally {
+            monitor.end(Call.SET_DATA_SOURCE, begin);
+        }
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) throws IOException, IllegalArgumentException, IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.setDataSource(fd, offset, length);
+        } finally {
+            monitor.end(Call.SET_DATA_SOURCE, begin);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    @Override
+    public void setDataSource(MediaDataSource dataSource) throws IllegalArgumentException, IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.setDataSource(dataSource);
+        } finally {
+            monitor.end(Call.SET_DATA_SOURCE, begin);
+        }
+    }
+
+    @Override
+    public void prepareAsync() throws IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.prepareAsync();
+        } finally {
+            monitor.end(Call.PREPARE_ASYNC, begin);
+        }
+    }
+
+    @Override
+    public void start() throws IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.start();
+        } finally {
+            monitor.end(Call.START, begin);
+        }
+    }
+
+    @Override
+    public void pause() throws IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.pause();
+        } finally {
+            monitor.end(Call.PAUSE, begin);
+        }
+    }
+
+    @Override
+    public void stop() throws IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.stop();
+        } finally {
+            monitor.end(Call.STOP, begin);
+        }
+    }
+
+    @Override
+    public void seekTo(int msec) throws IllegalStateException {
+        long begin = monitor.begin();
+        try {
+            engine.seekTo(msec);
+        } finally {
+            monitor.end(Call.SEEK_TO, begin);
+        }
+    }
+
+    @Override
+    public void reset() {
+        long begin = monitor.begin();
+        try {
+            engine.reset();
+        } finally {
+            monitor.end(Call.RESET, begin);
+        }
+    }
+
+    @Override
+    public void release() {
+        long begin = monitor.begin();
+        try {
+            engine.release();
+        } finally {
+            monitor.end(Call.RELEASE, begin);
+        }
+    }
+
+    @Override
+    public void setSurface(Surface surface) {
+        long begin = monitor.begin();
+        try {
+            engine.setSurface(surface);
+        } finally {
+            monitor.end(Call.SET_SURFACE, begin);
+        }
+    }
+
+    @Override
+    public void setDisplay(SurfaceHolder holder) {
+        long begin = monitor.begin();
+        try {
+            engine.setDisplay(holder);
+        } finally {
+            monitor.end(Call.SET_DISPLAY, begin);
+        }
+    }
+
+    @Override
+    public void setAudioStreamType(int streamType) {
+        long begin = monitor.begin();
+        try {
+            engine.setAudioStreamType(streamType);
+        } finally {
+            monitor.end(Call.OTHER, begin);
+        }
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        long begin = monitor.begin();
+        try {
+            engine.setLooping(looping);
+        } finally {
+            monitor.end(Call.SET_LOOPING, begin);
+        }
+    }
+
+    @Override
+    public boolean isLooping() {
+        long begin = monitor.begin();
+        try {
+            return engine.isLooping();
+        } finally {
+            monitor.end(Call.OTHER, begin);
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        long begin = monitor.begin();
+        try {
+            return engine.isPlaying();
+        } finally {
+            monitor.end(Call.IS_PLAYING, begin);
+        }
+    }
+
+    @Override
+    public void setVolume(float leftVolume, float rightVolume) {
+        long begin = monitor.begin();
+        try {
+            engine.setVolume(leftVolume, rightVolume);
+        } finally {
+            monitor.end(Call.SET_VOLUME, begin);
+        }
+    }
+
+    @Override
+    public boolean setPlaybackSpeed(float speed) {
+        long begin = monitor.begin();
+        try {
+            return engine.setPlaybackSpeed(speed);
+        } finally {
+            monitor.end(Call.SET_PLAYBACK_SPEED, begin);
+        }
+    }
+
+    @Override
+    public void setViewportSize(int width, int height) {
+        long begin = monitor.begin();
+        try {
+            engine.setViewportSize(width, height);
+        } finally {
+            monitor.end(Call.OTHER, begin);
+        }
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        long begin = monitor.begin();
+        try {
+            return engine.getCurrentPosition();
+        } finally {
+            monitor.end(Call.GET_CURRENT_POSITION, begin);
+        }
+    }
+
+    @Override
+    public int getDuration() {
+        long begin = monitor.begin();
+        try {
+            return engine.getDuration();
+        } finally {
+            monitor.end(Call.GET_DURATION, begin);
+        }
+    }
+
+    @Override
+    public int getVideoWidth() {
+        long begin = monitor.begin();
+        try {
+            return engine.getVideoWidth();
+        } finally {
+            monitor.end(Call.GET_VIDEO_SIZE, begin);
+        }
+    }
+
+    @Override
+    public int getVideoHeight() {
+        long begin = monitor.begin();
+        try {
+            return engine.getVideoHeight();
+        } finally {
+            monitor.end(Call.GET_VIDEO_SIZE, begin);
+        }
+    }
+
+    @Override
+    public MediaPlayer getMediaPlayer() {
+        return engine.getMediaPlayer();
+    }
+
+    @Override
+    public boolean requiresSurface() {
+        return engine.requiresSurface();
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        engine.setOnBufferingUpdateListener(listener);
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        engine.setOnCompletionListener(listener);
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        engine.setOnErrorListener(listener);
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        engine.setOnInfoListener(listener);
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        engine.setOnPreparedListener(listener);
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        engine.setOnSeekCompleteListener(listener);
+    }
+
+    @Override
+    public void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener) {
+        engine.setOnVideoSizeChangedListener(listener);
+    }
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Fast start for progressive MP4s: fetches and parses the header (moov box) of a video
+ * once and keeps an {@link Mp4Index} of it per URI, in memory and on disk.
+ * <p>
+ * When the moov box is at the end of the file, MediaPlayer needs extra range requests
+ * before onPrepared. With an index in the cache, {@link #createDataSource(Uri)} serves
+ * the header and the file size locally, so the first request is already for media data.
+ * <p>
+ * The disk cache is trimmed to a maximum size, least recently used entries first.
+ * Headers larger than {@link #MAX_HEADER_SIZE} are not cached.
+ * <p>
+ * On the main thread, look indexes up with {@link #getCached(Uri)} (memory only) and let
+ * {@link #prefetch(Uri, OnFetchListener)} load them from the disk or the network on a small
+ * pool of threads. A failed fetch is not retried for {@link #FAILURE_TTL} ms.
+ *
+ * @see FullscreenVideoView#setFastStartCache(Mp4HeaderCache)
+ */
+public class Mp4HeaderCache {
+
+    private final static String TAG = "Mp4HeaderCache";
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    public static final int MAX_HEADER_SIZE = 4 * 1024 * 1024;
+
+    protected static final int MEMORY_ENTRIES = 8;
+    protected static final int FETCH_THREADS = 2;
+    protected static final int MAX_FETCHES = 16; // In flight or queued
+    protected static final long FAILURE_TTL = 60 * 1000;
+    protected static final int FAILURE_ENTRIES = 32;
+    protected static final int TYPE_MOOV = 0x6d6f6f76;
+    protected static final int TYPE_MDAT = 0x6d646174;
+
+    /**
+     * Called on the main thread
+     */
+    public interface OnFetchListener {
+        /**
+         * @param index null if it failed
+         */
+        void onFetched(Uri uri, Mp4Index index, IOException error);
+    }
+
+    private static final Executor EXECUTOR = Executors.newFixedThreadPool(FETCH_THREADS);
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    /**
+     * A fetch that failed, kept for FAILURE_TTL
+     */
+    protected static class Failure {
+        final long time;
+        final IOException error;
+
+        Failure(long time, IOException error) {
+            this.time = time;
+            this.error = error;
+        }
+    }
+
+    protected final File directory;
+    protected final long maxSize;
+    protected final Map<String, Mp4Index> memory = new LinkedHashMap<String, Mp4Index>(MEMORY_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Mp4Index> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    protected final Map<String, List<OnFetchListener>> fetches = new HashMap<String, List<OnFetchListener>>(); // Key -> listeners waiting for it
+    protected final Map<String, Failure> failures = new LinkedHashMap<String, Failure>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Failure> eldest) {
+            return size() > FAILURE_ENTRIES;
+        }
+    };
+
+    public Mp4HeaderCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param directory Where indexes are kept, usually under getCacheDir()
+     * @param maxSize   Disk space in bytes
+     */
+    public Mp4HeaderCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The index if it is in memory, or null. Does not read the disk
+     */
+    public Mp4Index getCached(Uri uri) {
+        synchronized (memory) {
+            return memory.get(keyOf(uri));
+        }
+    }
+
+    /**
+     * @return The cached index or null. May read the disk: not for the main thread
+     */
+    public Mp4Index get(Uri uri) {
+        String key = keyOf(uri);
+        synchronized (memory) {
+            Mp4Index index = memory.get(key);
+            if (index != null)
+                return index;
+        }
+
+        File file = new File(directory, key);
+        if (!file.exists())
+            return null;
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Mp4Index index = Mp4Index.read(in);
+                file.setLastModified(System.currentTimeMillis());
+                synchronized (memory) {
+                    memory.put(key, index);
+                }
+                return index;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "get - " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached index or fetches it over HTTP. Blocks: not for the main thread.
+     */
+    public Mp4Index fetch(Uri uri) throws IOException {
+        Mp4Index index = get(uri);
+        if (index != null)
+            return index;
+
+        HttpChunkSource source = new HttpChunkSource(uri);
+        try {
+            return fetch(uri, source);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Walks the top level boxes (one small read each), reads the moov box,
+     * then parses and caches it. Blocks: not for the main thread.
+     */
+    public Mp4Index fetch(Uri uri, ChunkSource source) throws IOException {
+        long begin = System.currentTimeMillis();
+        long size = source.getSize();
+        byte[] boxHeader = new byte[16];
+        boolean mediaFound = false;
+
+        long position = 0;
+        while (size < 0 || position + 8 <= size) {
+            int read = readFully(source, position, boxHeader, 16);
+            if (read < 8)
+                break;
+
+            long boxSize = Mp4Index.readUInt32(boxHeader, 0);
+            int type = Mp4Index.readInt(boxHeader, 4);
+            if (boxSize == 1 && read == 16)
+                boxSize = Mp4Index.readLong(boxHeader, 8);
+            else if (boxSize == 0 && size >= 0)
+                boxSize = size - position;
+            if (boxSize < 8)
+                throw new IOException("Invalid box at " + position);
+
+            if (type == TYPE_MOOV) {
+                if (boxSize > MAX_HEADER_SIZE)
+                    throw new IOException("Header too large: " + boxSize);
+
+                byte[] header = new byte[(int) boxSize];
+                if (readFully(source, position, header, header.length) != header.length)
+                    throw new IOException("Truncated header");
+
+                Mp4Index index = Mp4Index.parse(header, position, size, !mediaFound);
+                put(uri, index);
+                Log.d(TAG, "fetch - " + header.length + " bytes at " + position +
+                        " in " + (System.currentTimeMillis() - begin) + " ms");
+                return index;
+            }
+
+            if (type == TYPE_MDAT)
+                mediaFound = true;
+            position += boxSize;
+        }
+        throw new IOException("No moov box in " + uri);
+    }
+
+    /**
+     * Loads an index from the disk or fetches it over HTTP in the background, unless it is
+     * already in memory. Requests for a URI being fetched wait for that fetch, and a URI that
+     * failed less than FAILURE_TTL ago fails again without a request.
+     *
+     * @param listener May be null
+     */
+    public void prefetch(final Uri uri, OnFetchListener listener) {
+        final String key = keyOf(uri);
+        Mp4Index cached = getCached(uri);
+        if (cached != null) {
+            deliver(listener, uri, cached, null);
+            return;
+        }
+
+        synchronized (failures) {
+            Failure failure = failures.get(key);
+            if (failure != null) {
+                if (System.currentTimeMillis() - failure.time < FAILURE_TTL) {
+                    deliver(listener, uri, null, failure.error);
+                    return;
+                }
+                failures.remove(key);
+            }
+        }
+
+        synchronized (fetches) {
+            List<OnFetchListener> listeners = fetches.get(key);
+            if (listeners != null) {
+                if (listener != null)
+                    listeners.add(listener);
+                return;
+            }
+            if (fetches.size() >= MAX_FETCHES) {
+                Log.d(TAG, "prefetch - too many fetches, skipping " + uri);
+                deliver(listener, uri, null, new IOException("Too many fetches"));
+                return;
+            }
+            listeners = new ArrayList<OnFetchListener>();
+            if (listener != null)
+                listeners.add(listener);
+            fetches.put(key, listeners);
+        }
+
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                Mp4Index index = null;
+                IOException error = null;
+                try {
+                    index = fetch(uri);
+                } catch (IOException e) {
+                    Log.e(TAG, "prefetch - " + e.getMessage());
+                    error = e;
+                    synchronized (failures) {
+                        failures.put(key, new Failure(System.currentTimeMillis(), e));
+                    }
+                }
+
+                List<OnFetchListener> listeners;
+                synchronized (fetches) {
+                    listeners = fetches.remove(key);
+                }
+                if (listeners != null)
+                    for (OnFetchListener waiting : listeners)
+                        deliver(waiting, uri, index, error);
+            }
+        });
+    }
+
+    /**
+     * @return true if uri is being fetched by prefetch()
+     */
+    public boolean isFetching(Uri uri) {
+        synchronized (fetches) {
+            return fetches.containsKey(keyOf(uri));
+        }
+    }
+
+    protected static void deliver(final OnFetchListener listener, final Uri uri, final Mp4Index index, final IOException error) {
+        if (listener == null)
+            return;
+
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFetched(uri, index, error);
+            }
+        });
+    }
+
+    /**
+     * @return source, serving the header from the cache if there is an index for uri in memory
+     */
+    public ChunkSource wrap(Uri uri, ChunkSource source) {
+        Mp4Index index = getCached(uri);
+        return index != null ? new HeaderCachedChunkSource(source, index) : source;
+    }
+
+    /**
+     * @return A data source reading uri over HTTP, with the cached header if it is in memory.
+     * Does not connect: can be called on the main thread
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    public StreamingDataSource createDataSource(Uri uri) throws IOException {
+        return new StreamingDataSource(wrap(uri, new HttpChunkSource(uri)));
+    }
+
+    public void put(Uri uri, Mp4Index index) {
+        String key = keyOf(uri);
+        synchronized (memory) {
+            memory.put(key, index);
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "put - can not create " + directory);
+            return;
+        }
+
+        File file = new File(directory, key);
+        File temp = new File(directory, key + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                index.write(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file))
+                throw new IOException("Can not rename " + temp);
+        } catch (IOException e) {
+            Log.e(TAG, "put - " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Forgets an index, for instance when the video changed on the server.
+     * The file is deleted in the background
+     */
+    public void remove(Uri uri) {
+        String key = keyOf(uri);
+        synchronized (memory) {
+            memory.remove(key);
+        }
+        synchronized (failures) {
+            failures.remove(key);
+        }
+
+        final File file = new File(directory, key);
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * Forgets every index and failure. Deletes files: not for the main thread
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        synchronized (failures) {
+            failures.clear();
+        }
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+    }
+
+    /**
+     * Deletes the least recently used indexes until the cache fits maxSize
+     */
+    protected synchronized void trim() {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= maxSize)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > maxSize; i++) {
+            total -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    protected static String keyOf(Uri uri) {
+        String value = uri.toString();
+        // Two hashes keep collisions unlikely without a digest
+        return Integer.toHexString(value.hashCode()) + "_" +
+                Integer.toHexString(new StringBuilder(value).reverse().toString().hashCode()) + ".idx";
+    }
+
+    protected static int readFully(ChunkSource source, long position, byte[] buffer, int size) throws IOException {
+        int total = 0;
+        while (total < size) {
+            int read = source.read(position + total, buffer, total, size - total);
+            if (read <= 0)
+                break;
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact index of a progressive MP4, built from its header (the moov box).
+ * <p>
+ * Keeps the header bytes and where they are in the file, so a later prepare can be served
+ * without fetching them again, and what a player wants to know before preparing:
+ * duration, video dimensions, sample count and keyframe times.
+ *
+ * @see Mp4HeaderCache
+ */
+public class Mp4Index {
+
+    protected static final int MAGIC = 0x4d344958; // "M4IX"
+    protected static final int VERSION = 1;
+
+    protected static final int TYPE_MOOV = 0x6d6f6f76;
+    protected static final int TYPE_TRAK = 0x7472616b;
+    protected static final int TYPE_MDIA = 0x6d646961;
+    protected static final int TYPE_MINF = 0x6d696e66;
+    protected static final int TYPE_STBL = 0x7374626c;
+    protected static final int TYPE_MVHD = 0x6d766864;
+    protected static final int TYPE_TKHD = 0x746b6864;
+    protected static final int TYPE_MDHD = 0x6d646864;
+    protected static final int TYPE_HDLR = 0x68646c72;
+    protected static final int TYPE_STTS = 0x73747473;
+    protected static final int TYPE_STSS = 0x73747373;
+    protected static final int TYPE_STSZ = 0x7374737a;
+    protected static final int HANDLER_VIDEO = 0x76696465; // "vide"
+
+    protected long fileSize;
+    protected long headerOffset;
+    protected byte[] header;
+    protected boolean fastStart; // moov before mdat
+
+    protected long duration; // msec
+    protected int width, height;
+    protected int sampleCount;
+    protected long[] keyframeTimes = new long[0]; // msec. Empty if every sample is a keyframe
+
+    /**
+     * Track being parsed
+     */
+    protected static class Track {
+        int handler;
+        long timescale;
+        int width, height;
+        int sampleCount;
+        int[] sttsCounts, sttsDeltas;
+        int[] syncSamples;
+    }
+
+    protected Mp4Index() {
+    }
+
+    /**
+     * Parses a moov box
+     *
+     * @param header       The whole moov box, header included
+     * @param headerOffset Where it is in the file
+     * @param fileSize     File size, or -1 if unknown
+     * @param fastStart    true if it comes before the media data
+     */
+    public static Mp4Index parse(byte[] header, long headerOffset, long fileSize, boolean fastStart) throws IOException {
+        Mp4Index index = new Mp4Index();
+        index.header = header;
+        index.headerOffset = headerOffset;
+        index.fileSize = fileSize;
+        index.fastStart = fastStart;
+        try {
+            index.parseBoxes(header, 0, header.length, null);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated box");
+        }
+        return index;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getHeaderOffset() {
+        return headerOffset;
+    }
+
+    public int getHeaderLength() {
+        return header.length;
+    }
+
+    /**
+     * @return The moov box. Do not modify it
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @return true if the header comes before the media data (no extra round trips to prepare)
+     */
+    public boolean isFastStart() {
+        return fastStart;
+    }
+
+    /**
+     * @return Duration in msec, 0 if unknown
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Samples of the video track
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * @return Keyframe times in msec, sorted. Empty if every sample is a keyframe
+     */
+    public long[] getKeyframeTimes() {
+        return keyframeTimes;
+    }
+
+    /**
+     * @return Time (msec) of the last keyframe at or before a position: where a seek really lands
+     */
+    public long getKeyframeBefore(long msec) {
+        if (keyframeTimes.length == 0)
+            return msec;
+
+        int i = Arrays.binarySearch(keyframeTimes, msec);
+        if (i < 0)
+            i = -i - 2;
+        return i >= 0 ? keyframeTimes[i] : 0;
+    }
+
+    /**
+     * @param offset Position in the file
+     * @return true if the bytes at that position are part of the header
+     */
+    public boolean containsOffset(long offset) {
+        return offset >= headerOffset && offset < headerOffset + header.length;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fileSize);
+        out.writeLong(headerOffset);
+        out.writeBoolean(fastStart);
+        out.writeLong(duration);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(sampleCount);
+        out.writeInt(keyframeTimes.length);
+        for (long time : keyframeTimes)
+            out.writeLong(time);
+        out.writeInt(header.length);
+        out.write(header);
+    }
+
+    public static Mp4Index read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("Invalid index");
+
+        Mp4Index index = new Mp4Index();
+        index.fileSize = in.readLong();
+        index.headerOffset = in.readLong();
+        index.fastStart = in.readBoolean();
+        index.duration = in.readLong();
+        index.width = in.readInt();
+        index.height = in.readInt();
+        index.sampleCount = in.readInt();
+        index.keyframeTimes = new long[in.readInt()];
+        for (int i = 0; i < index.keyframeTimes.length; i++)
+            index.keyframeTimes[i] = in.readLong();
+        index.header = new byte[in.readInt()];
+        in.readFully(index.header);
+        return index;
+    }
+
+    protected void parseBoxes(byte[] data, int start, int end, Track track) throws IOException {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = readUInt32(data, position);
+            int type = readInt(data, position + 4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (position + 16 > end)
+                    break;
+                size = readLong(data, position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end)
+                throw new IOException("Invalid box at " + position);
+
+            int body = position + headerSize;
+            int bodyEnd = (int) (position + size);
+            switch (type) {
+                case TYPE_MOOV:
+                case TYPE_MDIA:
+                case TYPE_MINF:
+                case TYPE_STBL:
+                    parseBoxes(data, body, bodyEnd, track);
+                    break;
+                case TYPE_TRAK: {
+                    Track trak = new Track();
+                    parseBoxes(data, body, bodyEnd, trak);
+                    onTrack(trak);
+                    break;
+                }
+                case TYPE_MVHD: {
+                    // version(1) flags(3) creation modification timescale duration
+                    boolean v1 = data[body] == 1;
+                    long timescale = readUInt32(data, body + (v1 ? 20 : 12));
+                    long length = v1 ? readLong(data, body + 24) : readUInt32(data, body + 16);
+                    if (timescale > 0)
+                        duration = length * 1000L / timescale;
+                    break;
+                }
+                case TYPE_TKHD: {
+                    // Width and height (16.16 fixed point) close the box
+                    if (track != null) {
+                        track.width = readInt(data, bodyEnd - 8) >>> 16;
+                        track.height = readInt(data, bodyEnd - 4) >>> 16;
+                    }
+                    break;
+                }
+                case TYPE_MDHD: {
+                    if (track != null)
+                        track.timescale = readUInt32(data, body + (data[body] == 1 ? 20 : 12));
+                    break;
+                }
+                case TYPE_HDLR: {
+                    // version/flags(4) pre_defined(4) handler_type
+                    if (track != null)
+                        track.handler = readInt(data, body + 8);
+                    break;
+                }
+                case TYPE_STTS: {
+                    if (track != null) {
+                        int count = checkCount(readInt(data, body + 4), body + 8, 8, bodyEnd);
+                        track.sttsCounts = new int[count];
+                        track.sttsDeltas = new int[count];
+                        for (int i = 0; i < count; i++) {
+                            track.sttsCounts[i] = readInt(data, body + 8 + i * 8);
+                            track.sttsDeltas[i] = readInt(data, body + 12 + i * 8);
+                        }
+                    }
+                    break;
+                }
+                case TYPE_STSS: {
+                    if (track != null) {
+                        int count = checkCount(readInt(data, body + 4), body + 8, 4, bodyEnd);
+                        track.syncSamples = new int[count];
+                        for (int i = 0; i < count; i++)
+                            track.syncSamples[i] = readInt(data, body + 8 + i * 4);
+                    }
+                    break;
+                }
+                case TYPE_STSZ: {
+                    // version/flags(4) sample_size(4) sample_count(4)
+                    if (track != null)
+                        track.sampleCount = readInt(data, body + 8);
+                    break;
+                }
+            }
+            position = bodyEnd;
+        }
+    }
+
+    /**
+     * Keeps the first video track
+     */
+    protected void onTrack(Track track) {
+        if (track.handler != HANDLER_VIDEO || sampleCount > 0)
+            return;
+
+        width = track.width;
+        height = track.height;
+        sampleCount = track.sampleCount;
+        if (track.syncSamples == null || track.sttsCounts == null || track.timescale <= 0)
+            return;
+
+        // Sample numbers (1-based, sorted) to decode times, walking the time-to-sample table
+        long[] times = new long[track.syncSamples.length];
+        int found = 0;
+        long time = 0;
+        int sample = 1;
+        for (int entry = 0; entry < track.sttsCounts.length && found < times.length; entry++) {
+            int last = sample + track.sttsCounts[entry];
+            while (found < times.length && track.syncSamples[found] < last) {
+                long sampleTime = time + (long) (track.syncSamples[found] - sample) * track.sttsDeltas[entry];
+                times[found++] = sampleTime * 1000L / track.timescale;
+            }
+            time += (long) track.sttsCounts[entry] * track.sttsDeltas[entry];
+            sample = last;
+        }
+        if (found < times.length) {
+            keyframeTimes = new long[found];
+            System.arraycopy(times, 0, keyframeTimes, 0, found);
+        } else {
+            keyframeTimes = times;
+        }
+    }
+
+    protected static int checkCount(int count, int start, int entrySize, int end) throws IOException {
+        if (count < 0 || (long) count * entrySize > end - start)
+            throw new IOException("Invalid table size: " + count);
+        return count;
+    }
+
+    protected static int readInt(byte[] data, int position) {
+        return ((data[position] & 0xff) << 24) |
+                ((data[position + 1] & 0xff) << 16) |
+                ((data[position + 2] & 0xff) << 8) |
+                (data[position + 3] & 0xff);
+    }
+
+    protected static long readUInt32(byte[] data, int position) {
+        return readInt(data, position) & 0xffffffffL;
+    }
+
+    protected static long readLong(byte[] data, int position) {
+        return (readUInt32(data, position) << 32) | readUInt32(data, position + 4);
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.res.AssetFileDescriptor;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single file holding many clips one after another.
+ * <p>
+ * The file is opened once and every clip is played from the same {@link FileDescriptor}
+ * using its offset and length, so nothing is copied or opened per clip.
+ * The index maps clip names to their ranges and is read from a text stream with one
+ * clip per line: {@code name offset length}, where offsets are relative to the beginning of the pack.
+ * <p>
+ * Keep it open while any view is playing from it.
+ *
+ * @see FullscreenVideoView#setVideoPackEntry(PackFile, String)
+ */
+public class PackFile implements Closeable {
+
+    /**
+     * Range of one clip inside the pack
+     */
+    public static class Entry {
+        protected final String name;
+        protected final long offset;
+        protected final long length;
+
+        public Entry(String name, long offset, long length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    protected final FileDescriptor fileDescriptor;
+    protected final long baseOffset;
+    protected final long length;
+    protected final Map<String, Entry> entries = new HashMap<>();
+
+    protected RandomAccessFile file;
+    protected AssetFileDescriptor asset;
+
+    protected PackFile(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.fileDescriptor = file.getFD();
+        this.baseOffset = 0;
+        this.length = file.length();
+    }
+
+    protected PackFile(AssetFileDescriptor asset) {
+        this.asset = asset;
+        this.fileDescriptor = asset.getFileDescriptor();
+        this.baseOffset = asset.getStartOffset();
+        this.length = asset.getLength();
+    }
+
+    public static PackFile open(File file) throws IOException {
+        return new PackFile(new RandomAccessFile(file, "r"));
+    }
+
+    /**
+     * Opens a pack stored as an asset or raw resource. It must be stored uncompressed in the APK.
+     *
+     * @param asset Descriptor from AssetManager.openFd() or Resources.openRawResourceFd()
+     */
+    public static PackFile open(AssetFileDescriptor asset) {
+        return new PackFile(asset);
+    }
+
+    /**
+     * Reads the index (one {@code name offset length} line per clip)
+     *
+     * @param in Index content. It is not closed
+     */
+    public PackFile readIndex(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3)
+                throw new IOException("Invalid pack index line: " + line);
+
+            try {
+                addEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pack index line: " + line);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a clip
+     *
+     * @param name   Name used by {@link #getEntry(String)}
+     * @param offset Offset relative to the beginning of the pack
+     * @param length Length in bytes
+     */
+    public PackFile addEntry(String name, long offset, long length) {
+        if (offset < 0 || length <= 0 || offset + length > this.length)
+            throw new IllegalArgumentException("Entry " + name + " is out of the pack bounds");
+
+        entries.put(name, new Entry(name, offset, length));
+        return this;
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        return fileDescriptor;
+    }
+
+    /**
+     * Offset of the pack inside the file descriptor (not 0 for assets)
+     */
+    public long getBaseOffset() {
+        return baseOffset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        if (asset != null) {
+            asset.close();
+            asset = null;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaPlayer;
+import android.media.MediaTimestamp;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * Playback position without a call to the player on every read.
+ * <p>
+ * {@link FullscreenVideoView} anchors it on prepare, start, pause, seek, buffering and completion.
+ * In between, the position is extrapolated from the anchor with
+ * {@link SystemClock#elapsedRealtimeNanos()} (elapsedRealtime() before API 17) and the playback rate.
+ * The anchor is refreshed from the player at most once every sync interval,
+ * using MediaPlayer.getTimestamp() on API 23+ and getCurrentPosition() otherwise.
+ * Duration is read once after prepare.
+ * <p>
+ * Readers may call {@link #getPosition()} at frame rate, from any thread.
+ */
+public class PlaybackClock {
+
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    // A resync that moves the position back less than this is ignored while running
+    protected static final long BACKWARD_TOLERANCE_US = 100000;
+
+    protected PlayerEngine engine;
+    protected long syncIntervalNs;
+
+    protected long anchorPositionUs;
+    protected long anchorTimeNs;
+    protected long lastSyncNs;
+    protected long lastPositionUs;
+    protected float rate;
+    protected int duration;
+    protected boolean playing, stalled, looping;
+
+    public PlaybackClock() {
+        setSyncInterval(DEFAULT_SYNC_INTERVAL);
+        reset();
+    }
+
+    /**
+     * @param engine Player used to refresh the anchor. May be null
+     */
+    public synchronized void setEngine(PlayerEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @param msec How often, at most, the anchor is refreshed from the player while playing
+     */
+    public synchronized void setSyncInterval(long msec) {
+        this.syncIntervalNs = msec * 1000000L;
+    }
+
+    /**
+     * Forgets the current video. Like MediaPlayer.reset(), it also clears looping
+     */
+    public synchronized void reset() {
+        anchorPositionUs = 0;
+        anchorTimeNs = now();
+        lastSyncNs = 0;
+        lastPositionUs = 0;
+        rate = 1.0f;
+        duration = -1;
+        playing = false;
+        stalled = false;
+        looping = false;
+    }
+
+    public synchronized void onPrepared(int duration) {
+        this.duration = duration;
+    }
+
+    public synchronized void onStart() {
+        anchorPositionUs = currentPositionUs();
+        anchorTimeNs = now();
+        playing = true;
+        stalled = false;
+        // Playback begins after some latency: asks the player on the next read
+        lastSyncNs = 0;
+    }
+
+    public synchronized void onPause() {
+        sync();
+        anchorPositionUs = currentPositionUs();
+        anchorTimeNs = now();
+        playing = false;
+    }
+
+    /**
+     * The position jumps to msec and stays there until the next start
+     */
+    public synchronized void onSeek(int msec) {
+        anchorPositionUs = msec * 1000L;
+        anchorTimeNs = now();
+        lastPositionUs = anchorPositionUs;
+        playing = false;
+    }
+
+    /**
+     * Buffering started (stalled = true) or ended
+     */
+    public synchronized void onStall(boolean stalled) {
+        if (stalled == this.stalled)
+            return;
+
+        anchorPositionUs = currentPositionUs();
+        anchorTimeNs = now();
+        this.stalled = stalled;
+        if (!stalled)
+            lastSyncNs = 0;
+    }
+
+    public synchronized void onCompletion() {
+        if (duration > 0)
+            anchorPositionUs = duration * 1000L;
+        anchorTimeNs = now();
+        lastPositionUs = anchorPositionUs;
+        playing = false;
+    }
+
+    public synchronized void setRate(float rate) {
+        anchorPositionUs = currentPositionUs();
+        anchorTimeNs = now();
+        this.rate = rate;
+    }
+
+    public synchronized void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    /**
+     * @return Position in msec
+     */
+    public int getPosition() {
+        return (int) (getPositionUs() / 1000);
+    }
+
+    /**
+     * @return Position in microseconds
+     */
+    public synchronized long getPositionUs() {
+        if (playing && !stalled && now() - lastSyncNs >= syncIntervalNs)
+            sync();
+
+        long position = currentPositionUs();
+        if (playing && !stalled && position < lastPositionUs && lastPositionUs - position < BACKWARD_TOLERANCE_US)
+            return lastPositionUs;
+
+        lastPositionUs = position;
+        return position;
+    }
+
+    /**
+     * @return Duration in msec read after prepare, or -1
+     */
+    public synchronized int getDuration() {
+        return duration;
+    }
+
+    public synchronized boolean isRunning() {
+        return playing && !stalled;
+    }
+
+    protected long currentPositionUs() {
+        long position = anchorPositionUs;
+        if (playing && !stalled)
+            position += (long) ((now() - anchorTimeNs) / 1000L * rate);
+
+        if (duration > 0) {
+            long durationUs = duration * 1000L;
+            if (looping)
+                position %= durationUs;
+            else if (position > durationUs)
+                position = durationUs;
+        }
+        return position;
+    }
+
+    /**
+     * Refreshes the anchor from the player
+     */
+    protected void sync() {
+        lastSyncNs = now();
+        if (engine == null)
+            return;
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && syncTimestamp())
+                return;
+
+            anchorPositionUs = engine.getCurrentPosition() * 1000L;
+            anchorTimeNs = now();
+        } catch (IllegalStateException e) {
+            // Not in a state where the position can be read. Keeps extrapolating
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    protected boolean syncTimestamp() {
+        MediaPlayer mediaPlayer = engine.getMediaPlayer();
+        if (mediaPlayer == null)
+            return false;
+
+        MediaTimestamp timestamp = mediaPlayer.getTimestamp();
+        if (timestamp == null)
+            return false;
+
+        // The anchor is in System.nanoTime() time base
+        anchorTimeNs = timestamp.getAnchorSytemNanoTime() + (now() - System.nanoTime());
+        anchorPositionUs = timestamp.getAnchorMediaTimeUs();
+        if (timestamp.getMediaClockRate() > 0)
+            rate = timestamp.getMediaClockRate();
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    protected long now() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            return SystemClock.elapsedRealtimeNanos();
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+}
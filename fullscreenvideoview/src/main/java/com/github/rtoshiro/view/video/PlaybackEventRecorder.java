@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records playback events of {@link FullscreenVideoView}s for analytics, off the callback thread.
+ * <p>
+ * Events are primitive records written into preallocated arrays used as a single-producer,
+ * single-consumer ring buffer: recording is a few array stores and an ordered write, with no
+ * lock and no allocation. A background thread drains them in batches (every flush interval,
+ * or sooner when the buffer is half full) and hands the batches to the {@link Exporter}s.
+ * <p>
+ * Only one thread may record: the main thread, where player callbacks arrive.
+ * When the buffer is full, {@link #OVERFLOW_DROP_NEWEST} drops new events and
+ * {@link #OVERFLOW_OVERWRITE_OLDEST} overwrites the oldest ones not exported yet.
+ *
+ * @see FullscreenVideoView#setPlaybackEventRecorder(PlaybackEventRecorder)
+ */
+public class PlaybackEventRecorder {
+
+    private final static String TAG = "PlaybackEventRecorder";
+
+    public static final int TYPE_STATE = 1; // arg1: State ordinal
+    public static final int TYPE_PREPARED = 2; // value: duration
+    public static final int TYPE_BUFFERING = 3; // arg1: percent
+    public static final int TYPE_INFO = 4; // arg1: what, arg2: extra
+    public static final int TYPE_ERROR = 5; // arg1: what, arg2: extra
+    public static final int TYPE_SEEK = 6; // value: target position
+    public static final int TYPE_SEEK_COMPLETE = 7;
+    public static final int TYPE_VIDEO_SIZE = 8; // arg1: width, arg2: height
+    public static final int TYPE_COMPLETION = 9;
+
+    public static final int OVERFLOW_DROP_NEWEST = 0;
+    public static final int OVERFLOW_OVERWRITE_OLDEST = 1;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     * Receives batches on the recorder thread
+     */
+    public interface Exporter {
+        /**
+         * @param batch Only valid during the call
+         */
+        void export(Batch batch) throws IOException;
+
+        /**
+         * Called after the last batch, when the recorder stops
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * Events drained together. Arrays are reused: read them, do not keep them
+     */
+    public static class Batch {
+        public final long[] times; // SystemClock.elapsedRealtime()
+        public final int[] sources; // Which view
+        public final int[] types;
+        public final int[] args1;
+        public final int[] args2;
+        public final long[] values; // Usually the playback position
+        public int size;
+
+        protected Batch(int capacity) {
+            times = new long[capacity];
+            sources = new int[capacity];
+            types = new int[capacity];
+            args1 = new int[capacity];
+            args2 = new int[capacity];
+            values = new long[capacity];
+        }
+
+        protected void removeFirst(int count) {
+            int remaining = size - count;
+            System.arraycopy(times, count, times, 0, remaining);
+            System.arraycopy(sources, count, sources, 0, remaining);
+            System.arraycopy(types, count, types, 0, remaining);
+            System.arraycopy(args1, count, args1, 0, remaining);
+            System.arraycopy(args2, count, args2, 0, remaining);
+            System.arraycopy(values, count, values, 0, remaining);
+            size = remaining;
+        }
+    }
+
+    // Ring buffer, one slot per event
+    protected final int capacity;
+    protected final int mask;
+    protected final long[] times;
+    protected final int[] sources;
+    protected final int[] types;
+    protected final int[] args1;
+    protected final int[] args2;
+    protected final long[] values;
+
+    protected final AtomicLong head = new AtomicLong(); // Next slot to write. Producer only
+    protected final AtomicLong tail = new AtomicLong(); // Next slot to read. Consumer only
+    protected final int overflow;
+
+    protected final Batch batch;
+    protected final List<Exporter> exporters = new ArrayList<>();
+    protected final long flushIntervalNs;
+    protected volatile Thread thread;
+    protected volatile boolean running;
+
+    protected volatile long dropped; // Producer only
+    protected volatile long overwritten; // Consumer only
+    protected volatile long exported; // Consumer only
+
+    public PlaybackEventRecorder() {
+        this(DEFAULT_CAPACITY, OVERFLOW_DROP_NEWEST, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param capacity      Events held, rounded up to a power of two
+     * @param overflow      OVERFLOW_ constant
+     * @param flushInterval How often (msec) events are exported, at most
+     */
+    public PlaybackEventRecorder(int capacity, int overflow, long flushInterval) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.times = new long[size];
+        this.sources = new int[size];
+        this.types = new int[size];
+        this.args1 = new int[size];
+        this.args2 = new int[size];
+        this.values = new long[size];
+        this.overflow = overflow;
+        this.batch = new Batch(size);
+        this.flushIntervalNs = flushInterval * 1000000L;
+    }
+
+    /**
+     * Adds an exporter. Call it before {@link #start()}
+     */
+    public PlaybackEventRecorder addExporter(Exporter exporter) {
+        synchronized (exporters) {
+            exporters.add(exporter);
+        }
+        return this;
+    }
+
+    /**
+     * Starts the background export
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                exportLoop();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Exports what is left and closes the exporters
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+
+        running = false;
+        Thread current = thread;
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Records an event. Producer thread only; never blocks nor allocates.
+     *
+     * @param source Which view (see {@link #sourceOf(Object)})
+     * @param type   TYPE_ constant
+     * @return false if it was dropped
+     */
+    public boolean record(int source, int type, int arg1, int arg2, long value) {
+        long index = head.get();
+        long pending = index - tail.get();
+        if (pending >= capacity && overflow == OVERFLOW_DROP_NEWEST) {
+            dropped++;
+            return false;
+        }
+
+        int slot = (int) (index & mask);
+        times[slot] = SystemClock.elapsedRealtime();
+        sources[slot] = source;
+        types[slot] = type;
+        args1[slot] = arg1;
+        args2[slot] = arg2;
+        values[slot] = value;
+        // Publishes the slot after its fields
+        head.lazySet(index + 1);
+
+        if (pending + 1 == capacity / 2) {
+            Thread consumer = thread;
+            if (consumer != null)
+                LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * @return Id of a view for {@link #record(int, int, int, int, long)}
+     */
+    public static int sourceOf(Object view) {
+        return System.identityHashCode(view);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Events recorded, dropped or not
+     */
+    public long getRecordedCount() {
+        return head.get() + dropped;
+    }
+
+    /**
+     * @return Events dropped on a full buffer ({@link #OVERFLOW_DROP_NEWEST})
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return Events overwritten before being exported ({@link #OVERFLOW_OVERWRITE_OLDEST})
+     */
+    public long getOverwrittenCount() {
+        return overwritten;
+    }
+
+    public long getExportedCount() {
+        return exported;
+    }
+
+    protected void exportLoop() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNs);
+            drain();
+        }
+        drain();
+
+        synchronized (exporters) {
+            for (Exporter exporter : exporters) {
+                try {
+                    exporter.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close - " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies pending events into the batch and exports them. Consumer thread only
+     */
+    protected void drain() {
+        while (true) {
+            long start = tail.get();
+            long end = head.get();
+            if (end - start > capacity) {
+                // Lapped by the producer
+                overwritten += end - capacity - start;
+                start = end - capacity;
+            }
+            if (end == start) {
+                tail.lazySet(start);
+                return;
+            }
+
+            int count = (int) (end - start);
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((start + i) & mask);
+                batch.times[i] = times[slot];
+                batch.sources[i] = sources[slot];
+                batch.types[i] = types[slot];
+                batch.args1[i] = args1[slot];
+                batch.args2[i] = args2[slot];
+                batch.values[i] = values[slot];
+            }
+            batch.size = count;
+
+            if (overflow == OVERFLOW_OVERWRITE_OLDEST) {
+                // Slots the producer reached while copying may be torn
+                long firstValid = head.get() - capacity + 1;
+                if (firstValid > start) {
+                    int lost = (int) Math.min(count, firstValid - start);
+                    overwritten += lost;
+                    batch.removeFirst(lost);
+                }
+            }
+            tail.lazySet(end);
+
+            if (batch.size > 0)
+                export();
+        }
+    }
+
+    protected void export() {
+        synchronized (exporters) {
+            for (Exporter exporter : exporters) {
+                try {
+                    exporter.export(batch);
+                } catch (IOException e) {
+                    Log.e(TAG, "export - " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // A broken exporter must not stop the others
+                    Log.e(TAG, "export - " + e);
+                }
+            }
+        }
+        exported += batch.size;
+    }
+
+    /**
+     * @return Readable name of a TYPE_ constant
+     */
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_STATE:
+                return "state";
+            case TYPE_PREPARED:
+                return "prepared";
+            case TYPE_BUFFERING:
+                return "buffering";
+            case TYPE_INFO:
+                return "info";
+            case TYPE_ERROR:
+                return "error";
+            case TYPE_SEEK:
+                return "seek";
+            case TYPE_SEEK_COMPLETE:
+                return "seekComplete";
+            case TYPE_VIDEO_SIZE:
+                return "videoSize";
+            case TYPE_COMPLETION:
+                return "completion";
+            default:
+                return String.valueOf(type);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a set of {@link FullscreenVideoView} playing together.
+ * <p>
+ * start() is held until every member is PREPARED, seeks are issued as a batch
+ * and playback resumes only after every member has completed its seek.
+ * While playing, the drift of each member against the first one (the leader)
+ * is periodically corrected by changing its playback speed (API 23+)
+ * or, when the drift is too large, by seeking it to the leader position.
+ * <p>
+ * All methods must be called from the main thread.
+ */
+public class PlaybackGroup {
+
+    /**
+     * Debug Tag for use logging debug output to LogCat
+     */
+    private final static String TAG = "PlaybackGroup";
+
+    protected final List<FullscreenVideoView> members = new ArrayList<>();
+    protected final Handler handler = new Handler(Looper.getMainLooper());
+
+    protected boolean startRequested;
+    protected boolean resumeAfterSeek;
+    protected final List<FullscreenVideoView> seekingMembers = new ArrayList<>(); // Seeks issued by seekTo() not completed yet
+
+    protected long syncInterval = 500;
+    protected int speedThreshold = 40;
+    protected int microSeekThreshold = 250;
+    protected float speedCorrection = 0.05f;
+
+    protected int lastSkew, maxSkew;
+
+    protected Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronize();
+
+            // Nothing to correct once every member completed or stopped
+            if (startRequested && isAnyPlaying())
+                handler.postDelayed(this, syncInterval);
+        }
+    };
+
+    /**
+     * Adds a view to the group. The first added view is used as the reference clock.
+     *
+     * @param view The view to synchronize
+     */
+    public void add(FullscreenVideoView view) {
+        if (view.playbackGroup != null && view.playbackGroup != this)
+            view.playbackGroup.remove(view);
+
+        if (!members.contains(view)) {
+            members.add(view);
+            view.playbackGroup = this;
+        }
+    }
+
+    /**
+     * Removes a view. Views leave their group when they are released
+     */
+    public void remove(FullscreenVideoView view) {
+        if (members.remove(view))
+            view.playbackGroup = null;
+
+        // Nobody else to wait for
+        if (seekingMembers.remove(view) && seekingMembers.isEmpty() && resumeAfterSeek && isPrepared())
+            startAll();
+    }
+
+    public List<FullscreenVideoView> getMembers() {
+        return members;
+    }
+
+    /**
+     * Tells if every member is ready to play
+     *
+     * @return true if all members reached PREPARED (or any later playable state)
+     */
+    public boolean isPrepared() {
+        for (FullscreenVideoView member : members) {
+            if (!isPlayable(member.getCurrentState()))
+                return false;
+        }
+        return !members.isEmpty();
+    }
+
+    protected boolean isAnyPlaying() {
+        for (FullscreenVideoView member : members)
+            if (member.getCurrentState() == FullscreenVideoView.State.STARTED)
+                return true;
+        return false;
+    }
+
+    protected static boolean isPlayable(FullscreenVideoView.State state) {
+        return state == FullscreenVideoView.State.PREPARED ||
+                state == FullscreenVideoView.State.STARTED ||
+                state == FullscreenVideoView.State.PAUSED ||
+                state == FullscreenVideoView.State.PLAYBACKCOMPLETED;
+    }
+
+    /**
+     * Starts all members. If some of them are not prepared yet,
+     * it waits for the last one and starts them all together.
+     */
+    public void start() {
+        Log.d(TAG, "start");
+
+        startRequested = true;
+        if (isPrepared() && seekingMembers.isEmpty())
+            startAll();
+    }
+
+    public void pause() {
+        Log.d(TAG, "pause");
+
+        startRequested = false;
+        resumeAfterSeek = false;
+        handler.removeCallbacks(syncRunnable);
+        pauseAll();
+    }
+
+    /**
+     * Pauses all members, seeks them to the same position and resumes them
+     * only after every seek is completed.
+     *
+     * @param msec the offset in milliseconds from the start to seek to
+     */
+    public void seekTo(int msec) {
+        Log.d(TAG, "seekTo = " + msec);
+
+        handler.removeCallbacks(syncRunnable);
+        pauseAll();
+
+        resumeAfterSeek = startRequested;
+        seekingMembers.clear();
+        for (FullscreenVideoView member : members) {
+            FullscreenVideoView.State state = member.getCurrentState();
+            if (state == FullscreenVideoView.State.INITIALIZED || state == FullscreenVideoView.State.PREPARING) {
+                // Seeking an unprepared player is an invalid state: tryToPrepare() seeks before the first frame
+                member.pendingSeekPosition = msec;
+                continue;
+            }
+            if (!isPlayable(state))
+                continue;
+
+            int duration = member.getDuration();
+            // No live streaming
+            if (duration > -1) {
+                int position = Math.min(msec, duration);
+                // Suspended members and frames played from memory seek without a callback
+                if (!member.isSuspended() && !member.isLoopFrameCacheActive())
+                    seekingMembers.add(member);
+                member.seekTo(position);
+            }
+        }
+
+        if (seekingMembers.isEmpty() && resumeAfterSeek && isPrepared())
+            startAll();
+    }
+
+    /**
+     * Last measured difference (msec) between the most advanced and the most delayed member
+     */
+    public int getSkew() {
+        return lastSkew;
+    }
+
+    /**
+     * Biggest skew (msec) measured since the group was created or {@link #resetSkew()} was called
+     */
+    public int getMaxSkew() {
+        return maxSkew;
+    }
+
+    public void resetSkew() {
+        lastSkew = 0;
+        maxSkew = 0;
+    }
+
+    /**
+     * Interval between drift corrections
+     *
+     * @param syncInterval Interval in milliseconds. Default is 500
+     */
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    /**
+     * Drift (msec) from which the playback speed of a member is corrected
+     *
+     * @param speedThreshold Drift in milliseconds. Default is 40
+     */
+    public void setSpeedThreshold(int speedThreshold) {
+        this.speedThreshold = speedThreshold;
+    }
+
+    /**
+     * Drift (msec) from which a member is seeked to the leader position
+     *
+     * @param microSeekThreshold Drift in milliseconds. Default is 250
+     */
+    public void setMicroSeekThreshold(int microSeekThreshold) {
+        this.microSeekThreshold = microSeekThreshold;
+    }
+
+    /**
+     * How much the playback speed is changed to catch up with the leader
+     *
+     * @param speedCorrection Fraction of the normal speed. Default is 0.05f (5%)
+     */
+    public void setSpeedCorrection(float speedCorrection) {
+        this.speedCorrection = speedCorrection;
+    }
+
+    protected void onMemberPrepared(FullscreenVideoView member) {
+        Log.d(TAG, "onMemberPrepared");
+
+        if (startRequested && seekingMembers.isEmpty() && isPrepared())
+            startAll();
+    }
+
+    /**
+     * Only completions of seeks issued by {@link #seekTo(int)} count: restore seeks and
+     * drift corrections do not
+     */
+    protected void onMemberSeekComplete(FullscreenVideoView member) {
+        if (!seekingMembers.remove(member))
+            return;
+
+        if (seekingMembers.isEmpty() && resumeAfterSeek && isPrepared())
+            startAll();
+    }
+
+    protected void startAll() {
+        Log.d(TAG, "startAll");
+
+        for (FullscreenVideoView member : members) {
+            if (!isPlayable(member.getCurrentState()))
+                continue;
+            member.setPlaybackSpeed(1.0f);
+            if (!member.isPlaying())
+                member.start();
+        }
+
+        handler.removeCallbacks(syncRunnable);
+        handler.postDelayed(syncRunnable, syncInterval);
+    }
+
+    protected void pauseAll() {
+        for (FullscreenVideoView member : members) {
+            FullscreenVideoView.State state = member.getCurrentState();
+            if (!isPlayable(state))
+                continue;
+            if (state == FullscreenVideoView.State.STARTED)
+                member.pause();
+            member.setPlaybackSpeed(1.0f);
+        }
+    }
+
+    /**
+     * Measures the skew and corrects the members that drifted away from the leader
+     */
+    protected void synchronize() {
+        if (members.size() < 2) {
+            lastSkew = 0;
+            return;
+        }
+
+        FullscreenVideoView leader = members.get(0);
+        if (leader.getCurrentState() != FullscreenVideoView.State.STARTED)
+            return;
+
+        int reference = leader.getCurrentPosition();
+        int min = reference, max = reference;
+
+        for (int i = 1; i < members.size(); i++) {
+            FullscreenVideoView member = members.get(i);
+            if (member.getCurrentState() != FullscreenVideoView.State.STARTED)
+                continue;
+
+            int position = member.getCurrentPosition();
+            min = Math.min(min, position);
+            max = Math.max(max, position);
+
+            int drift = position - reference;
+            if (Math.abs(drift) >= microSeekThreshold) {
+                Log.d(TAG, "synchronize - micro seek, drift: " + drift);
+                member.setPlaybackSpeed(1.0f);
+                member.seekTo(reference);
+            } else if (Math.abs(drift) >= speedThreshold) {
+                member.setPlaybackSpeed(drift > 0 ? 1.0f - speedCorrection : 1.0f + speedCorrection);
+            } else {
+                member.setPlaybackSpeed(1.0f);
+            }
+        }
+
+        lastSkew = max - min;
+        maxSkew = Math.max(maxSkew, lastSkew);
+    }
+}
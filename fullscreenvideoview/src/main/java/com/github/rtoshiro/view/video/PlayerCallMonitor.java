@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Latency of the player calls made by {@link FullscreenVideoView}s.
+ * <p>
+ * Each call is recorded in a histogram of fixed log-linear buckets (16 sub-buckets per power
+ * of two of microseconds, about 6% precision), so recording never allocates.
+ * Calls made on the main thread are counted apart, and the ones longer than the threshold
+ * are flagged as slow. {@link #dump()} sorts calls by time spent on the main thread,
+ * which shows the lifecycle transitions worth moving off it.
+ *
+ * @see FullscreenVideoView#setPlayerCallMonitor(PlayerCallMonitor)
+ * @see MonitoredPlayerEngine
+ */
+public class PlayerCallMonitor {
+
+    private final static String TAG = "PlayerCallMonitor";
+
+    public static final long DEFAULT_SLOW_THRESHOLD = 16;
+
+    /**
+     * Monitored player calls
+     */
+    public enum Call {
+        SET_DATA_SOURCE, PREPARE_ASYNC, START, PAUSE, STOP, SEEK_TO, RESET, RELEASE,
+        SET_SURFACE, SET_DISPLAY, SET_VOLUME, SET_LOOPING, SET_PLAYBACK_SPEED,
+        IS_PLAYING, GET_CURRENT_POSITION, GET_DURATION, GET_VIDEO_SIZE, OTHER
+    }
+
+    /**
+     * Called on the thread of the slow call
+     */
+    public interface OnSlowCallListener {
+        void onSlowCall(Call call, long durationUs);
+    }
+
+    protected static final int SUB_BITS = 4;
+    protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+    protected static final int MAX_MAGNITUDE = 36; // 2^36 us, about 19 hours
+    protected static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BITS + 1) * SUB_BUCKETS;
+
+    protected final long[][] buckets = new long[Call.values().length][BUCKET_COUNT];
+    protected final long[] counts = new long[Call.values().length];
+    protected final long[] maxUs = new long[Call.values().length];
+    protected final long[] mainThreadCounts = new long[Call.values().length];
+    protected final long[] mainThreadUs = new long[Call.values().length];
+    protected final long[] slowCounts = new long[Call.values().length];
+
+    protected long slowThresholdUs;
+    protected OnSlowCallListener slowCallListener;
+
+    public PlayerCallMonitor() {
+        this(DEFAULT_SLOW_THRESHOLD);
+    }
+
+    /**
+     * @param slowThreshold Main thread calls longer than this (msec) are flagged
+     */
+    public PlayerCallMonitor(long slowThreshold) {
+        this.slowThresholdUs = slowThreshold * 1000L;
+    }
+
+    public void setSlowThreshold(long msec) {
+        this.slowThresholdUs = msec * 1000L;
+    }
+
+    public long getSlowThreshold() {
+        return slowThresholdUs / 1000L;
+    }
+
+    public void setOnSlowCallListener(OnSlowCallListener listener) {
+        this.slowCallListener = listener;
+    }
+
+    /**
+     * @return Start time to give to {@link #end(Call, long)}
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(Call call, long begin) {
+        record(call, (System.nanoTime() - begin) / 1000L, Looper.myLooper() == Looper.getMainLooper());
+    }
+
+    /**
+     * @param durationUs Call duration in microseconds
+     * @param mainThread true if it was made on the main thread
+     */
+    public void record(Call call, long durationUs, boolean mainThread) {
+        int index = call.ordinal();
+        boolean slow = mainThread && durationUs > slowThresholdUs;
+
+        synchronized (this) {
+            buckets[index][bucketIndex(durationUs)]++;
+            counts[index]++;
+            if (durationUs > maxUs[index])
+                maxUs[index] = durationUs;
+            if (mainThread) {
+                mainThreadCounts[index]++;
+                mainThreadUs[index] += durationUs;
+            }
+            if (slow)
+                slowCounts[index]++;
+        }
+
+        if (slow) {
+            Log.w(TAG, call + " took " + (durationUs / 1000) + " ms on the main thread");
+            if (slowCallListener != null)
+                slowCallListener.onSlowCall(call, durationUs);
+        }
+    }
+
+    public synchronized long getCount(Call call) {
+        return counts[call.ordinal()];
+    }
+
+    public synchronized long getSlowCount(Call call) {
+        return slowCounts[call.ordinal()];
+    }
+
+    public synchronized long getMainThreadCount(Call call) {
+        return mainThreadCounts[call.ordinal()];
+    }
+
+    /**
+     * @return Total time (microseconds) spent in this call on the main thread
+     */
+    public synchronized long getMainThreadTime(Call call) {
+        return mainThreadUs[call.ordinal()];
+    }
+
+    public synchronized long getMax(Call call) {
+        return maxUs[call.ordinal()];
+    }
+
+    /**
+     * @param percentile 0..100
+     * @return Upper bound (microseconds) of the bucket holding that percentile, or 0 without samples
+     */
+    public synchronized long getPercentile(Call call, double percentile) {
+        int index = call.ordinal();
+        long count = counts[index];
+        if (count == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        long[] histogram = buckets[index];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histogram[i];
+            if (seen >= target)
+                return Math.min(maxUs[index], bucketUpperBound(i));
+        }
+        return maxUs[index];
+    }
+
+    public synchronized void clear() {
+        for (long[] histogram : buckets)
+            Arrays.fill(histogram, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(maxUs, 0);
+        Arrays.fill(mainThreadCounts, 0);
+        Arrays.fill(mainThreadUs, 0);
+        Arrays.fill(slowCounts, 0);
+    }
+
+    /**
+     * @return Report for bug reports: one line per call, the most main-thread time first
+     */
+    public String dump() {
+        StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        Call[] calls = Call.values();
+        Arrays.sort(calls, new Comparator<Call>() {
+            @Override
+            public int compare(Call a, Call b) {
+                long ta = mainThreadUs[a.ordinal()];
+                long tb = mainThreadUs[b.ordinal()];
+                return ta < tb ? 1 : (ta == tb ? 0 : -1);
+            }
+        });
+
+        writer.println(String.format(Locale.US, "%s (slow > %d ms, times in ms)", TAG, getSlowThreshold()));
+        writer.println(String.format(Locale.US, "%-21s %8s %8s %6s %9s %8s %8s %8s %8s",
+                "call", "count", "main", "slow", "mainTime", "p50", "p90", "p99", "max"));
+        for (Call call : calls) {
+            int index = call.ordinal();
+            if (counts[index] == 0)
+                continue;
+
+            writer.println(String.format(Locale.US, "%-21s %8d %8d %6d %9.1f %8.2f %8.2f %8.2f %8.2f",
+                    call, counts[index], mainThreadCounts[index], slowCounts[index],
+                    mainThreadUs[index] / 1000.0,
+                    getPercentile(call, 50) / 1000.0,
+                    getPercentile(call, 90) / 1000.0,
+                    getPercentile(call, 99) / 1000.0,
+                    maxUs[index] / 1000.0));
+        }
+        writer.flush();
+    }
+
+    protected static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE)
+            return BUCKET_COUNT - 1;
+
+        int shift = magnitude - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    protected static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
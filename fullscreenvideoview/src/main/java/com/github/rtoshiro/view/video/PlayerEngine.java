@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Player used by {@link FullscreenVideoView}.
+ * <p>
+ * It exposes the subset of {@link MediaPlayer} the view depends on, with the same method names
+ * and the same state contract, so other players can be plugged in.
+ * Listeners are the MediaPlayer ones: engines that are not backed by a MediaPlayer
+ * call them with a null MediaPlayer argument.
+ *
+ * @see <a href="http://developer.android.com/reference/android/media/MediaPlayer.html#StateDiagram">MediaPlayer</a>
+ */
+public interface PlayerEngine {
+
+    /**
+     * Creates the engine used by a {@link FullscreenVideoView}
+     */
+    interface Factory {
+        PlayerEngine create(Context context);
+    }
+
+    void setDataSource(Context context, Uri uri) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException;
+
+    void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException;
+
+    void setDataSource(FileDescriptor fd, long offset, long length) throws IOException, IllegalArgumentException, IllegalStateException;
+
+    /**
+     * Only called on API 23+
+     */
+    void setDataSource(MediaDataSource dataSource) throws IllegalArgumentException, IllegalStateException;
+
+    void prepareAsync() throws IllegalStateException;
+
+    void start() throws IllegalStateException;
+
+    void pause() throws IllegalStateException;
+
+    void stop() throws IllegalStateException;
+
+    void seekTo(int msec) throws IllegalStateException;
+
+    void reset();
+
+    void release();
+
+    void setSurface(Surface surface);
+
+    void setDisplay(SurfaceHolder holder);
+
+    void setAudioStreamType(int streamType);
+
+    void setLooping(boolean looping);
+
+    boolean isLooping();
+
+    boolean isPlaying();
+
+    void setVolume(float leftVolume, float rightVolume);
+
+    /**
+     * Changes the playback rate
+     *
+     * @param speed Playback rate. 1.0f is the normal speed
+     * @return false if the engine does not support changing speed
+     */
+    boolean setPlaybackSpeed(float speed);
+
+    /**
+     * Size (in pixels) where the video is displayed. Engines that can choose
+     * between renditions use it to avoid decoding more than what is shown.
+     */
+    void setViewportSize(int width, int height);
+
+    int getCurrentPosition();
+
+    int getDuration();
+
+    int getVideoWidth();
+
+    int getVideoHeight();
+
+    /**
+     * Returns the MediaPlayer behind this engine
+     *
+     * @return The MediaPlayer or null if the engine is not backed by one
+     */
+    MediaPlayer getMediaPlayer();
+
+    /**
+     * @return false if the engine renders nothing (a simulation, for instance),
+     * so it is ready without waiting for a surface
+     */
+    boolean requiresSurface();
+
+    void setOnBufferingUpdateListener(OnBufferingUpdateListener listener);
+
+    void setOnCompletionListener(OnCompletionListener listener);
+
+    void setOnErrorListener(OnErrorListener listener);
+
+    void setOnInfoListener(OnInfoListener listener);
+
+    void setOnPreparedListener(OnPreparedListener listener);
+
+    void setOnSeekCompleteListener(OnSeekCompleteListener listener);
+
+    void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener);
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Suspends players when the system is low on memory.
+ * <p>
+ * Every {@link FullscreenVideoView} registers itself. On onTrimMemory(), the {@link Policy}
+ * maps the level to an action: suspend paused players that are not on screen, or suspend
+ * every player except the foreground one (the last started). Suspended players release their
+ * MediaPlayer and keep their position and last frame; see {@link FullscreenVideoView#suspend(boolean)}.
+ * Players still loading are only suspended by {@link #ACTION_SUSPEND_ALL_BUT_FOREGROUND}.
+ * <p>
+ * Main thread only. Available on API 14+.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class PlayerMemoryManager implements ComponentCallbacks2 {
+
+    private final static String TAG = "PlayerMemoryManager";
+
+    public static final int ACTION_NONE = 0;
+    public static final int ACTION_SUSPEND_PAUSED_OFFSCREEN = 1;
+    public static final int ACTION_SUSPEND_ALL_BUT_FOREGROUND = 2;
+
+    /**
+     * Chooses what to do for a trim level
+     */
+    public interface Policy {
+        /**
+         * @param level onTrimMemory() level
+         * @return One of the ACTION_ constants
+         */
+        int getAction(int level);
+    }
+
+    /**
+     * Paused off-screen players go when memory is getting low, the UI is hidden or the process
+     * is in the background LRU list. Everything but the foreground player goes when memory is
+     * critical or the process is next to be killed.
+     */
+    public static final Policy DEFAULT_POLICY = new Policy() {
+        @Override
+        public int getAction(int level) {
+            switch (level) {
+                case TRIM_MEMORY_RUNNING_CRITICAL:
+                case TRIM_MEMORY_COMPLETE:
+                    return ACTION_SUSPEND_ALL_BUT_FOREGROUND;
+                case TRIM_MEMORY_RUNNING_MODERATE:
+                case TRIM_MEMORY_RUNNING_LOW:
+                case TRIM_MEMORY_UI_HIDDEN:
+                case TRIM_MEMORY_BACKGROUND:
+                case TRIM_MEMORY_MODERATE:
+                    return ACTION_SUSPEND_PAUSED_OFFSCREEN;
+                default:
+                    return ACTION_NONE;
+            }
+        }
+    };
+
+    private static PlayerMemoryManager instance;
+
+    protected final List<WeakReference<FullscreenVideoView>> players = new ArrayList<>();
+    protected WeakReference<FullscreenVideoView> foreground;
+    protected Policy policy = DEFAULT_POLICY;
+    protected boolean enabled = true;
+    protected boolean keepPosters = true;
+
+    protected int lastTrimLevel = -1;
+    protected int trimCount;
+    protected int suspendTotal;
+
+    /**
+     * @return The manager of this process, registered with the application context
+     */
+    public static PlayerMemoryManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new PlayerMemoryManager();
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    protected PlayerMemoryManager() {
+    }
+
+    public void register(FullscreenVideoView player) {
+        if (indexOf(player) < 0)
+            players.add(new WeakReference<>(player));
+    }
+
+    public void unregister(FullscreenVideoView player) {
+        int index = indexOf(player);
+        if (index >= 0)
+            players.remove(index);
+        if (foreground != null && foreground.get() == player)
+            foreground = null;
+    }
+
+    /**
+     * The last started player is the foreground one
+     */
+    public void onPlayerStarted(FullscreenVideoView player) {
+        if (foreground == null || foreground.get() != player)
+            foreground = new WeakReference<>(player);
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy != null ? policy : DEFAULT_POLICY;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param keepPosters false to not keep the last frame of players suspended
+     *                    by {@link #ACTION_SUSPEND_PAUSED_OFFSCREEN}. Critical levels never keep it
+     */
+    public void setKeepPosters(boolean keepPosters) {
+        this.keepPosters = keepPosters;
+    }
+
+    /**
+     * @return Registered players
+     */
+    public int getPlayerCount() {
+        prune();
+        return players.size();
+    }
+
+    /**
+     * @return Registered players currently suspended
+     */
+    public int getSuspendedCount() {
+        int count = 0;
+        for (int i = 0; i < players.size(); i++) {
+            FullscreenVideoView player = players.get(i).get();
+            if (player != null && player.isSuspended())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Players suspended by this manager since the process started
+     */
+    public int getSuspendTotal() {
+        return suspendTotal;
+    }
+
+    /**
+     * @return onTrimMemory() calls that led to an action
+     */
+    public int getTrimCount() {
+        return trimCount;
+    }
+
+    public int getLastTrimLevel() {
+        return lastTrimLevel;
+    }
+
+    public FullscreenVideoView getForegroundPlayer() {
+        return foreground != null ? foreground.get() : null;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        lastTrimLevel = level;
+        if (!enabled)
+            return;
+
+        int action = policy.getAction(level);
+        Log.d(TAG, "onTrimMemory - level: " + level + " - action: " + action);
+        if (action != ACTION_NONE) {
+            trimCount++;
+            trim(action);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (enabled) {
+            trimCount++;
+            trim(ACTION_SUSPEND_ALL_BUT_FOREGROUND);
+        }
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Applies an action right away
+     *
+     * @return Number of players suspended
+     */
+    public int trim(int action) {
+        if (action == ACTION_NONE)
+            return 0;
+
+        prune();
+        FullscreenVideoView foregroundPlayer = getForegroundPlayer();
+        List<FullscreenVideoView> targets = new ArrayList<>();
+        for (int i = 0; i < players.size(); i++) {
+            FullscreenVideoView player = players.get(i).get();
+            if (player != null && player != foregroundPlayer && !player.isSuspended())
+                targets.add(player);
+        }
+
+        int suspended = 0;
+        for (FullscreenVideoView player : targets) {
+            boolean keepPoster;
+            if (action == ACTION_SUSPEND_PAUSED_OFFSCREEN) {
+                if (isLoading(player) || player.isPlaying() || player.isVisibleOnScreen())
+                    continue;
+                keepPoster = keepPosters;
+            } else {
+                if (player.isPlaying())
+                    player.pause();
+                keepPoster = false;
+            }
+
+            if (player.suspend(keepPoster))
+                suspended++;
+        }
+
+        suspendTotal += suspended;
+        Log.d(TAG, "trim - suspended: " + suspended + " of " + players.size());
+        return suspended;
+    }
+
+    protected static boolean isLoading(FullscreenVideoView player) {
+        FullscreenVideoView.State state = player.getCurrentState();
+        return state == FullscreenVideoView.State.INITIALIZED || state == FullscreenVideoView.State.PREPARING;
+    }
+
+    protected int indexOf(FullscreenVideoView player) {
+        for (int i = 0; i < players.size(); i++)
+            if (players.get(i).get() == player)
+                return i;
+        return -1;
+    }
+
+    protected void prune() {
+        for (int i = players.size() - 1; i >= 0; i--)
+            if (players.get(i).get() == null)
+                players.remove(i);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Postpones prepares while a list scrolls fast.
+ * <p>
+ * Feed it the scroll of the list (onScrolled deltas, fling velocity, idle state). While the
+ * velocity is above the threshold, views that use this scheduler set their source but do not
+ * prepare it. When the scroll slows down or stops, only the deferred views that ended up on
+ * screen are prepared; the others wait for the next settle, or are simply rebound.
+ * <p>
+ * Main thread only.
+ *
+ * @see FullscreenVideoView#setPrepareScheduler(PrepareScheduler)
+ */
+public class PrepareScheduler {
+
+    private final static String TAG = "PrepareScheduler";
+
+    public static final float DEFAULT_VELOCITY_THRESHOLD = 1500; // dp per second
+
+    protected static final float SMOOTHING = 0.5f;
+    protected static final long MAX_SAMPLE_GAP = 100; // msec. Older samples mean the scroll stopped
+
+    protected final List<WeakReference<FullscreenVideoView>> deferred = new ArrayList<>();
+    protected float velocityThreshold; // px per second
+    protected float velocity; // px per second, smoothed
+    protected long lastScrollTime;
+
+    protected int deferredTotal;
+    protected int preparedTotal;
+
+    public PrepareScheduler(Context context) {
+        this.velocityThreshold = DEFAULT_VELOCITY_THRESHOLD * context.getResources().getDisplayMetrics().density;
+    }
+
+    /**
+     * @param pxPerSecond Prepares are deferred above this scroll velocity
+     */
+    public void setVelocityThreshold(float pxPerSecond) {
+        this.velocityThreshold = pxPerSecond;
+    }
+
+    public float getVelocityThreshold() {
+        return velocityThreshold;
+    }
+
+    /**
+     * @return Current scroll velocity estimate in px per second
+     */
+    public float getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * @return true while prepares are being deferred
+     */
+    public boolean isDeferring() {
+        return velocity > velocityThreshold;
+    }
+
+    /**
+     * Scroll deltas of the list (RecyclerView.OnScrollListener.onScrolled, for instance)
+     */
+    public void onScrolled(int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollTime;
+        lastScrollTime = now;
+
+        float distance = (float) Math.sqrt((double) dx * dx + (double) dy * dy);
+        if (elapsed <= 0 || elapsed > MAX_SAMPLE_GAP) {
+            // First sample of a scroll: no time base yet
+            if (elapsed > MAX_SAMPLE_GAP)
+                velocity = 0;
+            return;
+        }
+
+        velocity = velocity * SMOOTHING + (distance * 1000f / elapsed) * (1 - SMOOTHING);
+        if (!isDeferring())
+            flush();
+    }
+
+    /**
+     * Fling start velocity, known before the first scrolled frame
+     * (RecyclerView.OnFlingListener, for instance). Always returns false, so the fling goes on.
+     */
+    public boolean onFling(int velocityX, int velocityY) {
+        velocity = (float) Math.sqrt((double) velocityX * velocityX + (double) velocityY * velocityY);
+        lastScrollTime = SystemClock.uptimeMillis();
+        return false;
+    }
+
+    /**
+     * The list stopped scrolling: prepares deferred views that are on screen
+     */
+    public void onScrollIdle() {
+        velocity = 0;
+        flush();
+    }
+
+    /**
+     * Called by a view about to prepare
+     *
+     * @return true if the view must wait for {@link #flush()}
+     */
+    public boolean defer(FullscreenVideoView view) {
+        if (!isDeferring())
+            return false;
+
+        if (indexOf(view) < 0)
+            deferred.add(new WeakReference<>(view));
+        deferredTotal++;
+        return true;
+    }
+
+    /**
+     * Forgets a view (reset or released)
+     */
+    public void cancel(FullscreenVideoView view) {
+        int index = indexOf(view);
+        if (index >= 0)
+            deferred.remove(index);
+    }
+
+    /**
+     * Prepares the deferred views that are on screen
+     *
+     * @return Number of views prepared
+     */
+    public int flush() {
+        if (deferred.isEmpty())
+            return 0;
+
+        List<FullscreenVideoView> visible = new ArrayList<>();
+        for (int i = deferred.size() - 1; i >= 0; i--) {
+            FullscreenVideoView view = deferred.get(i).get();
+            if (view == null || !view.isPrepareDeferred()) {
+                deferred.remove(i);
+            } else if (view.isVisibleOnScreen()) {
+                deferred.remove(i);
+                visible.add(view);
+            }
+        }
+
+        for (FullscreenVideoView view : visible)
+            view.prepareDeferred();
+
+        preparedTotal += visible.size();
+        if (!visible.isEmpty())
+            Log.d(TAG, "flush - prepared: " + visible.size() + " - still deferred: " + deferred.size());
+        return visible.size();
+    }
+
+    /**
+     * @return Prepares deferred since it was created
+     */
+    public int getDeferredTotal() {
+        return deferredTotal;
+    }
+
+    /**
+     * @return Deferred prepares run by {@link #flush()}. The difference with
+     * {@link #getDeferredTotal()} is the prepares a fling did not waste
+     */
+    public int getPreparedTotal() {
+        return preparedTotal;
+    }
+
+    protected int indexOf(FullscreenVideoView view) {
+        for (int i = 0; i < deferred.size(); i++)
+            if (deferred.get(i).get() == view)
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.net.Uri;
+
+/**
+ * One encoding of a video: where it is, its resolution and its bitrate.
+ * Width, height and bandwidth are 0 when they are unknown.
+ */
+public class Rendition {
+
+    protected final Uri uri;
+    protected final int width;
+    protected final int height;
+    protected final int bandwidth;
+
+    public Rendition(Uri uri, int width, int height, int bandwidth) {
+        this.uri = uri;
+        this.width = width;
+        this.height = height;
+        this.bandwidth = bandwidth;
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Peak bitrate in bits per second, or 0 if unknown
+     */
+    public int getBandwidth() {
+        return bandwidth;
+    }
+
+    @Override
+    public String toString() {
+        return "Rendition " + width + "x" + height + " @" + bandwidth + " - " + uri;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Set of {@link Rendition} of the same video, registered by resolution.
+ * {@link FullscreenVideoView} uses it to play the smallest one that covers the area it is displayed on.
+ *
+ * @see FullscreenVideoView#setVideoRenditions(RenditionSelector)
+ */
+public class RenditionSelector {
+
+    protected final List<Rendition> renditions = new ArrayList<>();
+
+    public RenditionSelector add(Uri uri, int width, int height) {
+        return add(new Rendition(uri, width, height, 0));
+    }
+
+    public RenditionSelector add(Rendition rendition) {
+        renditions.add(rendition);
+        Collections.sort(renditions, new Comparator<Rendition>() {
+            @Override
+            public int compare(Rendition lhs, Rendition rhs) {
+                long l = (long) lhs.getWidth() * lhs.getHeight();
+                long r = (long) rhs.getWidth() * rhs.getHeight();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return Renditions sorted by resolution (smallest first)
+     */
+    public List<Rendition> getRenditions() {
+        return renditions;
+    }
+
+    /**
+     * Returns the smallest rendition that covers the viewport
+     *
+     * @param width  Viewport width in pixels
+     * @param height Viewport height in pixels
+     * @return The rendition, the biggest one if none covers the viewport or null if it is empty
+     */
+    public Rendition select(int width, int height) {
+        if (renditions.isEmpty())
+            return null;
+
+        for (Rendition rendition : renditions) {
+            if (rendition.getWidth() >= width && rendition.getHeight() >= height)
+                return rendition;
+        }
+        return renditions.get(renditions.size() - 1);
+    }
+}
@@ -0,0 +1,565 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.media.MediaDataSource;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnBufferingUpdateListener;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.media.MediaPlayer.OnSeekCompleteListener;
+import android.media.MediaPlayer.OnVideoSizeChangedListener;
+import android.net.Uri;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.FileDescriptor;
+import java.util.Random;
+
+/**
+ * {@link PlayerEngine} that plays nothing: it follows MediaPlayer's state contract and fires
+ * its callbacks on a {@link VirtualClock}, with latencies drawn from {@link LatencyDistribution}s.
+ * <p>
+ * No decoder, surface or network is involved, so a {@link FullscreenVideoView} (or a whole feed
+ * of them) runs headless and reproducibly: under Robolectric, for instance, to measure
+ * scheduling, preloading and UI update costs. Advance the clock to make things happen.
+ * <p>
+ * Prepare fires onVideoSizeChanged then onPrepared. Buffering progresses at
+ * {@link Profile#setDownloadSpeed(float)} times real time and fires onBufferingUpdate;
+ * playback that catches up with it stalls with MEDIA_INFO_BUFFERING_START/END.
+ * Calls in an invalid state throw IllegalStateException. Listeners get a null MediaPlayer.
+ *
+ * @see #factory(VirtualClock, Profile, long)
+ */
+public class SimulatedPlayerEngine implements PlayerEngine {
+
+    protected enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, STOPPED, PLAYBACK_COMPLETED, ERROR, END
+    }
+
+    /**
+     * What the simulated videos look like. Shared by the engines of a factory
+     */
+    public static class Profile {
+        protected int duration = 30000;
+        protected int width = 1280, height = 720;
+        protected LatencyDistribution prepareLatency = LatencyDistribution.logNormal(300, 0.5);
+        protected LatencyDistribution seekLatency = LatencyDistribution.logNormal(80, 0.5);
+        protected int initialBuffer = 5000;
+        protected int rebufferGoal = 2000;
+        protected float downloadSpeed = 2.0f;
+        protected long bufferingInterval = 1000;
+        protected float errorRate;
+
+        /**
+         * @param duration Video duration in msec
+         */
+        public Profile setDuration(int duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        public Profile setVideoSize(int width, int height) {
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        public Profile setPrepareLatency(LatencyDistribution latency) {
+            this.prepareLatency = latency;
+            return this;
+        }
+
+        public Profile setSeekLatency(LatencyDistribution latency) {
+            this.seekLatency = latency;
+            return this;
+        }
+
+        /**
+         * @param initialBuffer Media (msec) buffered when prepared
+         * @param rebufferGoal  Media (msec) buffered ahead before a stall ends
+         */
+        public Profile setBuffer(int initialBuffer, int rebufferGoal) {
+            this.initialBuffer = initialBuffer;
+            this.rebufferGoal = rebufferGoal;
+            return this;
+        }
+
+        /**
+         * @param speed Media downloaded per unit of time. Below 1 playback stalls
+         */
+        public Profile setDownloadSpeed(float speed) {
+            this.downloadSpeed = speed;
+            return this;
+        }
+
+        /**
+         * @param msec How often onBufferingUpdate fires while downloading
+         */
+        public Profile setBufferingInterval(long msec) {
+            this.bufferingInterval = msec;
+            return this;
+        }
+
+        /**
+         * @param rate Probability (0..1) that a prepare fails with MEDIA_ERROR_IO
+         */
+        public Profile setErrorRate(float rate) {
+            this.errorRate = rate;
+            return this;
+        }
+    }
+
+    /**
+     * Creates engines sharing a clock and a profile. Engine n uses seed + n,
+     * so a run creating engines in the same order is reproducible.
+     */
+    public static PlayerEngine.Factory factory(final VirtualClock clock, final Profile profile, final long seed) {
+        return new PlayerEngine.Factory() {
+            long created;
+
+            @Override
+            public PlayerEngine create(Context context) {
+                return new SimulatedPlayerEngine(clock, profile, seed + created++);
+            }
+        };
+    }
+
+    protected final VirtualClock clock;
+    protected final Profile profile;
+    protected final Random random;
+
+    protected State state = State.IDLE;
+    protected int generation; // Scheduled callbacks of older generations are ignored
+    protected boolean looping;
+    protected float speed = 1.0f;
+
+    // Position = positionBase + (now - positionTime) * speed, while running
+    protected long positionBase;
+    protected long positionTime;
+    protected boolean running;
+    protected boolean stalled;
+    protected long buffered; // msec of media
+    protected Object completionTask;
+
+    protected int prepareCount, seekCount, stallCount;
+
+    protected OnBufferingUpdateListener bufferingUpdateListener;
+    protected OnCompletionListener completionListener;
+    protected OnErrorListener errorListener;
+    protected OnInfoListener infoListener;
+    protected OnPreparedListener preparedListener;
+    protected OnSeekCompleteListener seekCompleteListener;
+    protected OnVideoSizeChangedListener videoSizeChangedListener;
+
+    public SimulatedPlayerEngine(VirtualClock clock, Profile profile, long seed) {
+        this.clock = clock;
+        this.profile = profile;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void setDataSource(Context context, Uri uri) {
+        setDataSource();
+    }
+
+    @Override
+    public void setDataSource(String path) {
+        setDataSource();
+    }
+
+    @Override
+    public void setDataSource(FileDescriptor fd, long offset, long length) {
+        setDataSource();
+    }
+
+    @Override
+    public void setDataSource(MediaDataSource dataSource) {
+        setDataSource();
+    }
+
+    protected void setDataSource() {
+        check("setDataSource", State.IDLE);
+        state = State.INITIALIZED;
+    }
+
+    @Override
+    public void prepareAsync() {
+        check("prepareAsync", State.INITIALIZED, State.STOPPED);
+        state = State.PREPARING;
+        prepareCount++;
+
+        final int token = generation;
+        clock.schedule(profile.prepareLatency.sample(random), new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation || state != State.PREPARING)
+                    return;
+
+                if (random.nextFloat() < profile.errorRate) {
+                    fail(MediaPlayer.MEDIA_ERROR_IO);
+                    return;
+                }
+
+                state = State.PREPARED;
+                positionBase = 0;
+                buffered = Math.min(profile.initialBuffer, profile.duration);
+                if (videoSizeChangedListener != null)
+                    videoSizeChangedListener.onVideoSizeChanged(null, profile.width, profile.height);
+                if (preparedListener != null)
+                    preparedListener.onPrepared(null);
+                scheduleBuffering(token);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        check("start", State.PREPARED, State.STARTED, State.PAUSED, State.PLAYBACK_COMPLETED);
+        if (state == State.PLAYBACK_COMPLETED)
+            positionBase = 0;
+
+        state = State.STARTED;
+        resume();
+    }
+
+    @Override
+    public void pause() {
+        check("pause", State.STARTED, State.PAUSED, State.PLAYBACK_COMPLETED);
+        if (state == State.PLAYBACK_COMPLETED)
+            return;
+
+        suspend();
+        state = State.PAUSED;
+    }
+
+    @Override
+    public void stop() {
+        check("stop", State.PREPARED, State.STARTED, State.PAUSED, State.STOPPED, State.PLAYBACK_COMPLETED);
+        suspend();
+        generation++;
+        state = State.STOPPED;
+    }
+
+    @Override
+    public void seekTo(final int msec) {
+        check("seekTo", State.PREPARED, State.STARTED, State.PAUSED, State.PLAYBACK_COMPLETED);
+        seekCount++;
+
+        boolean wasRunning = running;
+        suspend();
+        positionBase = Math.max(0, Math.min(msec, profile.duration));
+        // Seeking past the buffer downloads from the new position
+        if (positionBase > buffered)
+            buffered = positionBase;
+        if (wasRunning)
+            resume();
+
+        final int token = generation;
+        clock.schedule(profile.seekLatency.sample(random), new Runnable() {
+            @Override
+            public void run() {
+                if (token == generation && seekCompleteListener != null)
+                    seekCompleteListener.onSeekComplete(null);
+            }
+        });
+    }
+
+    @Override
+    public void reset() {
+        suspend();
+        generation++;
+        state = State.IDLE;
+        positionBase = 0;
+        buffered = 0;
+        stalled = false;
+        looping = false;
+        speed = 1.0f;
+    }
+
+    @Override
+    public void release() {
+        reset();
+        state = State.END;
+    }
+
+    @Override
+    public void setSurface(Surface surface) {
+    }
+
+    @Override
+    public void setDisplay(SurfaceHolder holder) {
+    }
+
+    @Override
+    public void setAudioStreamType(int streamType) {
+    }
+
+    @Override
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    @Override
+    public boolean isLooping() {
+        return looping;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return state == State.STARTED;
+    }
+
+    @Override
+    public void setVolume(float leftVolume, float rightVolume) {
+    }
+
+    @Override
+    public boolean setPlaybackSpeed(float speed) {
+        boolean wasRunning = running;
+        suspend();
+        this.speed = speed;
+        if (wasRunning)
+            resume();
+        return true;
+    }
+
+    @Override
+    public void setViewportSize(int width, int height) {
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        return (int) position();
+    }
+
+    @Override
+    public int getDuration() {
+        switch (state) {
+            case PREPARED:
+            case STARTED:
+            case PAUSED:
+            case STOPPED:
+            case PLAYBACK_COMPLETED:
+                return profile.duration;
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public int getVideoWidth() {
+        return getDuration() > 0 ? profile.width : 0;
+    }
+
+    @Override
+    public int getVideoHeight() {
+        return getDuration() > 0 ? profile.height : 0;
+    }
+
+    @Override
+    public MediaPlayer getMediaPlayer() {
+        return null;
+    }
+
+    /**
+     * Nothing is drawn, so views driven by it prepare without a surface (under Robolectric,
+     * for instance, where no SurfaceTexture becomes available)
+     */
+    @Override
+    public boolean requiresSurface() {
+        return false;
+    }
+
+    /**
+     * @return prepareAsync() calls since it was created
+     */
+    public int getPrepareCount() {
+        return prepareCount;
+    }
+
+    public int getSeekCount() {
+        return seekCount;
+    }
+
+    /**
+     * @return Times playback caught up with the buffer
+     */
+    public int getStallCount() {
+        return stallCount;
+    }
+
+    /**
+     * @return Media (msec) downloaded from the current position onwards
+     */
+    public long getBufferedPosition() {
+        return buffered;
+    }
+
+    protected long position() {
+        long position = positionBase;
+        if (running && !stalled)
+            position += (long) ((clock.now() - positionTime) * speed);
+        return Math.min(position, Math.min(buffered, profile.duration));
+    }
+
+    /**
+     * Freezes the position
+     */
+    protected void suspend() {
+        positionBase = position();
+        running = false;
+        if (completionTask != null) {
+            clock.cancel(completionTask);
+            completionTask = null;
+        }
+    }
+
+    /**
+     * Moves the position with the clock, and schedules completion
+     */
+    protected void resume() {
+        positionBase = position();
+        positionTime = clock.now();
+        running = true;
+        scheduleCompletion();
+    }
+
+    protected void scheduleCompletion() {
+        if (completionTask != null)
+            clock.cancel(completionTask);
+
+        long remaining = (long) Math.ceil((profile.duration - position()) / speed);
+        final int token = generation;
+        completionTask = clock.schedule(Math.max(1, remaining), new Runnable() {
+            @Override
+            public void run() {
+                completionTask = null;
+                if (token != generation || !running)
+                    return;
+
+                // Stalls delay the end: checks again later
+                if (position() < profile.duration) {
+                    scheduleCompletion();
+                    return;
+                }
+
+                if (looping) {
+                    positionBase = 0;
+                    positionTime = clock.now();
+                    scheduleCompletion();
+                    return;
+                }
+
+                suspend();
+                state = State.PLAYBACK_COMPLETED;
+                if (completionListener != null)
+                    completionListener.onCompletion(null);
+            }
+        });
+    }
+
+    protected void scheduleBuffering(final int token) {
+        if (buffered >= profile.duration && !stalled)
+            return;
+
+        clock.schedule(profile.bufferingInterval, new Runnable() {
+            @Override
+            public void run() {
+                if (token != generation)
+                    return;
+
+                long position = position();
+                buffered = Math.min(profile.duration, buffered + (long) (profile.bufferingInterval * profile.downloadSpeed));
+                if (bufferingUpdateListener != null)
+                    bufferingUpdateListener.onBufferingUpdate(null, (int) (buffered * 100 / Math.max(1, profile.duration)));
+
+                if (running && !stalled && position >= buffered && buffered < profile.duration) {
+                    // Caught up with the download
+                    positionBase = position;
+                    stalled = true;
+                    stallCount++;
+                    info(MediaPlayer.MEDIA_INFO_BUFFERING_START);
+                } else if (stalled && (buffered >= position + profile.rebufferGoal || buffered >= profile.duration)) {
+                    stalled = false;
+                    positionTime = clock.now();
+                    info(MediaPlayer.MEDIA_INFO_BUFFERING_END);
+                }
+                scheduleBuffering(token);
+            }
+        });
+    }
+
+    protected void info(int what) {
+        if (infoListener != null)
+            infoListener.onInfo(null, what, 0);
+    }
+
+    protected void fail(int extra) {
+        suspend();
+        generation++;
+        state = State.ERROR;
+        if (errorListener == null || !errorListener.onError(null, MediaPlayer.MEDIA_ERROR_UNKNOWN, extra)) {
+            if (completionListener != null)
+                completionListener.onCompletion(null);
+        }
+    }
+
+    protected void check(String method, State... valid) {
+        for (State s : valid)
+            if (state == s)
+                return;
+        throw new IllegalStateException(method + " called in state " + state);
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        this.bufferingUpdateListener = listener;
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        this.completionListener = listener;
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        this.errorListener = listener;
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        this.infoListener = listener;
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        this.preparedListener = listener;
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        this.seekCompleteListener = listener;
+    }
+
+    @Override
+    public void setOnVideoSizeChangedListener(OnVideoSizeChangedListener listener) {
+        this.videoSizeChangedListener = listener;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * {@link MediaDataSource} that reads a {@link ChunkSource} ahead of the player on a background thread.
+ * <p>
+ * Fetched chunks go through an optional {@link ChunkTransform} (to decrypt, for instance)
+ * and are kept in a ring buffer. Reads near the last one are served from the buffer;
+ * reads anywhere else (seeks, container index at the end of the file) move the buffer window.
+ * <p>
+ * {@link #close()} (called by MediaPlayer on reset/release) only stops fetching, so the same
+ * instance can be played again. Call {@link #release()} to close the chunk source.
+ * Available on API 23+.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class StreamingDataSource extends MediaDataSource {
+
+    private final static String TAG = "StreamingDataSource";
+
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+    public static final int DEFAULT_READ_AHEAD = 2 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    protected static final long READ_TIMEOUT = 30000;
+
+    protected final ChunkSource source;
+    protected final ChunkTransform transform;
+    protected final byte[] ring;
+    protected final byte[] chunk;
+    protected final int readAhead;
+
+    protected final Object lock = new Object();
+
+    // Buffered window [bufferStart, bufferEnd), in video positions. Guarded by lock
+    protected long bufferStart, bufferEnd;
+    protected long readPosition;
+    protected int generation;
+    protected boolean endOfSource;
+    protected boolean closed;
+    protected IOException error;
+    protected Thread fetchThread;
+
+    public StreamingDataSource(ChunkSource source) {
+        this(source, null, DEFAULT_CAPACITY, DEFAULT_READ_AHEAD, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param source    Where bytes come from
+     * @param transform Applied to each fetched chunk. May be null
+     * @param capacity  Ring buffer size in bytes
+     * @param readAhead How many bytes to fetch ahead of the last read. Must not exceed capacity
+     * @param chunkSize Size of each fetch
+     */
+    public StreamingDataSource(ChunkSource source, ChunkTransform transform, int capacity, int readAhead, int chunkSize) {
+        if (readAhead > capacity)
+            throw new IllegalArgumentException("readAhead must not exceed capacity");
+
+        this.source = source;
+        this.transform = transform;
+        this.ring = new byte[capacity];
+        this.chunk = new byte[Math.min(chunkSize, capacity)];
+        this.readAhead = readAhead;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0)
+            return 0;
+
+        synchronized (lock) {
+            if (closed) {
+                // Played again after close()
+                closed = false;
+                error = null;
+            }
+            ensureFetching();
+
+            // Out of the window (or too far ahead): moves it
+            if (position < bufferStart || position > bufferEnd + chunk.length) {
+                bufferStart = position;
+                bufferEnd = position;
+                endOfSource = false;
+                error = null;
+                generation++;
+            }
+            readPosition = position;
+            lock.notifyAll();
+
+            long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+            while (bufferEnd <= position && !endOfSource && error == null && !closed) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new IOException("Timeout reading at " + position);
+                try {
+                    lock.wait(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted reading at " + position);
+                }
+            }
+
+            if (bufferEnd <= position) {
+                if (error != null)
+                    throw error;
+                return -1;
+            }
+
+            int length = (int) Math.min(size, bufferEnd - position);
+            int start = (int) (position % ring.length);
+            int first = Math.min(length, ring.length - start);
+            System.arraycopy(ring, start, buffer, offset, first);
+            if (first < length)
+                System.arraycopy(ring, 0, buffer, offset + first, length - first);
+
+            readPosition = position + length;
+            lock.notifyAll();
+            return length;
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return source.getSize();
+    }
+
+    /**
+     * Stops fetching and drops the buffer. The source stays open.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            generation++;
+            bufferStart = bufferEnd = readPosition = 0;
+            endOfSource = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops fetching and closes the chunk source
+     */
+    public void release() throws IOException {
+        close();
+        source.close();
+    }
+
+    /**
+     * @return Bytes buffered ahead of the last read
+     */
+    public long getBufferedAhead() {
+        synchronized (lock) {
+            return Math.max(0, bufferEnd - readPosition);
+        }
+    }
+
+    protected void ensureFetching() {
+        if (fetchThread != null && fetchThread.isAlive())
+            return;
+
+        fetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetchLoop();
+            }
+        }, TAG);
+        fetchThread.setDaemon(true);
+        fetchThread.start();
+    }
+
+    protected void fetchLoop() {
+        while (true) {
+            long position;
+            int length;
+            int token;
+
+            synchronized (lock) {
+                // Waits until there is something to fetch
+                while (!closed && (endOfSource || error != null || bufferEnd - readPosition >= readAhead)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+
+                position = bufferEnd;
+                token = generation;
+                length = (int) Math.min(chunk.length, readAhead - (bufferEnd - readPosition));
+            }
+
+            int read;
+            IOException failure = null;
+            try {
+                read = source.read(position, chunk, 0, length);
+                if (read > 0 && transform != null)
+                    transform.transform(position, chunk, 0, read);
+            } catch (IOException e) {
+                Log.e(TAG, "fetch - " + e.getMessage());
+                read = 0;
+                failure = e;
+            }
+
+            synchronized (lock) {
+                // The window moved while fetching: drops this chunk
+                if (token != generation)
+                    continue;
+
+                if (failure != null) {
+                    error = failure;
+                } else if (read <= 0) {
+                    endOfSource = true;
+                } else {
+                    int start = (int) (position % ring.length);
+                    int first = Math.min(read, ring.length - start);
+                    System.arraycopy(chunk, 0, ring, start, first);
+                    if (first < read)
+                        System.arraycopy(chunk, first, ring, 0, read - first);
+
+                    bufferEnd += read;
+                    // Overwrites the oldest bytes, already read by the player
+                    if (bufferEnd - bufferStart > ring.length)
+                        bufferStart = bufferEnd - ring.length;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Captions or timed annotations parsed from WebVTT or SRT.
+ * <p>
+ * Cues are kept in arrays sorted by start time, along with the running maximum of their
+ * end times. {@link #getActiveCues(long, int[])} keeps the set of cues showing at the last
+ * lookup: as playback moves forward, cues that started join it and cues that ended leave it,
+ * so a call only costs the cues showing plus the ones that started since the previous call.
+ * Going back (or adding cues) rebuilds it with a binary search, walking back only while
+ * earlier cues may still be showing.
+ * <p>
+ * Parsing publishes cues in batches: a track being loaded with {@link #loadAsync(File, OnLoadListener)}
+ * can already be shown while the rest of the file is read.
+ */
+public class TimedTextTrack {
+
+    private final static String TAG = "TimedTextTrack";
+
+    protected static final int BATCH_SIZE = 64;
+
+    /**
+     * Called on the main thread when {@link #loadAsync(File, OnLoadListener)} ends
+     */
+    public interface OnLoadListener {
+        /**
+         * @param error null if the whole file was parsed
+         */
+        void onLoaded(TimedTextTrack track, IOException error);
+    }
+
+    protected long[] starts = new long[BATCH_SIZE];
+    protected long[] ends = new long[BATCH_SIZE];
+    protected long[] maxEnds = new long[BATCH_SIZE]; // maxEnds[i] = max(ends[0..i])
+    protected String[] texts = new String[BATCH_SIZE];
+    protected int count;
+    protected int modificationCount; // Increased when cues are added: indexes may have moved
+
+    protected int cursor = -1; // Last cue that started at the last lookup
+    protected long lastPosition = -1; // Of the last lookup. -1 if active must be rebuilt
+    protected int[] active = new int[8]; // Cues showing at lastPosition, in start order
+    protected int activeCount;
+    protected long nextChange = Long.MAX_VALUE;
+
+    /**
+     * Parses a WebVTT or SRT file in the background
+     *
+     * @param file     Local file
+     * @param listener May be null
+     * @return The track, filled while the file is read
+     */
+    public static TimedTextTrack loadAsync(final File file, final OnLoadListener listener) {
+        final TimedTextTrack track = new TimedTextTrack();
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                    try {
+                        track.parse(reader);
+                    } finally {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "loadAsync - " + e.getMessage());
+                    error = e;
+                }
+
+                if (listener != null) {
+                    final IOException result = error;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onLoaded(track, result);
+                        }
+                    });
+                }
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        return track;
+    }
+
+    /**
+     * Parses WebVTT or SRT content and adds its cues. Cue ids, headers, NOTE and STYLE blocks
+     * are skipped, as well as markup tags inside cue text.
+     *
+     * @param in Content. It is not closed
+     */
+    public void parse(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        StringBuilder text = new StringBuilder();
+        long[] batchStarts = new long[BATCH_SIZE];
+        long[] batchEnds = new long[BATCH_SIZE];
+        String[] batchTexts = new String[BATCH_SIZE];
+        int batchCount = 0;
+
+        long start = -1, end = -1;
+        String line;
+        do {
+            line = reader.readLine();
+
+            if (line == null || line.trim().length() == 0) {
+                // End of a block
+                if (start >= 0) {
+                    batchStarts[batchCount] = start;
+                    batchEnds[batchCount] = end;
+                    batchTexts[batchCount] = text.toString();
+                    if (++batchCount == BATCH_SIZE) {
+                        addCues(batchStarts, batchEnds, batchTexts, batchCount);
+                        batchCount = 0;
+                    }
+                }
+                start = -1;
+                text.setLength(0);
+                continue;
+            }
+
+            int arrow = line.indexOf("-->");
+            if (arrow >= 0 && start < 0) {
+                start = parseTime(line.substring(0, arrow));
+                end = parseTime(nextToken(line, arrow + 3));
+                if (start < 0 || end < start)
+                    throw new IOException("Invalid cue timing: " + line);
+            } else if (start >= 0) {
+                if (text.length() > 0)
+                    text.append('\n');
+                appendWithoutTags(text, line);
+            }
+        } while (line != null);
+
+        addCues(batchStarts, batchEnds, batchTexts, batchCount);
+    }
+
+    /**
+     * Adds a single cue
+     *
+     * @param start Start in msec
+     * @param end   End in msec (exclusive)
+     */
+    public void addCue(long start, long end, String text) {
+        addCues(new long[]{start}, new long[]{end}, new String[]{text}, 1);
+    }
+
+    protected synchronized void addCues(long[] batchStarts, long[] batchEnds, String[] batchTexts, int batchCount) {
+        if (batchCount == 0)
+            return;
+
+        ensureCapacity(count + batchCount);
+        int firstChanged = count;
+        for (int i = 0; i < batchCount; i++) {
+            // Files are usually in order: appending is the common case
+            int index = count;
+            while (index > 0 && starts[index - 1] > batchStarts[i])
+                index--;
+
+            if (index < count) {
+                System.arraycopy(starts, index, starts, index + 1, count - index);
+                System.arraycopy(ends, index, ends, index + 1, count - index);
+                System.arraycopy(texts, index, texts, index + 1, count - index);
+            }
+            starts[index] = batchStarts[i];
+            ends[index] = batchEnds[i];
+            texts[index] = batchTexts[i];
+            count++;
+            firstChanged = Math.min(firstChanged, index);
+        }
+
+        for (int i = firstChanged; i < count; i++)
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+
+        // Indexes moved
+        cursor = -1;
+        lastPosition = -1;
+        modificationCount++;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (capacity <= starts.length)
+            return;
+
+        int size = Math.max(capacity, starts.length * 2);
+        long[] grownStarts = new long[size];
+        long[] grownEnds = new long[size];
+        long[] grownMaxEnds = new long[size];
+        String[] grownTexts = new String[size];
+        System.arraycopy(starts, 0, grownStarts, 0, count);
+        System.arraycopy(ends, 0, grownEnds, 0, count);
+        System.arraycopy(maxEnds, 0, grownMaxEnds, 0, count);
+        System.arraycopy(texts, 0, grownTexts, 0, count);
+        starts = grownStarts;
+        ends = grownEnds;
+        maxEnds = grownMaxEnds;
+        texts = grownTexts;
+    }
+
+    /**
+     * Finds the cues showing at a position
+     *
+     * @param position Position in msec
+     * @param out      Receives cue indexes, in start order. Extra cues are dropped
+     * @return Number of indexes written to out
+     */
+    public synchronized int getActiveCues(long position, int[] out) {
+        int last;
+        if (lastPosition < 0 || position < lastPosition) {
+            last = binarySearch(position);
+            rebuildActive(last, position);
+        } else {
+            // Cues that started since the last lookup join the set
+            last = cursor;
+            while (last + 1 < count && starts[last + 1] <= position)
+                addActive(++last);
+        }
+        cursor = last;
+        lastPosition = position;
+        nextChange = last + 1 < count ? starts[last + 1] : Long.MAX_VALUE;
+
+        // Cues that ended leave it
+        int kept = 0, found = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int index = active[i];
+            if (ends[index] > position) {
+                active[kept++] = index;
+                nextChange = Math.min(nextChange, ends[index]);
+                if (found < out.length)
+                    out[found++] = index;
+            }
+        }
+        activeCount = kept;
+        return found;
+    }
+
+    /**
+     * Same as {@link #getActiveCues(long, int[])}, also copying the texts under the same lock,
+     * so a batch added by {@link #loadAsync(File, OnLoadListener)} can not move the cues in between
+     *
+     * @param texts Receives the texts of the cues, as long as out
+     */
+    public synchronized int getActiveCues(long position, int[] out, String[] texts) {
+        int found = getActiveCues(position, out);
+        for (int i = 0; i < found; i++)
+            texts[i] = this.texts[out[i]];
+        return found;
+    }
+
+    /**
+     * @return Position (msec) when the result of the last {@link #getActiveCues(long, int[])}
+     * changes, or Long.MAX_VALUE
+     */
+    public synchronized long getNextChange() {
+        return nextChange;
+    }
+
+    /**
+     * Collects the cues started at or before last that may still be showing. Ended ones are
+     * filtered out by the caller
+     */
+    protected void rebuildActive(int last, long position) {
+        activeCount = 0;
+        int first = last;
+        while (first >= 0 && maxEnds[first] > position)
+            first--;
+        for (int i = first + 1; i <= last; i++)
+            if (ends[i] > position)
+                addActive(i);
+    }
+
+    protected void addActive(int index) {
+        if (activeCount == active.length) {
+            int[] grown = new int[active.length * 2];
+            System.arraycopy(active, 0, grown, 0, activeCount);
+            active = grown;
+        }
+        active[activeCount++] = index;
+    }
+
+    protected int binarySearch(long position) {
+        int low = 0, high = count - 1, index = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= position) {
+                index = middle;
+                low = middle + 1;
+            } else
+                high = middle - 1;
+        }
+        return index;
+    }
+
+    /**
+     * @return A number that changes whenever cues are added, which may shift the index of others
+     */
+    public synchronized int getModificationCount() {
+        return modificationCount;
+    }
+
+    public synchronized int getCueCount() {
+        return count;
+    }
+
+    public synchronized long getCueStart(int index) {
+        return starts[index];
+    }
+
+    public synchronized long getCueEnd(int index) {
+        return ends[index];
+    }
+
+    public synchronized String getCueText(int index) {
+        return texts[index];
+    }
+
+    /**
+     * @param value [hh:]mm:ss[.,]mmm, surrounded by spaces
+     * @return Time in msec or -1
+     */
+    protected static long parseTime(String value) {
+        value = value.trim();
+        long time = 0, field = 0;
+        int millisDigits = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                field = field * 10 + (c - '0');
+                if (millisDigits >= 0)
+                    millisDigits++;
+            } else if (c == ':' && millisDigits < 0) {
+                time = (time + field) * 60;
+                field = 0;
+            } else if ((c == '.' || c == ',') && millisDigits < 0) {
+                time = (time + field) * 1000;
+                field = 0;
+                millisDigits = 0;
+            } else
+                return -1;
+        }
+        if (millisDigits != 3)
+            return -1;
+        return time + field;
+    }
+
+    /**
+     * @return The token starting at index, skipping leading spaces (WebVTT cue settings follow the end time)
+     */
+    protected static String nextToken(String line, int index) {
+        while (index < line.length() && Character.isWhitespace(line.charAt(index)))
+            index++;
+        int end = index;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+            end++;
+        return line.substring(index, end);
+    }
+
+    protected static void appendWithoutTags(StringBuilder out, String line) {
+        boolean inTag = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '<')
+                inTag = true;
+            else if (c == '>' && inTag)
+                inTag = false;
+            else if (!inTag) {
+                if (c == '&' && line.startsWith("&amp;", i)) {
+                    out.append('&');
+                    i += 4;
+                } else if (c == '&' && line.startsWith("&lt;", i)) {
+                    out.append('<');
+                    i += 3;
+                } else if (c == '&' && line.startsWith("&gt;", i)) {
+                    out.append('>');
+                    i += 3;
+                } else
+                    out.append(c);
+            }
+        }
+    }
+}
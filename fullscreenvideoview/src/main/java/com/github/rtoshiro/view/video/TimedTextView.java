@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.widget.TextView;
+
+/**
+ * Shows the active cues of a {@link TimedTextTrack}, following a {@link PlaybackClock}.
+ * <p>
+ * Instead of polling every frame, it wakes up when the shown cues are due to change
+ * (or every {@link #MAX_INTERVAL} msec, to catch seeks). Text is only set when the
+ * active cues change, reusing the same buffers.
+ *
+ * @see FullscreenVideoView#setTimedTextTrack(TimedTextTrack)
+ */
+public class TimedTextView extends TextView {
+
+    protected static final long MIN_INTERVAL = 16;
+    protected static final long MAX_INTERVAL = 250;
+    protected static final int MAX_CUES = 8;
+
+    protected TimedTextTrack track;
+    protected PlaybackClock clock;
+    protected boolean running;
+
+    protected final int[] cues = new int[MAX_CUES];
+    protected final String[] cueTexts = new String[MAX_CUES];
+    protected final String[] shownTexts = new String[MAX_CUES];
+    protected int shownCount = -1;
+    protected final StringBuilder text = new StringBuilder();
+
+    protected Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!running)
+                return;
+
+            long delay = update();
+            postDelayed(this, delay);
+        }
+    };
+
+    public TimedTextView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TimedTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    protected void init() {
+        setGravity(Gravity.CENTER_HORIZONTAL);
+        setTextColor(Color.WHITE);
+        setTextSize(TypedValue.COMPLEX_UNIT_SP, 18);
+        setShadowLayer(2, 1, 1, Color.BLACK);
+    }
+
+    public void setTrack(TimedTextTrack track) {
+        this.track = track;
+        this.shownCount = -1;
+        restart();
+    }
+
+    public TimedTextTrack getTrack() {
+        return track;
+    }
+
+    public void setPlaybackClock(PlaybackClock clock) {
+        this.clock = clock;
+        restart();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        restart();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        running = false;
+        removeCallbacks(updateRunnable);
+    }
+
+    protected void restart() {
+        removeCallbacks(updateRunnable);
+        running = track != null && clock != null;
+        if (running)
+            post(updateRunnable);
+        else
+            setText(null);
+    }
+
+    /**
+     * Shows the cues active at the clock position
+     *
+     * @return Delay in msec until the next update
+     */
+    protected long update() {
+        long position = clock.getPosition();
+        // Texts come with the indexes: cues added while loading may move them right after
+        int count = track.getActiveCues(position, cues, cueTexts);
+
+        if (!sameCues(count)) {
+            text.setLength(0);
+            for (int i = 0; i < count; i++) {
+                if (i > 0)
+                    text.append('\n');
+                text.append(cueTexts[i]);
+                shownTexts[i] = cueTexts[i];
+            }
+            shownCount = count;
+            setText(text);
+        }
+
+        long delay = track.getNextChange() - position;
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, delay));
+    }
+
+    protected boolean sameCues(int count) {
+        if (count != shownCount)
+            return false;
+        for (int i = 0; i < count; i++)
+            if (!cueTexts[i].equals(shownTexts[i]))
+                return false;
+        return true;
+    }
+}
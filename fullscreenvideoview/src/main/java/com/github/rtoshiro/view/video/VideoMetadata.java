@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+/**
+ * What is known of a video before preparing it: its dimensions and duration.
+ * Values are 0 when they are unknown.
+ *
+ * @see VideoMetadataCache
+ * @see FullscreenVideoView#setVideoMetadata(VideoMetadata)
+ */
+public class VideoMetadata {
+
+    protected final int width;
+    protected final int height;
+    protected final int duration;
+
+    /**
+     * @param duration In msec
+     */
+    public VideoMetadata(int width, int height, int duration) {
+        this.width = width;
+        this.height = height;
+        this.duration = duration;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Duration in msec, 0 if unknown
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return true if both dimensions are known
+     */
+    public boolean hasSize() {
+        return width > 0 && height > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoMetadata " + width + "x" + height + " - " + duration + " ms";
+    }
+}
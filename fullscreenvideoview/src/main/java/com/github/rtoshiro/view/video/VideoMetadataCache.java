@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide LRU cache of {@link VideoMetadata}, keyed by URI or path.
+ * <p>
+ * {@link FullscreenVideoView} fills it on every prepare and reads it when a source is set,
+ * so a video played before is measured at its final size on the first layout pass.
+ * Apps may also put metadata they got elsewhere (an API response, for instance).
+ */
+public class VideoMetadataCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static VideoMetadataCache instance;
+
+    protected final Map<String, VideoMetadata> entries;
+
+    /**
+     * @return The cache used by every {@link FullscreenVideoView}
+     */
+    public static synchronized VideoMetadataCache getDefault() {
+        if (instance == null)
+            instance = new VideoMetadataCache(DEFAULT_MAX_ENTRIES);
+        return instance;
+    }
+
+    public VideoMetadataCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<String, VideoMetadata>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VideoMetadata> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return Metadata of a source, or null if unknown
+     */
+    public synchronized VideoMetadata get(String key) {
+        return key != null ? entries.get(key) : null;
+    }
+
+    public synchronized void put(String key, VideoMetadata metadata) {
+        if (key != null && metadata != null)
+            entries.put(key, metadata);
+    }
+
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import java.util.PriorityQueue;
+
+/**
+ * Deterministic time for {@link SimulatedPlayerEngine}s.
+ * <p>
+ * Time only moves when {@link #advance(long)} is called; tasks run in time order
+ * (then in the order they were scheduled) on the calling thread. Nothing depends on the wall
+ * clock, so the same seed and the same calls always produce the same callbacks.
+ */
+public class VirtualClock {
+
+    protected static class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+        boolean cancelled;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time)
+                return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    protected final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    protected long now;
+    protected long sequence;
+    protected long executed;
+
+    /**
+     * @return Virtual time in msec
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Runs a task after a delay of virtual time
+     *
+     * @return Handle for {@link #cancel(Object)}
+     */
+    public Object schedule(long delay, Runnable runnable) {
+        Task task = new Task(now + Math.max(0, delay), sequence++, runnable);
+        tasks.add(task);
+        return task;
+    }
+
+    public void cancel(Object handle) {
+        if (handle instanceof Task)
+            ((Task) handle).cancelled = true;
+    }
+
+    /**
+     * Moves time forward, running the tasks due on the way
+     *
+     * @return Tasks run
+     */
+    public int advance(long msec) {
+        long target = now + msec;
+        int count = 0;
+        while (true) {
+            Task task = tasks.peek();
+            if (task == null || task.time > target)
+                break;
+
+            tasks.poll();
+            if (task.cancelled)
+                continue;
+
+            now = task.time;
+            task.runnable.run();
+            count++;
+        }
+        now = target;
+        executed += count;
+        return count;
+    }
+
+    /**
+     * Runs every pending task, moving time to each one
+     *
+     * @param maxTime Stops there, for tasks that keep rescheduling themselves
+     * @return Tasks run
+     */
+    public int runUntilIdle(long maxTime) {
+        int count = 0;
+        while (true) {
+            Task task = tasks.peek();
+            while (task != null && task.cancelled) {
+                tasks.poll();
+                task = tasks.peek();
+            }
+            if (task == null || task.time > maxTime)
+                return count;
+            count += advance(task.time - now);
+        }
+    }
+
+    /**
+     * @return Scheduled tasks not run yet, cancelled ones included
+     */
+    public int getPendingCount() {
+        return tasks.size();
+    }
+
+    /**
+     * @return Tasks run since it was created
+     */
+    public long getExecutedCount() {
+        return executed;
+    }
+}
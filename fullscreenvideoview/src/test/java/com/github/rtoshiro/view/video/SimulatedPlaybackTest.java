@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2016 Toshiro Sugii
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rtoshiro.view.video;
+
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives views with a {@link SimulatedPlayerEngine}: no surface, decoder or network,
+ * time only moves with the {@link VirtualClock}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SimulatedPlaybackTest {
+
+    private static final Uri VIDEO = Uri.parse("http://example.com/clip.mp4");
+
+    private VirtualClock clock;
+    private SimulatedPlayerEngine.Profile profile;
+    private int completions;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock();
+        profile = new SimulatedPlayerEngine.Profile()
+                .setDuration(10000)
+                .setPrepareLatency(LatencyDistribution.fixed(300))
+                .setSeekLatency(LatencyDistribution.fixed(50))
+                .setBuffer(10000, 2000);
+        completions = 0;
+    }
+
+    private <T extends FullscreenVideoView> T prepare(T view) throws Exception {
+        view.setPlayerEngineFactory(SimulatedPlayerEngine.factory(clock, profile, 42));
+        view.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                completions++;
+            }
+        });
+        view.setShouldAutoplay(true);
+        view.setVideoURI(VIDEO);
+        return view;
+    }
+
+    @Test
+    public void playsFromPrepareToCompletion() throws Exception {
+        FullscreenVideoView view = prepare(new FullscreenVideoView(RuntimeEnvironment.application));
+        assertEquals(FullscreenVideoView.State.PREPARING, view.getCurrentState());
+
+        clock.advance(299);
+        assertEquals(FullscreenVideoView.State.PREPARING, view.getCurrentState());
+
+        clock.advance(1);
+        assertEquals(FullscreenVideoView.State.STARTED, view.getCurrentState());
+        assertEquals(10000, view.getDuration());
+        assertEquals(1280, view.getVideoWidth());
+
+        clock.advance(4000);
+        assertEquals(4000, view.getCurrentPosition());
+        assertEquals(0, completions);
+
+        clock.advance(6000);
+        assertEquals(FullscreenVideoView.State.PLAYBACKCOMPLETED, view.getCurrentState());
+        assertEquals(10000, view.getCurrentPosition());
+        assertEquals(1, completions);
+    }
+
+    @Test
+    public void resumesAfterSeek() throws Exception {
+        FullscreenVideoView view = prepare(new FullscreenVideoView(RuntimeEnvironment.application));
+        clock.advance(1300);
+
+        view.seekTo(8000);
+        assertEquals(FullscreenVideoView.State.PAUSED, view.getCurrentState());
+
+        clock.advance(50);
+        assertEquals(FullscreenVideoView.State.STARTED, view.getCurrentState());
+        assertEquals(8000, view.getCurrentPosition());
+
+        clock.advance(2000);
+        assertEquals(FullscreenVideoView.State.PLAYBACKCOMPLETED, view.getCurrentState());
+        assertEquals(1, completions);
+    }
+
+    @Test
+    public void layoutShowsControlsOncePrepared() throws Exception {
+        FullscreenVideoLayout layout = prepare(new FullscreenVideoLayout(RuntimeEnvironment.application));
+        assertEquals(View.INVISIBLE, layout.videoControlsView.getVisibility());
+
+        clock.advance(300);
+        assertEquals(View.VISIBLE, layout.videoControlsView.getVisibility());
+        assertEquals("00:10", layout.textTotal.getText().toString());
+
+        clock.runUntilIdle(20000);
+        assertEquals(FullscreenVideoView.State.PLAYBACKCOMPLETED, layout.getCurrentState());
+        assertEquals(1, completions);
+    }
+}
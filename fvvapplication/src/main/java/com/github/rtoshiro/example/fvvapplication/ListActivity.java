@@ -13,7 +13,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.github.rtoshiro.view.video.FullscreenVideoLayout;
+import com.github.rtoshiro.view.video.Mp4HeaderCache;
+import com.github.rtoshiro.view.video.PrepareScheduler;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -21,6 +24,8 @@ public class ListActivity extends Activity {
     RecyclerView recyclerView;
     ItemAdapter adapter;
     RecyclerView.LayoutManager layoutManager;
+    Mp4HeaderCache headerCache;
+    PrepareScheduler prepareScheduler;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -29,6 +34,28 @@ public class ListActivity extends Activity {
         this.recyclerView = (RecyclerView) findViewById(R.id.recyclerview);
 
         recyclerView.setHasFixedSize(true);
+        this.headerCache = new Mp4HeaderCache(new File(getCacheDir(), "mp4headers"));
+
+        // Rows flung past are not prepared
+        this.prepareScheduler = new PrepareScheduler(this);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prepareScheduler.onScrolled(dx, dy);
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE)
+                    prepareScheduler.onScrollIdle();
+            }
+        });
+        recyclerView.setOnFlingListener(new RecyclerView.OnFlingListener() {
+            @Override
+            public boolean onFling(int velocityX, int velocityY) {
+                return prepareScheduler.onFling(velocityX, velocityY);
+            }
+        });
 
         ArrayList<String> items = new ArrayList<>();
         items.add("http://techslides.com/demos/sample-videos/small.mp4");
@@ -87,9 +114,9 @@ public class ListActivity extends Activity {
 
                     Uri videoUri = Uri.parse(item);
                     try {
-                        Log.i("ListActivity", "Reseting");
-                        holder.videoLayout.reset();
-                        holder.videoLayout.setVideoURI(videoUri);
+                        // Rebinding the same item keeps its prepared player
+                        if (holder.videoLayout.bind(videoUri))
+                            Log.i("ListActivity", "Loading " + videoUri);
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
@@ -114,6 +141,9 @@ public class ListActivity extends Activity {
                 super(v);
                 this.itemView = v;
                 this.videoLayout = (FullscreenVideoLayout) v.findViewById(R.id.videoview);
+                this.videoLayout.setPrepareTimeout(15000);
+                this.videoLayout.setFastStartCache(headerCache);
+                this.videoLayout.setPrepareScheduler(prepareScheduler);
 
             }
         }